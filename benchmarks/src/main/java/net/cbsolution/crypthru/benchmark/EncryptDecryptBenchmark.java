@@ -0,0 +1,70 @@
+package net.cbsolution.crypthru.benchmark;
+
+import net.cbsolution.crypthru.crypt.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypt and decrypt of files by payload size, number and key type of recipients and compression.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncryptDecryptBenchmark {
+
+  @Param({"1024", "1048576", "104857600", "1073741824"})
+  public long size;
+
+  @Param({"1", "10", "100"})
+  public int recipients;
+
+  @Param({"RSA", "ECC"})
+  public KeyType keyType;
+
+  @Param({"NONE", "ZIP", "ZLIB", "BZIP2"})
+  public Compression.Algorithm compression;
+
+  private final BcPgpService service = new BcPgpService();
+  private PublicKeyProxy[] keys;
+  private DecryptionSession session;
+  private Compression chosen;
+  private Path plainTextFile;
+  private Path encryptedFile;
+  private Path outputFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    keys = Fixtures.publicKeys(service, keyType, recipients);
+    session = service.openDecryptionSession(Fixtures.privateKey(service, keyType), 0);
+    chosen = new Compression(compression, 1);
+    plainTextFile = Fixtures.payload(size);
+    encryptedFile = Files.createTempFile(Fixtures.HOME, "encrypted", ".pgp");
+    outputFile = Files.createTempFile(Fixtures.HOME, "output", ".bin");
+    service.encrypt(plainTextFile, encryptedFile, chosen, keys);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    session.close();
+    Files.deleteIfExists(encryptedFile);
+    Files.deleteIfExists(outputFile);
+  }
+
+  @Benchmark
+  public void encrypt() {
+    service.encrypt(plainTextFile, outputFile, chosen, keys);
+  }
+
+  @Benchmark
+  public void decrypt() {
+    session.decrypt(encryptedFile, outputFile);
+  }
+
+}
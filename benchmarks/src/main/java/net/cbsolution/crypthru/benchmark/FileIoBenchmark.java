@@ -0,0 +1,84 @@
+package net.cbsolution.crypthru.benchmark;
+
+import net.cbsolution.crypthru.crypt.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypt and decrypt of files through the channel streams of the Path methods, with blocks up to
+ * {@link BcPgpService#DEFAULT_BLOCK_SIZE}, against plain file streams given to the stream methods.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileIoBenchmark {
+
+  public enum Io { CHANNEL, STREAM }
+
+  @Param({"1048576", "104857600", "5368709120"})
+  public long size;
+
+  @Param({"CHANNEL", "STREAM"})
+  public Io io;
+
+  private final BcPgpService service = new BcPgpService();
+  private final Compression compression = Compression.NONE;
+  private PublicKeyProxy[] keys;
+  private DecryptionSession session;
+  private Path plainTextFile;
+  private Path encryptedFile;
+  private Path outputFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    keys = Fixtures.publicKeys(service, KeyType.ECC, 1);
+    session = service.openDecryptionSession(Fixtures.privateKey(service, KeyType.ECC), 0);
+    plainTextFile = Fixtures.payload(size);
+    encryptedFile = Files.createTempFile(Fixtures.HOME, "encrypted", ".pgp");
+    outputFile = Files.createTempFile(Fixtures.HOME, "output", ".bin");
+    service.encrypt(plainTextFile, encryptedFile, compression, keys);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    session.close();
+    Files.deleteIfExists(encryptedFile);
+    Files.deleteIfExists(outputFile);
+  }
+
+  @Benchmark
+  public void encrypt() throws IOException {
+    if (io == Io.CHANNEL) {
+      service.encrypt(plainTextFile, outputFile, compression, keys);
+      return;
+    }
+    try (InputStream in = Files.newInputStream(plainTextFile);
+         OutputStream out = Files.newOutputStream(outputFile)) {
+      service.encrypt(in, out, new LiteralMetadata(plainTextFile.getFileName().toString(), new Date()),
+          compression, keys);
+    }
+  }
+
+  @Benchmark
+  public void decrypt() throws IOException {
+    if (io == Io.CHANNEL) {
+      session.decrypt(encryptedFile, outputFile);
+      return;
+    }
+    try (InputStream in = Files.newInputStream(encryptedFile);
+         OutputStream out = Files.newOutputStream(outputFile)) {
+      session.decrypt(in, out);
+    }
+  }
+
+}
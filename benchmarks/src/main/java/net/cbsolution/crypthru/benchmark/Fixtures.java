@@ -0,0 +1,87 @@
+package net.cbsolution.crypthru.benchmark;
+
+import net.cbsolution.crypthru.crypt.BcPgpService;
+import net.cbsolution.crypthru.crypt.KeyPairFactory;
+import net.cbsolution.crypthru.crypt.KeyPairProxy;
+import net.cbsolution.crypthru.crypt.KeyType;
+import net.cbsolution.crypthru.crypt.PrivateKeyProxy;
+import net.cbsolution.crypthru.crypt.PublicKeyProxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Keys and payloads shared by benchmarks. They are kept in the temporary directory and reused across runs.
+ */
+class Fixtures {
+
+  static final String PASSPHRASE = "benchmark";
+  static final Path HOME = Paths.get(System.getProperty("java.io.tmpdir"), "crypthru-benchmark");
+
+  private Fixtures() {
+  }
+
+  static Path publicKeyFile(KeyType keyType, int index) {
+    return HOME.resolve("keys").resolve(keyName(keyType, index) + ".pub");
+  }
+
+  static Path privateKeyFile(KeyType keyType, int index) {
+    return HOME.resolve("keys").resolve(keyName(keyType, index) + ".key");
+  }
+
+  private static String keyName(KeyType keyType, int index) {
+    return "recipient" + index + "-" + keyType.name().toLowerCase();
+  }
+
+  /**
+   * @return The public keys of count recipients, generating missing ones. The first recipient's private key
+   * is available from {@link #privateKey(BcPgpService, KeyType)}.
+   */
+  static PublicKeyProxy[] publicKeys(BcPgpService service, KeyType keyType, int count) throws IOException {
+    PublicKeyProxy[] result = new PublicKeyProxy[count];
+    Files.createDirectories(HOME.resolve("keys"));
+    try (KeyPairFactory factory = service.openKeyPairFactory(Runtime.getRuntime().availableProcessors())) {
+      IntStream.range(0, count).parallel().filter(i -> !Files.exists(publicKeyFile(keyType, i))).forEach(i -> {
+        KeyPairProxy pair = factory.createKeyPair("recipient" + i + "@benchmark.crypthru", PASSPHRASE, keyType);
+        pair.getPrivateKeyProxy().writeTo(privateKeyFile(keyType, i));
+        pair.getPublicKeyProxy().writeTo(publicKeyFile(keyType, i));
+      });
+    }
+    for (int i = 0; i < count; i++)
+      result[i] = service.readPublicKey(publicKeyFile(keyType, i));
+    return result;
+  }
+
+  static PrivateKeyProxy privateKey(BcPgpService service, KeyType keyType) throws IOException {
+    publicKeys(service, keyType, 1);
+    return service.readPrivateKey(privateKeyFile(keyType, 0), PASSPHRASE);
+  }
+
+  /**
+   * @return A file of the given size, half random and half repeated text, so that compression has some work.
+   */
+  static Path payload(long size) throws IOException {
+    Path result = HOME.resolve("payload-" + size + ".bin");
+    if (Files.exists(result) && Files.size(result) == size)
+      return result;
+    Files.createDirectories(HOME);
+    Random random = new Random(size);
+    byte[] block = new byte[64 * 1024];
+    byte[] text = "The quick brown fox jumps over the lazy dog. ".getBytes("US-ASCII");
+    try (OutputStream out = Files.newOutputStream(result)) {
+      for (long written = 0; written < size; written += block.length) {
+        random.nextBytes(block);
+        for (int i = block.length / 2; i < block.length; i++)
+          block[i] = text[i % text.length];
+        out.write(block, 0, (int) Math.min(block.length, size - written));
+      }
+    }
+    return result;
+  }
+
+}
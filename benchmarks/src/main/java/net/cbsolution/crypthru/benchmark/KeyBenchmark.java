@@ -0,0 +1,53 @@
+package net.cbsolution.crypthru.benchmark;
+
+import net.cbsolution.crypthru.crypt.BcPgpService;
+import net.cbsolution.crypthru.crypt.KeyPairProxy;
+import net.cbsolution.crypthru.crypt.KeyType;
+import net.cbsolution.crypthru.crypt.PublicKeyProxy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading, unlocking and generating keys of each type.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyBenchmark {
+
+  @Param({"RSA", "ECC"})
+  public KeyType keyType;
+
+  private final BcPgpService service = new BcPgpService();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Fixtures.publicKeys(service, keyType, 1);
+  }
+
+  @Benchmark
+  public PublicKeyProxy readPublicKey() {
+    return service.readPublicKey(Fixtures.publicKeyFile(keyType, 0));
+  }
+
+  /**
+   * Reading the private key and unlocking it with the passphrase (printing requires the unlocked key).
+   */
+  @Benchmark
+  public String readPrivateKeyAndUnlock() {
+    return service.readPrivateKey(Fixtures.privateKeyFile(keyType, 0), Fixtures.PASSPHRASE).print();
+  }
+
+  @Benchmark
+  @Warmup(iterations = 1)
+  @Measurement(iterations = 3)
+  public KeyPairProxy createKeyPair() {
+    return service.createKeyPair("benchmark@benchmark.crypthru", Fixtures.PASSPHRASE, keyType);
+  }
+
+}
@@ -0,0 +1,49 @@
+package net.cbsolution.crypthru.benchmark;
+
+import net.cbsolution.crypthru.crypt.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypting a small payload for large groups of recipients, where encrypting the session key for each
+ * recipient costs more than encrypting the data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecipientsBenchmark {
+
+  @Param({"1", "50", "500"})
+  public int recipients;
+
+  @Param({"RSA", "ECC"})
+  public KeyType keyType;
+
+  private final BcPgpService service = new BcPgpService();
+  private final LiteralMetadata metadata = new LiteralMetadata("payload.bin", new Date());
+  private final Compression compression = Compression.NONE;
+  private PublicKeyProxy[] keys;
+  private byte[] payload;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    keys = Fixtures.publicKeys(service, keyType, recipients);
+    payload = new byte[1024];
+  }
+
+  @Benchmark
+  public int encrypt() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    service.encrypt(new ByteArrayInputStream(payload), out, metadata, compression, keys);
+    return out.size();
+  }
+
+}
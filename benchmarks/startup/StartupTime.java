@@ -0,0 +1,100 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Creates the class-data sharing archive of crypthru and measures the time from launch to the start of the
+ * first directive, a one-file encrypt. Run as a single-file program with the JDK that will run crypthru
+ * (13+, for -XX:ArchiveClassesAtExit):
+ * <pre>
+ *   java StartupTime.java (work dir) (archive) (runs) (target ms) (java) (jvm options, class path, main class)
+ * </pre>
+ * A keystore with an ECC key pair and a small file to encrypt are created in the work directory, then a
+ * training run dumps the archive. The encrypt is launched the given number of times without and with the
+ * archive, the time of each run being when the "Directive -->" log line shows up. Exits with 1 when the
+ * median with the archive exceeds the target, unless the target is 0.
+ */
+public class StartupTime {
+
+  private static final String FIRST_DIRECTIVE = "Directive -->";
+  private static final String ID = "startup@crypthru.net";
+
+  public static void main(String[] args) throws Exception {
+    Path workDir = Paths.get(args[0]).toAbsolutePath();
+    Path archive = Paths.get(args[1]).toAbsolutePath();
+    int runs = Integer.parseInt(args[2]);
+    long target = Long.parseLong(args[3]);
+    List<String> launcher = Arrays.asList(args).subList(4, args.length);
+
+    Path keystore = workDir.resolve("keystore"), sample = workDir.resolve("sample.txt");
+    Files.createDirectories(workDir);
+    Files.write(sample, String.join("\n", Collections.nCopies(500, "Launch to first directive")).getBytes());
+    List<String> encrypt = Arrays.asList("-ks", keystore.toString(), "-f", "encrypt", "path=" + sample,
+        "public-id=" + ID);
+    if (!Files.exists(keystore.resolve("keys/public/" + ID + ".key")))
+      run(command(launcher, null, Arrays.asList("-ks", keystore.toString(), "create-key-pair", "private-id=" + ID,
+          "pass=startup-passphrase", "key-type=ecc")));
+    Files.deleteIfExists(archive);
+    run(command(launcher, "-XX:ArchiveClassesAtExit=" + archive, encrypt));
+
+    long without = median(command(launcher, null, encrypt), runs, "without archive");
+    long with = median(command(launcher, "-XX:SharedArchiveFile=" + archive, encrypt), runs, "with archive");
+    System.out.println(String.format(Locale.ROOT, "Class-data sharing saves %d ms; archive: %s (%d KB)",
+        without - with, archive, Files.size(archive) / 1024));
+    if (target > 0 && with > target) {
+      System.out.println("Startup target of " + target + " ms missed");
+      System.exit(1);
+    }
+  }
+
+  // the JVM option goes right after the java executable
+  private static List<String> command(List<String> launcher, String jvmOption, List<String> arguments) {
+    List<String> result = new ArrayList<>();
+    result.add(launcher.get(0));
+    if (jvmOption != null)
+      result.add(jvmOption);
+    result.addAll(launcher.subList(1, launcher.size()));
+    result.addAll(arguments);
+    return result;
+  }
+
+  private static long median(List<String> command, int runs, String caption) throws Exception {
+    run(command);
+    List<Long> times = new ArrayList<>();
+    for (int i = 0; i < runs; i++)
+      times.add(run(command));
+    Collections.sort(times);
+    long result = times.get(times.size() / 2);
+    System.out.println(String.format(Locale.ROOT, "Launch to first directive %s: median %d ms, min %d ms, " +
+        "max %d ms over %d runs", caption, result, times.get(0), times.get(times.size() - 1), runs));
+    return result;
+  }
+
+  /**
+   * @return Milliseconds from launch to the first directive.
+   */
+  private static long run(List<String> command) throws Exception {
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    long result = -1;
+    StringBuilder output = new StringBuilder();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      for (String line; (line = in.readLine()) != null; ) {
+        if (result < 0 && line.contains(FIRST_DIRECTIVE))
+          result = (System.nanoTime() - start) / 1_000_000;
+        output.append(line).append('\n');
+      }
+    }
+    if (process.waitFor() != 0 || result < 0)
+      throw new IllegalStateException("Failed: " + String.join(" ", command) + "\n" + output);
+    return result;
+  }
+
+}
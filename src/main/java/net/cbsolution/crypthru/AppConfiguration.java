@@ -3,20 +3,48 @@ package net.cbsolution.crypthru;
 
 import lombok.Getter;
 import lombok.Setter;
+import net.cbsolution.crypthru.directives.*;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.function.Supplier;
 
 @Component
 @ConfigurationProperties(prefix = "app")
 public class AppConfiguration {
 
+  /**
+   * The directives shipped with crypthru by class name, instantiated without reflection. Other classes
+   * configured as directives are loaded by name.
+   */
+  private static final Map<String, Supplier<Directive>> BUILT_IN_DIRECTIVES = new HashMap<>();
+
+  static {
+    register(CreateKeypair.class, CreateKeypair::new);
+    register(Encrypt.class, Encrypt::new);
+    register(Decrypt.class, Decrypt::new);
+    register(Execute.class, Execute::new);
+    register(ImportPublicKey.class, ImportPublicKey::new);
+    register(ProvisionKeyPairs.class, ProvisionKeyPairs::new);
+  }
+
+  private static void register(Class<? extends Directive> clazz, Supplier<Directive> constructor) {
+    BUILT_IN_DIRECTIVES.put(clazz.getName(), constructor);
+  }
+
   @Getter
   @Setter
   private Map<String, String> directives = new HashMap<>();
 
+  /**
+   * The JCA provider of each crypto primitive, see {@link net.cbsolution.crypthru.crypt.CryptoProviders}.
+   */
+  @Getter
+  @Setter
+  private Map<String, String> providers = new HashMap<>();
+
   @Getter
   @Setter
   private String version, encoding, javaVersion;
@@ -25,6 +53,9 @@ public class AppConfiguration {
     String directiveClassName = directives.get(directiveName);
     if (directiveClassName == null)
       throw new RuntimeException("There is no directive named " + directiveName);
+    Supplier<Directive> builtIn = BUILT_IN_DIRECTIVES.get(directiveClassName);
+    if (builtIn != null)
+      return builtIn.get();
     Class<? extends Directive> clazz;
     try {
       clazz = (Class<? extends Directive>) Class.forName(directiveClassName);
@@ -5,8 +5,10 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.java.Log;
 import net.cbsolution.crypthru.crypt.BcPgpService;
+import net.cbsolution.crypthru.crypt.DecryptionSession;
 import net.cbsolution.crypthru.crypt.Performance;
 import net.cbsolution.crypthru.crypt.PrivateKeyProxy;
+import net.cbsolution.crypthru.util.DirectoryWatcher;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.Console;
@@ -20,13 +22,14 @@ import java.util.List;
 @Log
 public class Arguments {
 
-  private static final String KEYSTORE_PATH = "~/.crypthru";
+  static final String KEYSTORE_PATH = "~/.crypthru";
   private static final String ASK_ME = "ask-me";
 
   @Autowired
   FSKeystore fsKeystore;
 
   private PrivateKeyProxy privateKey;
+  private DecryptionSession decryptionSession;
   private BcPgpService cryptService = new BcPgpService();
 
   @Parameter(description = "[directive...]")
@@ -73,11 +76,42 @@ public class Arguments {
   @Parameter(names = "-watch", description = "Stay watching the directory after scan")
   private boolean watch = false;
 
+  @Parameter(names = "-watch-stable-ms", description = "Milliseconds a watched file shall not change before processing it")
+  private long watchStableMillis = 1000;
+
+  @Parameter(names = "-watch-queue", description = "Number of stable watched files that can wait for a worker")
+  private int watchQueue = 16;
+
+  @Parameter(names = "-watch-backend", description = "How changes are detected: NATIVE events, POLLING listings, " +
+      "or AUTO (polling for NFS and CIFS shares)")
+  private DirectoryWatcher.Backend watchBackend = DirectoryWatcher.Backend.AUTO;
+
+  @Parameter(names = "-watch-poll-ms", description = "Milliseconds between listings of polled directories")
+  private long watchPollMillis = DirectoryWatcher.DEFAULT_POLL_MILLIS;
+
+  @Parameter(names = "-parallelism", description = "Number of files encrypted or decrypted concurrently")
+  private int parallelism = 1;
+
+  @Parameter(names = "-block-size", description = "Size in KB of the blocks read from and written to files")
+  private int blockSize = BcPgpService.DEFAULT_BLOCK_SIZE / 1024;
+
+  @Parameter(names = "-key-ttl", description = "Seconds a private key stays unlocked, 0 for the whole execution")
+  private long keyTtl = 0;
+
+  @Parameter(names = "-daemon", description = "Stay running, executing the jobs sent by -remote clients")
+  private boolean daemon = false;
+
+  @Parameter(names = "-daemon-port", description = "Loopback port of the daemon, 0 for any free port")
+  private int daemonPort = 0;
+
+  @Parameter(names = "-remote", description = "Send the directives to the daemon of the keystore instead of executing them")
+  private boolean remote = false;
+
   private Performance encryptPerformance = new Performance("Encrypt");
 
   private Performance decryptPerformance = new Performance("Decrypt");
 
-  public PrivateKeyProxy figurePrivateKey() {
+  public synchronized PrivateKeyProxy figurePrivateKey() {
     if (privateKey == null) {
       Path keyFile;
       if (privateKeyFile != null)
@@ -97,7 +131,24 @@ public class Arguments {
     return privateKey;
   }
 
-  public String getOrAskPassphrase(String privateKeyId) {
+  /**
+   * @return A session decrypting with the private key found by {@link #figurePrivateKey()}, kept unlocked
+   * until {@link #closeDecryptionSession()}.
+   */
+  public synchronized DecryptionSession figureDecryptionSession() {
+    if (decryptionSession == null)
+      decryptionSession = cryptService.openDecryptionSession(figurePrivateKey(), keyTtl * 1000);
+    return decryptionSession;
+  }
+
+  public synchronized void closeDecryptionSession() {
+    if (decryptionSession != null) {
+      decryptionSession.close();
+      decryptionSession = null;
+    }
+  }
+
+  public synchronized String getOrAskPassphrase(String privateKeyId) {
     if (ASK_ME.equals(passPhrase)) {
       Console console = System.console();
       if (console == null)
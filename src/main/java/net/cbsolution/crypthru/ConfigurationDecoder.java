@@ -15,6 +15,11 @@ public class ConfigurationDecoder {
 
   static final Pattern REPLACEABLE_SEQUENCE = Pattern.compile("\\$\\{([^\\}]+)\\}");
   static final Pattern EXPAND_PATTERN = Pattern.compile("^expand: *(.+)$");
+  static final Pattern QUANTITY_PATTERN = Pattern.compile("^(\\d+) *([a-zA-Z]?)$");
+  private static final String SIZE_UNITS = "bkmg";
+  private static final long[] SIZE_FACTORS = {1, 1024, 1024 * 1024, 1024 * 1024 * 1024};
+  private static final String AGE_UNITS = "smhd";
+  private static final long[] AGE_FACTORS = {1000, 60 * 1000, 60 * 60 * 1000, 24 * 60 * 60 * 1000};
   private static AntPathMatcher antPatternMatcher = new AntPathMatcher();
 
 
@@ -72,6 +77,37 @@ public class ConfigurationDecoder {
     return (Boolean) result;
   }
 
+  public int read(String key, int defaultValue) {
+    Object result = map.get(key);
+    if (result == null)
+      return defaultValue;
+    if (result instanceof Integer)
+      return (Integer) result;
+    try {
+      return Integer.parseInt(replaceSequences(result.toString()).trim());
+    } catch (NumberFormatException ex) {
+      throw new RuntimeException("Entry [" + key + "] shall be an integer number at: " + sourcePath);
+    }
+  }
+
+  /**
+   * Read a number followed by a unit, for example 10m.
+   * @param units        The unit letters, the first being the default.
+   * @param factors      The value of a unit, for each unit letter.
+   * @param defaultValue The value if the entry is missing.
+   */
+  public long read(String key, String units, long[] factors, long defaultValue) {
+    Object result = map.get(key);
+    if (result == null)
+      return defaultValue;
+    Matcher m = QUANTITY_PATTERN.matcher(replaceSequences(result.toString()).trim());
+    int unit = m.matches() ? (m.group(2).isEmpty() ? 0 : units.indexOf(m.group(2).toLowerCase())) : -1;
+    if (unit < 0)
+      throw new RuntimeException("Entry [" + key + "] shall be a number followed by one of " + units + " at: " +
+          sourcePath);
+    return Long.parseLong(m.group(1)) * factors[unit];
+  }
+
   public List<Map<String, Object>> readMapList(String key) {
     List<Map<String, Object>> result = new ArrayList<>();
     Object entry = map.get(key);
@@ -88,6 +124,11 @@ public class ConfigurationDecoder {
   }
 
   public void captureFilters(FileGrabber fileGrabber) {
+    fileGrabber.setRecursive(read("recursive", false));
+    fileGrabber.limitSize(read("min-size", SIZE_UNITS, SIZE_FACTORS, 0),
+        read("max-size", SIZE_UNITS, SIZE_FACTORS, Long.MAX_VALUE));
+    fileGrabber.limitAge(read("min-age", AGE_UNITS, AGE_FACTORS, 0),
+        read("max-age", AGE_UNITS, AGE_FACTORS, Long.MAX_VALUE));
     for (Map<String, Object> map: readMapList("filter")) {
       Object pattern;
       if ((pattern = map.get("include")) != null)
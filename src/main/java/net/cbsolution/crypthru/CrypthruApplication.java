@@ -2,6 +2,7 @@ package net.cbsolution.crypthru;
 
 import com.beust.jcommander.JCommander;
 import lombok.extern.java.Log;
+import net.cbsolution.crypthru.crypt.CryptoProviders;
 import net.cbsolution.crypthru.util.PathKit;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
@@ -10,15 +11,17 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 
-@SpringBootApplication
+@SpringBootApplication(proxyBeanMethods = false)
 @Log
 public class CrypthruApplication implements CommandLineRunner {
 
   private Arguments arguments;
   private DirectiveLoader directiveLoader;
   private AppConfiguration appConfiguration;
+  private JobServer jobServer;
   private JCommander commander;
 
   @Autowired
@@ -36,6 +39,11 @@ public class CrypthruApplication implements CommandLineRunner {
     this.appConfiguration = appConfiguration;
   }
 
+  @Autowired
+  public void setJobServer(JobServer jobServer) {
+    this.jobServer = jobServer;
+  }
+
   @Override
   public void run(String... args) {
     log.info("Crypthru V. " + appConfiguration.getVersion() + ". JVM: " +
@@ -44,24 +52,44 @@ public class CrypthruApplication implements CommandLineRunner {
     commander = JCommander.newBuilder().addObject(arguments).build();
     commander.setProgramName("crypthru");
     commander.parse(args);
-
-    if (arguments.isGuide())
+    if (arguments.isGuide()) {
       printGuide();
-    else if (arguments.isHelp())
+      return;
+    }
+    if (arguments.isHelp()) {
       commander.usage();
-    else if (arguments.getDirectives().size() + arguments.getDirectiveFile().size() == 0) {
+      return;
+    }
+    if (!arguments.isDaemon() && arguments.getDirectives().size() + arguments.getDirectiveFile().size() == 0) {
       log.warning("Nothing to do! Use -help list command line arguments, -guide to print User's Guide.");
       commander.usage();
+      return;
+    }
+
+    // only now that there is work: the first calibration of the providers generates keys
+    arguments.getCryptService().setBlockSize(arguments.getBlockSize() * 1024);
+    arguments.getCryptService().setProviders(CryptoProviders.configure(appConfiguration.getProviders(),
+        arguments.getFsKeystore().getHomeFile(CryptoProviders.CALIBRATION_FILE)));
+    if (arguments.isDaemon()) {
+      jobServer.serve();
+      return;
     }
-    for (String s : arguments.getDirectiveFile()) {
-      process(PathKit.replaceHome(s), arguments);
+    try {
+      for (String s : arguments.getDirectiveFile()) {
+        process(PathKit.replaceHome(s), arguments);
+      }
+      processCommandLine(arguments.getDirectives());
+    } finally {
+      arguments.closeDecryptionSession();
     }
-    processCommandLine(arguments.getDirectives());
     arguments.getEncryptPerformance().logFigures();
     arguments.getDecryptPerformance().logFigures();
   }
 
   public static void main(String[] args) {
+    // the client of a daemon does not need Spring: leave it out to start fast
+    if (Arrays.asList(args).contains(JobClient.REMOTE))
+      System.exit(JobClient.run(args));
     SpringApplication.run(CrypthruApplication.class, args);
   }
 
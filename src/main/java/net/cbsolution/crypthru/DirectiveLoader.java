@@ -3,11 +3,12 @@ package net.cbsolution.crypthru;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -20,9 +21,22 @@ public class DirectiveLoader {
   private AppConfiguration appConfiguration;
 
   public List<Directive> load(Path sourcePath) {
+    try (InputStream in = Files.newInputStream(sourcePath)) {
+      return load(in, sourcePath.toString());
+    } catch (IOException ex) {
+      throw new RuntimeException("I/O Error reading directives from " + sourcePath, ex);
+    }
+  }
+
+  /**
+   * @param in         A yaml sequence of directives.
+   * @param sourcePath The source of the directives, for messages.
+   * @return The directives, configured.
+   */
+  public List<Directive> load(InputStream in, String sourcePath) {
     Yaml yaml = new Yaml();
     Object obj;
-    try (InputStream in = Files.newInputStream(sourcePath)) {
+    try {
       obj = yaml.load(in);
     } catch (Exception ex) {
       throw new RuntimeException("I/O Error reading directives from " + sourcePath, ex);
@@ -31,7 +45,7 @@ public class DirectiveLoader {
       throw new RuntimeException("File " + sourcePath + " does not contain a sequence of directives");
     List<Directive> result = new ArrayList<>();
     for (Object listElement : (List) obj) {
-      Directive directive = buildDirective(listElement, sourcePath.toString());
+      Directive directive = buildDirective(listElement, sourcePath);
       result.add(directive);
     }
     return result;
@@ -57,7 +71,17 @@ public class DirectiveLoader {
 
   List<Directive> convert(List<String> arguments) {
     List<Directive> result = new ArrayList<>();
-    int i = 0;
+    for (Map<String, Object> parameters : parse(arguments))
+      result.add(buildDirective(parameters, "(command line)"));
+    return result;
+  }
+
+  /**
+   * @param arguments Command line directives, each one followed by its name=value parameters.
+   * @return The parameters of each directive, the name as "directive" entry.
+   */
+  static List<Map<String, Object>> parse(List<String> arguments) {
+    List<Map<String, Object>> result = new ArrayList<>();
     Map<String, Object> parameters = null;
     for (String arg: arguments) {
       boolean isParameter = arg.contains("=");
@@ -67,14 +91,11 @@ public class DirectiveLoader {
         Parameter parameter = new Parameter(arg);
         parameters.put(parameter.name, parameter.value);
       } else {
-        if (parameters != null)
-          result.add(buildDirective(parameters, "(command line)"));
-        parameters = new HashMap<>();
+        parameters = new LinkedHashMap<>();
         parameters.put("directive", arg);
+        result.add(parameters);
       }
     }
-    if (parameters != null)
-      result.add(buildDirective(parameters, "(command line)"));
     return result;
   }
 
@@ -14,8 +14,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Log
@@ -28,6 +27,11 @@ public class FSKeystore {
   private Arguments arguments;
 
   public static final String KEY = ".key";
+  public static final String PUBLIC_KEY_CACHE = "public-keys.cache";
+
+  private PublicKeyCache publicKeyCache;
+  // directories known to exist, not checked again
+  private final Set<Path> knownDirectories = ConcurrentHashMap.newKeySet();
 
   public Path getDirectory() {
     return getDirectory(null);
@@ -44,6 +48,8 @@ public class FSKeystore {
   }
 
   private Path findOrMake(Path path) {
+    if (knownDirectories.contains(path))
+      return path;
     if (!Files.exists(path)) {
       try {
         Files.createDirectories(path);
@@ -52,6 +58,7 @@ public class FSKeystore {
       }
       log.info("Created directory: " + path);
     }
+    knownDirectories.add(path);
     return path;
   }
 
@@ -130,6 +137,27 @@ public class FSKeystore {
     return result;
   }
 
+  /**
+   * Read public keys, parsing only files not met before or changed since, see {@link PublicKeyCache}.
+   *
+   * @param files   The key files.
+   * @param service The service parsing keys.
+   * @return The keys, in the order of files.
+   */
+  public List<PublicKeyProxy> readPublicKeys(Collection<Path> files, CrypterService service) {
+    PublicKeyCache cache;
+    synchronized (this) {
+      if (publicKeyCache == null)
+        publicKeyCache = new PublicKeyCache(getHomeFile(PUBLIC_KEY_CACHE));
+      cache = publicKeyCache;
+    }
+    List<PublicKeyProxy> result = new ArrayList<>(files.size());
+    for (Path file : files)
+      result.add(cache.get(file, service));
+    cache.save();
+    return result;
+  }
+
   public static class KeyHistory implements Comparable<KeyHistory> {
     private final Path keyFile;
     private final Date expiration;
@@ -194,33 +222,20 @@ public class FSKeystore {
         Path renamedFile = Paths.get(expiredFileName);
         rename(tempFile, renamedFile);
       }
+      KeyHistoryIndex.refresh(parent, id);
       return newFile;
     } catch (IOException ex) {
       throw new RuntimeException("Error creating Key File for " + id + " under " + parent, ex);
     }
   }
 
+  /**
+   * @param parent The parent directory.
+   * @param id     The ID of the key.
+   * @return The current and expired key files of the ID, most recent first.
+   */
   public static List<KeyHistory> getHistory(Path parent, String id) {
-    Pattern expiredPattern = Pattern.compile("^" + id + EXPIRATION_PREFIX + "([0-9]+)\\" + KEY);
-    List<KeyHistory> result = new ArrayList<>();
-    try {
-      Iterator<Path> iterator = Files.newDirectoryStream(parent, id + "*.*").iterator();
-      while (iterator.hasNext()) {
-        Path p = iterator.next();
-        String fileName = p.getFileName().toString();
-        Matcher m = expiredPattern.matcher(fileName);
-        if (m.matches()) {
-          Date expiration = new Date(1000L * Integer.parseInt(m.group(1)));
-          result.add(new KeyHistory(p, expiration));
-        } else if ((id + KEY).equals(fileName)) {
-          result.add(new KeyHistory(p, null));
-        }
-      }
-    } catch (IOException e) {
-      throw new RuntimeException("Unexpected exception", e);
-    }
-    Collections.sort(result);
-    return result;
+    return KeyHistoryIndex.of(parent).getHistory(id);
   }
 
   /**
@@ -231,23 +246,7 @@ public class FSKeystore {
    * @param validDate The date at which the key shall be valid.
    */
   public static Path lookupKey(Path parent, String id, Date validDate) {
-    Path current = parent.resolve(id + KEY);
-
-    // use current file if possible
-    try {
-      Date currentKeyDate = new Date(Files.getLastModifiedTime(current).toMillis());
-      if (Files.exists(current) && currentKeyDate.compareTo(validDate) < 0)
-        return current;
-    } catch (IOException e) {
-      throw new RuntimeException("Unexpected exception reading date of " + current, e);
-    }
-    List<KeyHistory> history = FSKeystore.getHistory(parent, id);
-    for (KeyHistory h : history) {
-      if (h.expiration != null && validDate.compareTo(h.expiration) <= 0 &&
-          validDate.compareTo(h.getCreation()) >= 0)
-        return h.keyFile;
-    }
-    return null;
+    return KeyHistoryIndex.of(parent).lookup(id, validDate);
   }
 
   public Path[] save(String id, KeyPairProxy keyPair) {
@@ -1,9 +1,12 @@
 package net.cbsolution.crypthru;
 
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-@Configuration
+@Configuration(proxyBeanMethods = false)
+// also without auto-configuration, see application-fast-start.yml
+@EnableConfigurationProperties
 public class InjectedBeans {
 
   @Bean
@@ -21,4 +24,9 @@ public class InjectedBeans {
     return new DirectiveLoader();
   }
 
+  @Bean
+  JobServer jobServer() {
+    return new JobServer();
+  }
+
 }
@@ -0,0 +1,158 @@
+package net.cbsolution.crypthru;
+
+import net.cbsolution.crypthru.util.PathKit;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The thin client of {@link JobServer}: sends the directives of the command line and of -run files to the
+ * daemon of the keystore and prints the log of the job. It runs without starting Spring, so it only pays
+ * for a bare JVM startup. The daemon has its own working directory, so relative paths of the directives are
+ * made absolute by the client.
+ */
+public class JobClient {
+
+  public static final String REMOTE = "-remote";
+  // the directive entries naming files
+  private static final List<String> PATH_ENTRIES = Arrays.asList("path", "source", "public-key");
+
+  /**
+   * @param args The command line: -remote, optionally -ks, -run, -preview, -force, and directives.
+   * @return The exit code, 0 if the job completed.
+   */
+  public static int run(String... args) {
+    String keyStore = Arguments.KEYSTORE_PATH;
+    boolean preview = false, force = false;
+    List<Object> directives = new ArrayList<>();
+    List<String> commandLine = new ArrayList<>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        switch (arg) {
+          case REMOTE:
+            break;
+          case "-ks":
+          case "-keystore":
+            keyStore = value(args, ++i, arg);
+            break;
+          case "-r":
+          case "-run":
+            directives.addAll(readDirectives(PathKit.replaceHome(value(args, ++i, arg))));
+            break;
+          case "-preview":
+            preview = true;
+            break;
+          case "-f":
+          case "-force":
+            force = true;
+            break;
+          default:
+            if (arg.startsWith("-")) {
+              System.err.println("Switch " + arg + " is not supported with " + REMOTE +
+                  ": give it to the daemon when starting it");
+              return 2;
+            }
+            commandLine.add(arg);
+        }
+      }
+      directives.addAll(DirectiveLoader.parse(commandLine));
+    } catch (RuntimeException ex) {
+      System.err.println(ex.getMessage());
+      return 2;
+    }
+    if (directives.isEmpty()) {
+      System.err.println("Nothing to do!");
+      return 2;
+    }
+
+    absolutize(directives);
+    String job = new Yaml().dump(directives);
+    Path tokenFile = PathKit.replaceHome(keyStore).resolve(JobServer.TOKEN_FILE);
+    String[] portAndToken;
+    try {
+      portAndToken = new String(Files.readAllBytes(tokenFile), StandardCharsets.US_ASCII).trim().split(" ");
+    } catch (IOException ex) {
+      System.err.println("No daemon running for keystore " + keyStore + " (" + tokenFile + " unreadable)");
+      return 1;
+    }
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndToken[0]))) {
+      Writer out = new OutputStreamWriter(new BufferedOutputStream(socket.getOutputStream()), StandardCharsets.UTF_8);
+      out.write(JobServer.HEADER + "\ntoken=" + portAndToken[1] + "\npreview=" + preview + "\nforce=" + force +
+          "\n\n" + job);
+      out.flush();
+      socket.shutdownOutput();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      for (String line; (line = in.readLine()) != null; ) {
+        if (line.startsWith("LOG "))
+          System.out.println(line.substring(4));
+        else if (line.equals("OK"))
+          return 0;
+        else if (line.startsWith("FAILED")) {
+          System.err.println("Job failed:" + line.substring(6));
+          return 1;
+        }
+      }
+      System.err.println("The daemon closed the connection before completing the job");
+      return 1;
+    } catch (IOException | RuntimeException ex) {
+      System.err.println("Unable to talk with the daemon: " + ex);
+      return 1;
+    }
+  }
+
+  private static String value(String[] args, int i, String name) {
+    if (i >= args.length)
+      throw new IllegalArgumentException("Missing value of " + name);
+    return args[i];
+  }
+
+  /**
+   * Make the file entries of the directives absolute against the working directory of the client.
+   * Paths starting with ~ or with a ${...} sequence are left to the daemon, expanding them as a local run would.
+   */
+  static void absolutize(List<Object> directives) {
+    for (Object directive : directives) {
+      if (!(directive instanceof Map))
+        continue;
+      Map entries = (Map) directive;
+      for (String key : PATH_ENTRIES) {
+        Object value = entries.get(key);
+        if (value instanceof List)
+          entries.put(key, ((List<?>) value).stream().map(JobClient::absolute).collect(Collectors.toList()));
+        else if (value != null)
+          entries.put(key, absolute(value));
+      }
+    }
+  }
+
+  private static Object absolute(Object value) {
+    String path = value.toString();
+    if (path.startsWith("~") || path.startsWith("${"))
+      return value;
+    return Paths.get(path).toAbsolutePath().normalize().toString();
+  }
+
+  private static List<?> readDirectives(Path file) {
+    try (InputStream in = Files.newInputStream(file)) {
+      Object obj = new Yaml().load(in);
+      if (!(obj instanceof List))
+        throw new RuntimeException("File " + file + " does not contain a sequence of directives");
+      return (List<?>) obj;
+    } catch (IOException ex) {
+      throw new RuntimeException("I/O Error reading directives from " + file, ex);
+    }
+  }
+
+}
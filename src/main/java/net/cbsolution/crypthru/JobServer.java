@@ -0,0 +1,237 @@
+package net.cbsolution.crypthru;
+
+import lombok.extern.java.Log;
+import net.cbsolution.crypthru.crypt.CrypterService;
+import net.cbsolution.crypthru.crypt.KeyPairProxy;
+import net.cbsolution.crypthru.crypt.KeyType;
+import net.cbsolution.crypthru.crypt.Performance;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * The daemon: executes directive jobs sent by {@link JobClient} over a loopback port, so that startup,
+ * key unlocking and parsing and JIT compilation are paid once and not by each job. Jobs are executed one
+ * at a time with the arguments of the daemon, the private key unlocked once.
+ * <p>
+ * The port and a random token are written in the {@link #TOKEN_FILE} of the keystore, readable only by its
+ * owner: a client shall prove it can read it. A job is:
+ * <pre>
+ *   CRYPTHRU-JOB 1
+ *   token=(token)
+ *   preview=true|false
+ *   force=true|false
+ *   (empty line)
+ *   (yaml sequence of directives, as in a -run file, up to the end of the stream)
+ * </pre>
+ * The daemon replies with the log of the job, a "LOG (level) (message)" line each record, followed by
+ * "OK" or "FAILED (message)". Jobs being executed one at a time, a client has {@link #HEADER_TIMEOUT_MILLIS}
+ * to send the header, so that a connection sending nothing does not hold the daemon.
+ */
+@Log
+public class JobServer {
+
+  public static final String TOKEN_FILE = "daemon.token";
+  static final String HEADER = "CRYPTHRU-JOB 1";
+  private static final int WARM_UP_ROUNDS = 20;
+  private static final int WARM_UP_SIZE = 64 * 1024;
+  static final int HEADER_TIMEOUT_MILLIS = 10_000;
+
+  @Autowired
+  private Arguments arguments;
+
+  @Autowired
+  private DirectiveLoader directiveLoader;
+
+  // hexadecimal, as sent by clients
+  private byte[] token;
+  int headerTimeoutMillis = HEADER_TIMEOUT_MILLIS;
+
+  /**
+   * Serve jobs until the process is stopped.
+   */
+  public void serve() {
+    warmUp();
+    if (!arguments.getPassPhrase().isEmpty())
+      arguments.figureDecryptionSession();
+    Path tokenFile = arguments.getFsKeystore().getHomeFile(TOKEN_FILE);
+    try (ServerSocket server = new ServerSocket(arguments.getDaemonPort(), 50, InetAddress.getLoopbackAddress())) {
+      writeToken(tokenFile, server.getLocalPort());
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.deleteIfExists(tokenFile);
+        } catch (IOException ex) {
+          log.warning("Unable to delete " + tokenFile);
+        }
+      }));
+      log.info("Daemon ready on port " + server.getLocalPort() + ", token in " + tokenFile);
+      while (true) {
+        try (Socket socket = server.accept()) {
+          serve(socket);
+        } catch (IOException ex) {
+          log.warning("Job connection failed: " + ex);
+        }
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to start daemon on port " + arguments.getDaemonPort(), ex);
+    } finally {
+      arguments.closeDecryptionSession();
+    }
+  }
+
+  void writeToken(Path tokenFile, int port) throws IOException {
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    StringBuilder hex = new StringBuilder();
+    for (byte b : random)
+      hex.append(String.format("%02x", b));
+    token = hex.toString().getBytes(StandardCharsets.US_ASCII);
+    Files.deleteIfExists(tokenFile);
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+      Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    else
+      Files.createFile(tokenFile);
+    Files.write(tokenFile, (port + " " + hex + "\n").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Execute the job sent on a connection.
+   */
+  void serve(Socket socket) throws IOException {
+    InputStream in = new BufferedInputStream(socket.getInputStream());
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    socket.setSoTimeout(headerTimeoutMillis);
+    Map<String, String> header = readHeader(in);
+    if (header == null || !MessageDigest.isEqual(token, header.getOrDefault("token", "").getBytes(
+        StandardCharsets.US_ASCII))) {
+      log.warning("Rejected job from " + socket.getRemoteSocketAddress() + ": missing or wrong token");
+      out.println("FAILED Not a valid job or wrong token");
+      out.flush();
+      return;
+    }
+    // a client with the token is trusted to send its directives, however long they are
+    socket.setSoTimeout(0);
+
+    Handler forwarder = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        if (isLoggable(record))
+          out.println("LOG " + record.getLevel() + " " + String.valueOf(record.getMessage()).replace('\n', ' '));
+      }
+
+      @Override
+      public void flush() {
+        out.flush();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    Logger root = Logger.getLogger("");
+    root.addHandler(forwarder);
+    boolean preview = arguments.isPreviewMode(), force = arguments.isForce();
+    arguments.setPreviewMode(preview || Boolean.parseBoolean(header.get("preview")));
+    arguments.setForce(force || Boolean.parseBoolean(header.get("force")));
+    arguments.setEncryptPerformance(new Performance("Encrypt"));
+    arguments.setDecryptPerformance(new Performance("Decrypt"));
+    try {
+      List<Directive> directives = directiveLoader.load(in, "(job)");
+      long start = System.nanoTime();
+      for (Directive d : directives) {
+        log.info("Directive --> " + d.print() + " ...");
+        d.execute(arguments);
+      }
+      arguments.getEncryptPerformance().logFigures();
+      arguments.getDecryptPerformance().logFigures();
+      log.info(String.format(Locale.ROOT, "Job completed in %.1f ms", (System.nanoTime() - start) / 1e6));
+      out.println("OK");
+    } catch (RuntimeException ex) {
+      log.severe("Job failed: " + ex.getMessage());
+      out.println("FAILED " + String.valueOf(ex.getMessage()).replace('\n', ' '));
+    } finally {
+      root.removeHandler(forwarder);
+      arguments.setPreviewMode(preview);
+      arguments.setForce(force);
+      out.flush();
+    }
+  }
+
+  /**
+   * @return The header entries, null if the stream does not start with a job header.
+   */
+  private static Map<String, String> readHeader(InputStream in) throws IOException {
+    if (!HEADER.equals(readLine(in)))
+      return null;
+    Map<String, String> result = new HashMap<>();
+    for (String line; (line = readLine(in)) != null && !line.isEmpty(); ) {
+      String[] pair = line.split("=", 2);
+      result.put(pair[0], pair.length > 1 ? pair[1] : "");
+    }
+    return result;
+  }
+
+  // reads a header line without buffering beyond it, the rest of the stream being the directives
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int c; (c = in.read()) != '\n'; ) {
+      if (c < 0)
+        return line.size() == 0 ? null : line.toString("UTF-8");
+      if (line.size() > 1024)
+        throw new IOException("Header line too long");
+      line.write(c);
+    }
+    return line.toString("UTF-8").trim();
+  }
+
+  /**
+   * Encrypt and decrypt with a throwaway key, so that the first jobs do not run interpreted code.
+   */
+  private void warmUp() {
+    long start = System.nanoTime();
+    CrypterService service = arguments.getCryptService();
+    Path dir = null;
+    try {
+      dir = Files.createTempDirectory("crypthru-warm-up");
+      Path plain = dir.resolve("plain.txt"), encrypted = dir.resolve("plain.txt.pgp"),
+          decrypted = dir.resolve("decrypted.txt");
+      byte[] content = new byte[WARM_UP_SIZE];
+      new Random().nextBytes(content);
+      Files.write(plain, content);
+      KeyPairProxy keyPair = service.createKeyPair("warm-up@crypthru", "warm-up", KeyType.ECC);
+      for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+        service.encrypt(plain, encrypted, keyPair.getPublicKeyProxy());
+        service.decrypt(encrypted, decrypted, keyPair.getPrivateKeyProxy());
+      }
+    } catch (IOException | RuntimeException ex) {
+      log.warning("Warm-up failed, going on: " + ex);
+    } finally {
+      if (dir != null) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+          for (Path file : files)
+            Files.delete(file);
+          Files.delete(dir);
+        } catch (IOException ex) {
+          log.warning("Unable to delete " + dir);
+        }
+      }
+    }
+    log.info(String.format(Locale.ROOT, "Warmed up in %.1f s", (System.nanoTime() - start) / 1e9));
+  }
+
+}
@@ -0,0 +1,192 @@
+package net.cbsolution.crypthru;
+
+import lombok.extern.java.Log;
+import net.cbsolution.crypthru.util.DirectoryWatcher;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The keys of a keystore directory by ID, each ID with the validity intervals of its current and expired keys.
+ * The files of an ID are listed once, when the ID is first looked up, then kept up to date by the keystore
+ * when it saves keys and by a watch on the directory for changes made by others.
+ */
+@Log
+class KeyHistoryIndex {
+
+  // ID, then the expiration in seconds of expired keys
+  private static final Pattern KEY_FILE_PATTERN = Pattern.compile("^([^~]+)(?:~([0-9]+))?\\" + FSKeystore.KEY + "$");
+  private static final Map<Path, KeyHistoryIndex> INDEXES = new ConcurrentHashMap<>();
+
+  private final Path directory;
+  private final Map<String, History> histories = new HashMap<>();
+
+  /**
+   * A key file: valid from its modification time up to the expiration, if any.
+   */
+  private static class Validity {
+    private final Path keyFile;
+    private final long creation;
+    private final Long expiration;
+
+    private Validity(Path keyFile, long creation, Long expiration) {
+      this.keyFile = keyFile;
+      this.creation = creation;
+      this.expiration = expiration;
+    }
+  }
+
+  private static class History {
+    private Validity current;
+    // expired keys by creation, and the creation of each expiration to find the entry of a file
+    private final TreeMap<Long, Validity> expired = new TreeMap<>();
+    private final Map<Long, Long> creations = new HashMap<>();
+  }
+
+  private KeyHistoryIndex(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @param directory A directory of keys.
+   * @return Its index, built and watched on first use.
+   */
+  static KeyHistoryIndex of(Path directory) {
+    Path key = directory.toAbsolutePath().normalize();
+    return INDEXES.computeIfAbsent(key, d -> {
+      KeyHistoryIndex result = new KeyHistoryIndex(d);
+      result.watch();
+      return result;
+    });
+  }
+
+  /**
+   * Read again the files of an ID changed by the keystore, if the directory is indexed.
+   * @param directory A directory of keys.
+   * @param id        The ID of the key.
+   */
+  static void refresh(Path directory, String id) {
+    KeyHistoryIndex index = INDEXES.get(directory.toAbsolutePath().normalize());
+    if (index != null)
+      index.load(id);
+  }
+
+  private synchronized History history(String id) {
+    History result = histories.get(id);
+    return result == null ? load(id) : result;
+  }
+
+  private synchronized History load(String id) {
+    History result = new History();
+    histories.put(id, result);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, id + "*" + FSKeystore.KEY)) {
+      for (Path file : files)
+        update(file, id);
+    } catch (IOException ex) {
+      throw new RuntimeException("Unexpected exception scanning " + directory, ex);
+    }
+    log.fine("Indexed " + (result.expired.size() + (result.current == null ? 0 : 1)) + " key files of " + id +
+        " in " + directory);
+    return result;
+  }
+
+  /**
+   * Replace or remove the entry of a file according to its current state.
+   * @param file   A file of the directory.
+   * @param loadId The ID being loaded, or null to update only IDs already loaded.
+   */
+  private synchronized void update(Path file, String loadId) {
+    Matcher m = KEY_FILE_PATTERN.matcher(file.getFileName().toString());
+    if (!m.matches())
+      return;
+    String id = m.group(1);
+    History history = histories.get(id);
+    if (loadId == null ? history == null : !loadId.equals(id))
+      return;
+    Long expiration = m.group(2) == null ? null : 1000L * Long.parseLong(m.group(2));
+    if (expiration == null)
+      history.current = null;
+    else {
+      Long creation = history.creations.remove(expiration);
+      if (creation != null)
+        history.expired.remove(creation);
+    }
+    long creation;
+    try {
+      creation = Files.getLastModifiedTime(file).toMillis();
+    } catch (NoSuchFileException ex) {
+      return;
+    } catch (IOException ex) {
+      throw new RuntimeException("Unexpected exception getting time of " + file, ex);
+    }
+    Validity validity = new Validity(file, creation, expiration);
+    if (expiration == null)
+      history.current = validity;
+    else {
+      // on a tie the key expiring last wins, as it is the most recent
+      Validity other = history.expired.get(creation);
+      if (other == null || other.expiration < expiration) {
+        if (other != null)
+          history.creations.remove(other.expiration);
+        history.expired.put(creation, validity);
+        history.creations.put(expiration, creation);
+      }
+    }
+  }
+
+  private void watch() {
+    DirectoryWatcher watcher;
+    try {
+      watcher = new DirectoryWatcher(directory, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (RuntimeException ex) {
+      log.warning("Changes to " + directory + " by other processes will not be seen: " + ex.getMessage());
+      return;
+    }
+    Thread thread = new Thread(() -> watcher.react((event, file) -> {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+        clear();
+      else
+        update(file, null);
+    }), "crypthru-keys-" + directory.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private synchronized void clear() {
+    histories.clear();
+  }
+
+  /**
+   * @return The key files of an ID, most recent first.
+   */
+  synchronized List<FSKeystore.KeyHistory> getHistory(String id) {
+    List<FSKeystore.KeyHistory> result = new ArrayList<>();
+    History history = history(id);
+    if (history.current != null)
+      result.add(new FSKeystore.KeyHistory(history.current.keyFile, null));
+    for (Validity validity : history.expired.descendingMap().values())
+      result.add(new FSKeystore.KeyHistory(validity.keyFile, new Date(validity.expiration)));
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * @param id        The ID of the key.
+   * @param validDate The date at which the key shall be valid.
+   * @return The current key if created before the date, otherwise the expired key valid at the date, or null.
+   */
+  synchronized Path lookup(String id, Date validDate) {
+    History history = history(id);
+    long time = validDate.getTime();
+    if (history.current != null && history.current.creation < time)
+      return history.current.keyFile;
+    Map.Entry<Long, Validity> candidate = history.expired.floorEntry(time);
+    return candidate != null && time <= candidate.getValue().expiration ? candidate.getValue().keyFile : null;
+  }
+
+}
@@ -0,0 +1,162 @@
+package net.cbsolution.crypthru;
+
+import lombok.extern.java.Log;
+import net.cbsolution.crypthru.crypt.CrypterService;
+import net.cbsolution.crypthru.crypt.PublicKeyProxy;
+import net.cbsolution.crypthru.util.PathKit;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Parsed public keys, so that key files are read once and not at each encrypt directive. Keys are kept
+ * in memory and in a cache file holding them in binary form, read when first needed:
+ * <pre>
+ *   magic "CTPKC001", number of entries (int)
+ *   entry: key file path length (short), key file path (UTF-8), size (long), modification time in ms (long),
+ *          key length (int), key
+ * </pre>
+ * An entry is valid as long as the size and the modification time of the key file do not change. The cache file
+ * is read into the heap, not memory-mapped: on Windows a mapping prevents replacing the file when it is saved.
+ */
+@Log
+class PublicKeyCache {
+
+  private static final byte[] MAGIC = "CTPKC001".getBytes(StandardCharsets.US_ASCII);
+
+  private final Path cacheFile;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private boolean loaded, modified;
+
+  private static class Entry {
+    private final long size, modificationTime;
+    private byte[] encoded;
+    private PublicKeyProxy key;
+
+    private Entry(long size, long modificationTime) {
+      this.size = size;
+      this.modificationTime = modificationTime;
+    }
+
+    private boolean isValid(BasicFileAttributes attributes) {
+      return size == attributes.size() && modificationTime == attributes.lastModifiedTime().toMillis();
+    }
+
+    private byte[] getEncoded() {
+      return encoded == null ? key.getEncoded() : encoded;
+    }
+  }
+
+  /**
+   * @param cacheFile The file keeping the keys between executions.
+   */
+  PublicKeyCache(Path cacheFile) {
+    this.cacheFile = cacheFile;
+  }
+
+  /**
+   * @param keyFile A public key file.
+   * @param service The service reading and decoding keys.
+   * @return The key, read from the file only if it changed since cached.
+   */
+  synchronized PublicKeyProxy get(Path keyFile, CrypterService service) {
+    load();
+    String path = keyFile.toAbsolutePath().normalize().toString();
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(keyFile, BasicFileAttributes.class);
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + keyFile, ex);
+    }
+    Entry entry = entries.get(path);
+    if (entry == null || !entry.isValid(attributes)) {
+      entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis());
+      entry.key = service.readPublicKey(keyFile);
+      entries.put(path, entry);
+      modified = true;
+    } else if (entry.key == null)
+      entry.key = service.readPublicKey(entry.getEncoded());
+    return entry.key;
+  }
+
+  private void load() {
+    if (loaded)
+      return;
+    loaded = true;
+    if (!Files.exists(cacheFile))
+      return;
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cacheFile));
+      byte[] magic = new byte[MAGIC.length];
+      buffer.get(magic);
+      if (!Arrays.equals(MAGIC, magic))
+        throw new IOException("Not a public key cache");
+      int count = buffer.getInt();
+      for (int i = 0; i < count; i++) {
+        byte[] path = new byte[buffer.getShort() & 0xffff];
+        buffer.get(path);
+        Entry entry = new Entry(buffer.getLong(), buffer.getLong());
+        entry.encoded = new byte[buffer.getInt()];
+        buffer.get(entry.encoded);
+        entries.put(new String(path, StandardCharsets.UTF_8), entry);
+      }
+      log.fine("Loaded " + count + " public keys from " + cacheFile);
+    } catch (IOException | RuntimeException ex) {
+      log.warning("Ignoring damaged public key cache " + cacheFile + ": " + ex);
+      entries.clear();
+    }
+  }
+
+  /**
+   * Write the cache file if keys were read from files, leaving out keys whose file was deleted.
+   */
+  synchronized void save() {
+    if (!modified)
+      return;
+    Path tempFile = null;
+    try {
+      tempFile = Files.createTempFile(PathKit.getParentPath(cacheFile), ".public-keys", ".tmp");
+      List<Map.Entry<String, Entry>> valid = new ArrayList<>();
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        if (Files.exists(Paths.get(entry.getKey())))
+          valid.add(entry);
+      }
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.write(MAGIC);
+        out.writeInt(valid.size());
+        for (Map.Entry<String, Entry> entry : valid) {
+          byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+          byte[] encoded = entry.getValue().getEncoded();
+          out.writeShort(path.length);
+          out.write(path);
+          out.writeLong(entry.getValue().size);
+          out.writeLong(entry.getValue().modificationTime);
+          out.writeInt(encoded.length);
+          out.write(encoded);
+        }
+      }
+      Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      tempFile = null;
+      modified = false;
+      log.fine("Saved " + valid.size() + " public keys into " + cacheFile);
+    } catch (IOException ex) {
+      // only a cache: the keys are read from their files next time
+      log.warning("Unable to save public key cache " + cacheFile + ": " + ex);
+    } finally {
+      if (tempFile != null) {
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException ex) {
+          log.warning("Unable to delete " + tempFile);
+        }
+      }
+    }
+  }
+
+}
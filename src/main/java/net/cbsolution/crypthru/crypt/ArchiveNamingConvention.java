@@ -0,0 +1,32 @@
+package net.cbsolution.crypthru.crypt;
+
+import net.cbsolution.crypthru.util.PathKit;
+
+import java.nio.file.Path;
+
+/**
+ * Archives are named by suffixing the archive name with ".spar". Their decrypted name is the archive name,
+ * members are extracted beside the archive.
+ */
+public class ArchiveNamingConvention implements NamingConvention {
+  final static String SUFFIX = ".spar";
+
+  @Override
+  public boolean isEncrypted(Path plainTextFileName) {
+    return plainTextFileName.toString().endsWith(SUFFIX);
+  }
+
+  @Override
+  public Path encryptedName(Path plainTextFileName) {
+    return PathKit.getParentPath(plainTextFileName).resolve(plainTextFileName.getFileName() + SUFFIX);
+  }
+
+  @Override
+  public Path decryptedName(Path encryptedFileName) {
+    if (!isEncrypted(encryptedFileName))
+      return null;
+    String name = encryptedFileName.getFileName().toString();
+    return PathKit.getParentPath(encryptedFileName).resolve(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+}
@@ -1,32 +1,45 @@
 package net.cbsolution.crypthru.crypt;
 
 import lombok.extern.java.Log;
+import net.cbsolution.crypthru.util.ChannelIO;
+import net.cbsolution.crypthru.util.PathKit;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.bcpg.ArmoredInputStream;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.ContainedPacket;
 import org.bouncycastle.bcpg.HashAlgorithmTags;
 import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
 import org.bouncycastle.openpgp.*;
 import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
 import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
 import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
 import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
-import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyDecryptorBuilder;
-import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
 import org.bouncycastle.openpgp.operator.jcajce.*;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.bouncycastle.util.io.Streams;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.spec.RSAKeyGenParameterSpec;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.Deflater;
+import java.util.stream.Collectors;
 
 
 /**
@@ -37,56 +50,228 @@ public class BcPgpService implements CrypterService {
 
   private static final Pattern EMAIL_ID_PATTERN = Pattern.compile("^.+<(.+)>$");
   public static final int BUFFER_SIZE = 65536;
-  public static final int BLOCK_SIZE = 4096;
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+  public static final int SMALL_FILE_SIZE = 8192;
+  /**
+   * From this number of recipients the session key is encrypted for them in parallel.
+   */
+  public static final int PARALLEL_WRAPPING_RECIPIENTS = 16;
 
   static {
     Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
   }
 
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+  private CryptoProviders providers = CryptoProviders.bouncyCastle();
+
+  /**
+   * @param blockSize Size of the blocks read from and written to files.
+   */
+  public void setBlockSize(int blockSize) {
+    if (blockSize < BUFFER_SIZE)
+      throw new IllegalArgumentException("Block size shall be at least " + BUFFER_SIZE + " bytes");
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * @param providers The JCA providers of keys read or created afterwards and of encryption.
+   */
+  public void setProviders(CryptoProviders providers) {
+    this.providers = providers;
+  }
+
   public static class MyPrivateKeyProxy implements PrivateKeyProxy {
     private final PGPSecretKeyRing pgpSecretKeyRing;
     private final String passPhrase;
+    private final CryptoProviders providers;
+    private final Map<Long, PGPSecretKey> keysById;
 
-    private MyPrivateKeyProxy(PGPSecretKeyRing pgpSecretKeyRing, String passPhrase) {
+    private MyPrivateKeyProxy(PGPSecretKeyRing pgpSecretKeyRing, String passPhrase, CryptoProviders providers) {
       this.pgpSecretKeyRing = pgpSecretKeyRing;
       this.passPhrase = passPhrase;
+      this.providers = providers;
+      this.keysById = indexKeys(pgpSecretKeyRing);
     }
 
     @Override
     public String print() {
-      return BcPgpService.print(pgpSecretKeyRing, passPhrase);
+      return BcPgpService.print(pgpSecretKeyRing, passPhrase, providers);
     }
 
-    private PGPPrivateKey getPrivateKey() {
-      return BcPgpService.getPrivateKey(pgpSecretKeyRing.getSecretKey(), passPhrase);
+    Map<Long, PGPSecretKey> keysById() {
+      return keysById;
     }
 
-    Map<Long, PGPSecretKey> keysById() {
+    private static Map<Long, PGPSecretKey> indexKeys(PGPSecretKeyRing ring) {
       Map<Long, PGPSecretKey> result = new LinkedHashMap<>();
-      Iterator<PGPSecretKey> iter = pgpSecretKeyRing.iterator();
+      Iterator<PGPSecretKey> iter = ring.iterator();
       while (iter.hasNext()) {
         PGPSecretKey key = iter.next();
         log.fine("Found private key " + key.getKeyID());
         result.put(key.getKeyID(), key);
       }
-      return result;
+      return Collections.unmodifiableMap(result);
     }
 
     @Override
     public void writeTo(Path file) {
-      BcPgpService.storeKey(pgpSecretKeyRing.getSecretKey(), file);
+      BcPgpService.storeKey(pgpSecretKeyRing, file);
+    }
+  }
+
+  /**
+   * Unlocks each secret (sub)key of a private key the first time it is needed and keeps its decryptor
+   * factory until the time to live expires or the session is closed.
+   */
+  public static class MyDecryptionSession implements DecryptionSession {
+    private final MyPrivateKeyProxy key;
+    private final long ttlMillis;
+    private final int blockSize;
+    private final Map<Long, PublicKeyDataDecryptorFactory> decryptors = new HashMap<>();
+    private char[] passPhrase;
+    private long unlockedAt;
+
+    private MyDecryptionSession(MyPrivateKeyProxy key, long ttlMillis, int blockSize) {
+      this.key = key;
+      this.ttlMillis = ttlMillis;
+      this.blockSize = blockSize;
+      this.passPhrase = key.passPhrase.toCharArray();
+    }
+
+    /**
+     * @param keyId The ID of the key an encrypted data packet is addressed to.
+     * @return The decryptor factory for the key, or null if this private key does not contain it.
+     */
+    private synchronized PublicKeyDataDecryptorFactory decryptorFor(long keyId) {
+      if (passPhrase == null)
+        throw new IllegalStateException("Decryption session already closed");
+      if (ttlMillis > 0 && !decryptors.isEmpty() && System.currentTimeMillis() - unlockedAt > ttlMillis) {
+        log.fine("Unlocked keys expired, unlocking again");
+        decryptors.clear();
+      }
+      PublicKeyDataDecryptorFactory result = decryptors.get(keyId);
+      if (result == null) {
+        PGPSecretKey secretKey = key.keysById().get(keyId);
+        if (secretKey == null)
+          return null;
+        if (decryptors.isEmpty())
+          unlockedAt = System.currentTimeMillis();
+        result = key.providers.dataDecryptor(getPrivateKey(secretKey, passPhrase, key.providers));
+        decryptors.put(keyId, result);
+      }
+      return result;
+    }
+
+    private Collection<Long> keyIds() {
+      return key.keysById().keySet();
+    }
+
+    @Override
+    public void decrypt(Path encryptedFile, Path plainTextFile) {
+      BcPgpService.decrypt(encryptedFile, plainTextFile, this);
+    }
+
+    @Override
+    public LiteralMetadata decrypt(InputStream encrypted, OutputStream plainText) {
+      try {
+        return BcPgpService.decrypt(encrypted, plainText, this, "stream");
+      } catch (PGPException | IOException e) {
+        throw new RuntimeException("Error decrypting stream", e);
+      }
+    }
+
+    @Override
+    public LiteralMetadata decrypt(ReadableByteChannel encrypted, WritableByteChannel plainText) {
+      OutputStream out = new BufferedOutputStream(Channels.newOutputStream(plainText), blockSize);
+      LiteralMetadata result = decrypt(new BufferedInputStream(Channels.newInputStream(encrypted), blockSize), out);
+      try {
+        out.flush();
+      } catch (IOException e) {
+        throw new RuntimeException("Error decrypting channel", e);
+      }
+      return result;
+    }
+
+    @Override
+    public long decryptRange(Path encryptedFile, long offset, long length, OutputStream plainText) {
+      try (SeekableContainer container = openSeekable(encryptedFile)) {
+        return container.decrypt(offset, length, plainText);
+      } catch (IOException | GeneralSecurityException e) {
+        throw new RuntimeException("Error decrypting " + encryptedFile, e);
+      }
+    }
+
+    @Override
+    public List<Path> extractArchive(Path archiveFile, Predicate<String> members, Path directory, boolean force) {
+      try (SeekableContainer container = openSeekable(archiveFile)) {
+        return SeekableArchive.extract(container, members, directory, force, blockSize);
+      } catch (IOException | GeneralSecurityException e) {
+        throw new RuntimeException("Error extracting from " + archiveFile, e);
+      }
+    }
+
+    @Override
+    public List<Path> extractZip(Path encryptedFile, Path directory, int parallelism) {
+      if (SeekableContainer.isSeekable(encryptedFile))
+        throw new RuntimeException(encryptedFile + " is in the seekable format, not a streamed zip");
+      Map<Path, Path> staged = new LinkedHashMap<>();
+      try {
+        try (InputStream in = ChannelIO.newInputStream(encryptedFile, blockSize)) {
+          BcPgpService.decrypt(in, this, encryptedFile,
+              literal -> ZipBundle.extract(literal, directory, parallelism, blockSize, staged));
+        }
+        return ZipBundle.commit(staged);
+      } catch (PGPException | IOException e) {
+        throw new RuntimeException("Error extracting from " + encryptedFile, e);
+      } finally {
+        for (Path stagingFile : staged.values())
+          discard(stagingFile);
+      }
+    }
+
+    private SeekableContainer openSeekable(Path encryptedFile) throws IOException, GeneralSecurityException {
+      if (!SeekableContainer.isSeekable(encryptedFile))
+        throw new RuntimeException(encryptedFile + " is not in the seekable format");
+      return new SeekableContainer(encryptedFile, keyMessage -> {
+        ByteArrayOutputStream dataKey = new ByteArrayOutputStream(SeekableContainer.KEY_SIZE);
+        decrypt(new ByteArrayInputStream(keyMessage), dataKey);
+        return dataKey.toByteArray();
+      }, key.providers);
+    }
+
+    /**
+     * Forget the unlocked keys and clear the copy of the passphrase of the session. The String the private key
+     * was read with is not cleared, see {@link DecryptionSession}.
+     */
+    @Override
+    public synchronized void close() {
+      decryptors.clear();
+      if (passPhrase != null) {
+        Arrays.fill(passPhrase, '\0');
+        passPhrase = null;
+      }
     }
   }
 
   public static class MyPublicKeyProxy implements PublicKeyProxy {
 
     private final PGPPublicKeyRing pgpPublicKeyRing;
+    private PGPPublicKey encryptionKey;
 
     public MyPublicKeyProxy(PGPPublicKeyRing pgpPublicKeyRing) {
 
       this.pgpPublicKeyRing = pgpPublicKeyRing;
     }
 
+    /**
+     * @return The key the session key is encrypted with, resolved once as the ring does not change.
+     */
+    private synchronized PGPPublicKey getEncryptionKey() {
+      if (encryptionKey == null)
+        encryptionKey = firstEncryptionKey(pgpPublicKeyRing);
+      return encryptionKey;
+    }
+
     @Override
     public String print() {
       return BcPgpService.print(pgpPublicKeyRing);
@@ -94,7 +279,16 @@ public class BcPgpService implements CrypterService {
 
     @Override
     public void writeTo(Path file) {
-      BcPgpService.storeKey(pgpPublicKeyRing.getPublicKey(), file);
+      BcPgpService.storeKey(pgpPublicKeyRing, file);
+    }
+
+    @Override
+    public byte[] getEncoded() {
+      try {
+        return pgpPublicKeyRing.getEncoded();
+      } catch (IOException ex) {
+        throw new RuntimeException("Error encoding public key", ex);
+      }
     }
 
     @Override
@@ -118,14 +312,22 @@ public class BcPgpService implements CrypterService {
     return new MyPublicKeyProxy(loadPublicKeyRing(keyFile));
   }
 
+  @Override
+  public PublicKeyProxy readPublicKey(byte[] encoded) {
+    try {
+      return new MyPublicKeyProxy(new PGPPublicKeyRing(encoded, new JcaKeyFingerprintCalculator()));
+    } catch (IOException ex) {
+      throw new RuntimeException("Error decoding public key", ex);
+    }
+  }
+
   @Override
   public PrivateKeyProxy readPrivateKey(Path keyFile, String passPhrase) {
-    return new MyPrivateKeyProxy(loadSecretKeyRing(keyFile), passPhrase);
+    return new MyPrivateKeyProxy(loadSecretKeyRing(keyFile), passPhrase, providers);
   }
 
   private static PGPSecretKeyRing loadSecretKeyRing(Path path) {
-    try {
-      InputStream in = Files.newInputStream(path);
+    try (InputStream in = Files.newInputStream(path)) {
       ArmoredInputStream aIn = new ArmoredInputStream(in);
       final PGPObjectFactory pgpObjectFactory = new PGPObjectFactory(aIn, new JcaKeyFingerprintCalculator());
       PGPSecretKeyRing ring = (PGPSecretKeyRing) pgpObjectFactory.nextObject();
@@ -137,24 +339,111 @@ public class BcPgpService implements CrypterService {
     }
   }
 
+  @Override
+  public DecryptionSession openDecryptionSession(PrivateKeyProxy key, long ttlMillis) {
+    return new MyDecryptionSession((MyPrivateKeyProxy) key, ttlMillis, blockSize);
+  }
+
   @Override
   public KeyPairProxy createKeyPair(String identity, String passPhrase) {
-    PGPKeyRingGenerator generator = generateKeyRings(identity, passPhrase);
-    return new KeyPairProxy(new MyPrivateKeyProxy(generator.generateSecretKeyRing(), passPhrase),
+    return createKeyPair(identity, passPhrase, KeyType.RSA);
+  }
+
+  @Override
+  public KeyPairProxy createKeyPair(String identity, String passPhrase, KeyType keyType) {
+    return keyPair(keyType == KeyType.ECC ? generateEccKeyRings(identity, passPhrase) :
+        generateKeyRings(identity, passPhrase), passPhrase);
+  }
+
+  private KeyPairProxy keyPair(PGPKeyRingGenerator generator, String passPhrase) {
+    return new KeyPairProxy(new MyPrivateKeyProxy(generator.generateSecretKeyRing(), passPhrase, providers),
         new MyPublicKeyProxy(generator.generatePublicKeyRing()));
   }
 
-  private static void storeKey(PGPSecretKey key, Path path) {
-    try {
-      ArmoredOutputStream out = new ArmoredOutputStream(Files.newOutputStream(path));
-      key.encode(out);
-      out.close();
-    } catch (IOException ex) {
-      throw new RuntimeException("Error saving key to " + path);
+  @Override
+  public KeyPairFactory openKeyPairFactory(int parallelism) {
+    return new MyKeyPairFactory(Math.max(1, parallelism));
+  }
+
+  /**
+   * Searching the primes is nearly all the cost of an RSA key ring: background threads generate RSA key pairs
+   * into a bounded queue, while the calling threads assemble and protect the rings. The threads start with the
+   * first RSA request.
+   */
+  public class MyKeyPairFactory implements KeyPairFactory {
+    private final int parallelism;
+    private final BlockingQueue<KeyPair> rsaKeyPairs;
+    private ExecutorService generators;
+    private volatile Exception failure;
+    private volatile boolean closed;
+
+    private MyKeyPairFactory(int parallelism) {
+      this.parallelism = parallelism;
+      rsaKeyPairs = new ArrayBlockingQueue<>(2 * parallelism);
+    }
+
+    @Override
+    public KeyPairProxy createKeyPair(String identity, String passPhrase, KeyType keyType) {
+      if (keyType == KeyType.ECC)
+        return keyPair(generateEccKeyRings(identity, passPhrase), passPhrase);
+      return keyPair(generateKeyRings(identity, passPhrase, takeRsaKeyPair(), takeRsaKeyPair()), passPhrase);
+    }
+
+    private KeyPair takeRsaKeyPair() {
+      startGenerators();
+      try {
+        while (true) {
+          KeyPair result = rsaKeyPairs.poll(1, TimeUnit.SECONDS);
+          if (result != null)
+            return result;
+          if (failure != null)
+            throw new RuntimeException("Error generating key pair", failure);
+          if (closed)
+            throw new IllegalStateException("Key pair factory already closed");
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while generating key pair", ex);
+      }
+    }
+
+    private synchronized void startGenerators() {
+      if (generators != null || closed)
+        return;
+      AtomicInteger threadNumber = new AtomicInteger();
+      generators = Executors.newFixedThreadPool(parallelism, r -> {
+        Thread result = new Thread(r, "crypthru-rsa-" + threadNumber.incrementAndGet());
+        result.setDaemon(true);
+        return result;
+      });
+      for (int i = 0; i < parallelism; i++)
+        generators.execute(() -> {
+          try {
+            KeyPairGenerator generator = providers.rsaKeyPairGenerator();
+            while (!closed)
+              rsaKeyPairs.put(generateRSAKeyPair(generator));
+          } catch (InterruptedException ex) {
+            // closed while waiting for room in the queue
+          } catch (GeneralSecurityException | RuntimeException ex) {
+            failure = ex;
+          }
+        });
+      log.fine("Generating RSA key pairs on " + parallelism + " threads");
+    }
+
+    @Override
+    public synchronized void close() {
+      closed = true;
+      if (generators != null)
+        generators.shutdownNow();
+      rsaKeyPairs.clear();
     }
   }
 
-  private static void storeKey(PGPPublicKey key, Path path) {
+  /**
+   * Keys are stored with their subkeys: the encryption subkey of ECC key pairs is not the primary key.
+   */
+  private static void storeKey(PGPKeyRing key, Path path) {
     try {
       ArmoredOutputStream out = new ArmoredOutputStream(Files.newOutputStream(path));
       key.encode(out);
@@ -165,8 +454,7 @@ public class BcPgpService implements CrypterService {
   }
 
   private PGPPublicKeyRing loadPublicKeyRing(Path path) {
-    try {
-      InputStream in = Files.newInputStream(path);
+    try (InputStream in = Files.newInputStream(path)) {
       ArmoredInputStream aIn = new ArmoredInputStream(in);
       final PGPObjectFactory pgpObjectFactory = new PGPObjectFactory(aIn, new JcaKeyFingerprintCalculator());
       PGPPublicKeyRing ring = (PGPPublicKeyRing) pgpObjectFactory.nextObject();
@@ -178,10 +466,9 @@ public class BcPgpService implements CrypterService {
     }
   }
 
-  private static PGPPrivateKey getPrivateKey(PGPSecretKey secretKey, String passphrase) {
+  private static PGPPrivateKey getPrivateKey(PGPSecretKey secretKey, char[] passphrase, CryptoProviders providers) {
     try {
-      PBESecretKeyDecryptor decryptorFactory = new BcPBESecretKeyDecryptorBuilder(
-          new BcPGPDigestCalculatorProvider()).build(passphrase.toCharArray());
+      PBESecretKeyDecryptor decryptorFactory = providers.secretKeyDecryptor(passphrase);
       PGPPrivateKey privateKey = secretKey.extractPrivateKey(decryptorFactory);
       return privateKey;
     } catch (Throwable t) {
@@ -192,45 +479,288 @@ public class BcPgpService implements CrypterService {
 
   @Override
   public void encrypt(Path plainTextFile, Path encryptedFile, PublicKeyProxy... keys) {
+    encrypt(plainTextFile, encryptedFile, Compression.FAST, keys);
+  }
+
+  @Override
+  public void encrypt(Path plainTextFile, Path encryptedFile, Compression compression, PublicKeyProxy... keys) {
+    encrypt(plainTextFile, encryptedFile, compression, null, keys);
+  }
+
+  @Override
+  public void encrypt(Path plainTextFile, Path encryptedFile, Compression compression, MessageDigest digest,
+                      PublicKeyProxy... keys) {
+    LiteralMetadata metadata = new LiteralMetadata(plainTextFile.getFileName().toString(), new Date());
+    // encrypted data lands in a staging file that becomes the encrypted file only once complete, so that a
+    // failure never leaves a truncated file newer than its plain text one
+    Path stagingFile = null;
     try {
-      PGPEncryptedDataGenerator encGen = new PGPEncryptedDataGenerator(
-          new JcePGPDataEncryptorBuilder(SymmetricKeyAlgorithmTags.AES_256)
-              .setWithIntegrityPacket(true)
-              .setSecureRandom(new SecureRandom()).setProvider("BC"));
-
-      for (PublicKeyProxy key : keys) {
-        PGPPublicKeyRing ring = ((MyPublicKeyProxy) key).pgpPublicKeyRing;
-        PGPPublicKey encryptionKey = firstEncryptionKey(ring);
-        log.info("Public Key ID: " + getFullId(encryptionKey));
-        encGen.addMethod(
-            new JcePublicKeyKeyEncryptionMethodGenerator(encryptionKey)
-                .setProvider("BC"));
+      stagingFile = newStagingFile(encryptedFile);
+      // the encrypted file is about as large as the plain text one
+      int fileBlockSize = ChannelIO.blockSize(Files.size(plainTextFile), blockSize);
+      try (InputStream in = ChannelIO.newInputStream(plainTextFile, fileBlockSize);
+           OutputStream out = ChannelIO.newOutputStream(stagingFile, fileBlockSize)) {
+        encrypt(digest == null ? in : new DigestInputStream(in, digest), out, metadata, compression, keys);
       }
+      moveReplacing(stagingFile, encryptedFile);
+      stagingFile = null;
+    } catch (IOException e) {
+      throw new RuntimeException("Error encrypting " + plainTextFile, e);
+    } finally {
+      if (stagingFile != null)
+        discard(stagingFile);
+    }
+  }
+
+  @Override
+  public void encrypt(ReadableByteChannel plainText, WritableByteChannel encrypted, LiteralMetadata metadata,
+                      Compression compression, PublicKeyProxy... keys) {
+    OutputStream out = new BufferedOutputStream(Channels.newOutputStream(encrypted), blockSize);
+    encrypt(Channels.newInputStream(plainText), out, metadata, compression, keys);
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new RuntimeException("Error encrypting " + metadata.getFileName(), e);
+    }
+  }
+
+  @Override
+  public void encrypt(InputStream plainText, OutputStream encrypted, LiteralMetadata metadata,
+                      Compression compression, PublicKeyProxy... keys) {
+    try {
+      PGPEncryptedDataGenerator encGen = newEncryptedDataGenerator(keys);
+
+      // the length is unknown: read one byte more than a small payload to find out if it is one
+      byte[] head = new byte[SMALL_FILE_SIZE + 1];
+      int headLength = Streams.readFully(plainText, head);
+      if (headLength <= SMALL_FILE_SIZE)
+        encryptSmall(Arrays.copyOf(head, headLength), metadata, encrypted, encGen, compression);
+      else
+        encryptStreaming(head, plainText, metadata, encrypted, encGen, compression);
+    } catch (IOException | PGPException e) {
+      throw new RuntimeException("Error encrypting " + metadata.getFileName(), e);
+    }
+  }
+
+  private PGPEncryptedDataGenerator newEncryptedDataGenerator(PublicKeyProxy... keys) {
+    PGPEncryptedDataGenerator encGen = new PGPEncryptedDataGenerator(
+        providers.dataEncryptorBuilder(SymmetricKeyAlgorithmTags.AES_256)
+            .setWithIntegrityPacket(true)
+            .setSecureRandom(new SecureRandom()));
+
+    List<PGPKeyEncryptionMethodGenerator> methods = new ArrayList<>(keys.length);
+    for (PublicKeyProxy key : keys) {
+      PGPPublicKey encryptionKey = ((MyPublicKeyProxy) key).getEncryptionKey();
+      if (keys.length < PARALLEL_WRAPPING_RECIPIENTS)
+        log.info("Public Key ID: " + getFullId(encryptionKey));
+      else
+        log.fine("Public Key ID: " + getFullId(encryptionKey));
+      methods.add(providers.keyEncryptionMethod(encryptionKey));
+    }
+    if (methods.size() < PARALLEL_WRAPPING_RECIPIENTS) {
+      for (PGPKeyEncryptionMethodGenerator method : methods)
+        encGen.addMethod(method);
+    } else {
+      log.info("Encrypting for " + methods.size() + " recipients");
+      encGen.addMethod(new ParallelKeyEncryptionMethods(methods));
+    }
+    return encGen;
+  }
+
+  /**
+   * Encrypts the session key for all the recipients at once, on the common fork-join pool: with hundreds of
+   * recipients the public key operations cost more than encrypting a small file. The packets are written in
+   * the order of the recipients, as with one method per recipient.
+   */
+  private static class ParallelKeyEncryptionMethods extends PGPKeyEncryptionMethodGenerator {
+    private final List<PGPKeyEncryptionMethodGenerator> methods;
+
+    private ParallelKeyEncryptionMethods(List<PGPKeyEncryptionMethodGenerator> methods) {
+      this.methods = methods;
+    }
 
-      OutputStream encOut = Files.newOutputStream(encryptedFile);
-      InputStream source = Files.newInputStream(plainTextFile);
-      try (OutputStream encryptedOut = encGen.open(encOut, new byte[BUFFER_SIZE])) {
-        PGPCompressedDataGenerator compressedDataGenerator = new PGPCompressedDataGenerator(PGPCompressedData.ZIP,
-            Deflater.BEST_SPEED);
-        try (OutputStream compressedOut = compressedDataGenerator.open(encryptedOut, new byte[BUFFER_SIZE])) {
-          PGPLiteralDataGenerator literalDataGenerator = new PGPLiteralDataGenerator();
-          try (OutputStream literalOut = literalDataGenerator.open(compressedOut, PGPLiteralData.BINARY,
-              plainTextFile.getFileName().toString(), new Date(), new byte[BUFFER_SIZE])) {
-            final byte[] buffer = new byte[BLOCK_SIZE];
-            int len;
-            while ((len = source.read(buffer)) > -1) {
-              literalOut.write(buffer, 0, len);
-            }
+    @Override
+    public ContainedPacket generate(int encAlgorithm, byte[] sessionInfo) throws PGPException {
+      List<ContainedPacket> packets;
+      try {
+        packets = methods.parallelStream().map(method -> {
+          try {
+            return method.generate(encAlgorithm, sessionInfo);
+          } catch (PGPException ex) {
+            throw new UncheckedPGPException(ex);
           }
-        }
+        }).collect(Collectors.toList());
+      } catch (UncheckedPGPException ex) {
+        throw (PGPException) ex.getCause();
       }
+      return new ContainedPacket() {
+        @Override
+        public void encode(BCPGOutputStream out) throws IOException {
+          for (ContainedPacket packet : packets)
+            out.writePacket(packet);
+        }
+      };
+    }
+  }
 
+  private static class UncheckedPGPException extends RuntimeException {
+    private UncheckedPGPException(PGPException cause) {
+      super(cause);
+    }
+  }
 
-    } catch (IOException | PGPException e) {
+  /**
+   * The data key of a seekable file travels in an OpenPGP message to the recipients, so any OpenPGP key
+   * the service supports can read it.
+   */
+  @Override
+  public void encryptSeekable(Path plainTextFile, Path encryptedFile, PublicKeyProxy... keys) {
+    try (ReadableByteChannel in = FileChannel.open(plainTextFile, StandardOpenOption.READ)) {
+      encryptSeekable(in, plainTextFile.getFileName().toString(), encryptedFile, keys);
+    } catch (IOException e) {
       throw new RuntimeException("Error encrypting " + plainTextFile, e);
     }
   }
 
+  @Override
+  public void encryptArchive(List<Path> files, Path baseDirectory, Path archiveFile, PublicKeyProxy... keys) {
+    try (ReadableByteChannel in = SeekableArchive.open(files, baseDirectory)) {
+      encryptSeekable(in, archiveFile.getFileName().toString(), archiveFile, keys);
+    } catch (IOException e) {
+      throw new RuntimeException("Error archiving into " + archiveFile, e);
+    }
+  }
+
+  @Override
+  public void encryptZip(List<Path> files, Path baseDirectory, String zipName, Path encryptedFile,
+                         Compression compression, int parallelism, PublicKeyProxy... keys) {
+    boolean completed = false;
+    try (OutputStream out = ChannelIO.newOutputStream(encryptedFile, blockSize)) {
+      try (OutputStream plainText = openStreaming(out, newEncryptedDataGenerator(keys),
+          new LiteralMetadata(zipName, new Date()), compression)) {
+        ZipBundle.write(files, baseDirectory, plainText, parallelism);
+      }
+      completed = true;
+    } catch (IOException | PGPException e) {
+      throw new RuntimeException("Error zipping into " + encryptedFile, e);
+    } finally {
+      if (!completed)
+        discard(encryptedFile);
+    }
+  }
+
+  private void encryptSeekable(ReadableByteChannel plainText, String name, Path encryptedFile, PublicKeyProxy... keys)
+      throws IOException {
+    byte[] dataKey = new byte[SeekableContainer.KEY_SIZE];
+    new SecureRandom().nextBytes(dataKey);
+    Path stagingFile = null;
+    try {
+      ByteArrayOutputStream keyMessage = new ByteArrayOutputStream();
+      encrypt(new ByteArrayInputStream(dataKey), keyMessage, new LiteralMetadata(name, new Date()),
+          Compression.NONE, keys);
+      stagingFile = newStagingFile(encryptedFile);
+      SeekableContainer.write(plainText, stagingFile, dataKey, keyMessage.toByteArray(), blockSize, providers);
+      moveReplacing(stagingFile, encryptedFile);
+      stagingFile = null;
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException("Error encrypting " + name, e);
+    } finally {
+      Arrays.fill(dataKey, (byte) 0);
+      if (stagingFile != null)
+        discard(stagingFile);
+    }
+  }
+
+  /**
+   * Small payloads are packed in memory, so the encrypted packet has a definite length and no partial
+   * packet buffers are needed.
+   */
+  private static void encryptSmall(byte[] plainText, LiteralMetadata metadata, OutputStream encOut,
+                                   PGPEncryptedDataGenerator encGen, Compression compression)
+      throws IOException, PGPException {
+    ByteArrayOutputStream packets = new ByteArrayOutputStream(plainText.length + 512);
+    try (OutputStream compressedOut = openCompressed(packets, compression, null)) {
+      PGPLiteralDataGenerator literalDataGenerator = new PGPLiteralDataGenerator();
+      try (OutputStream literalOut = literalDataGenerator.open(compressedOut, PGPLiteralData.BINARY,
+          metadata.getFileName(), plainText.length, metadata.getModificationTime())) {
+        literalOut.write(plainText);
+      }
+    }
+    try (OutputStream encryptedOut = encGen.open(encOut, packets.size())) {
+      packets.writeTo(encryptedOut);
+    }
+  }
+
+  private static void encryptStreaming(byte[] head, InputStream plainText, LiteralMetadata metadata,
+                                       OutputStream encOut, PGPEncryptedDataGenerator encGen, Compression compression)
+      throws IOException, PGPException {
+    try (OutputStream literalOut = openStreaming(encOut, encGen, metadata, compression)) {
+      literalOut.write(head);
+      // the streams on both sides buffer whole blocks: a packet sized copy buffer is enough
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int length;
+      while ((length = plainText.read(buffer)) > -1) {
+        literalOut.write(buffer, 0, length);
+      }
+    }
+  }
+
+  /**
+   * @param encOut The stream receiving encrypted data (it is not closed when the returned stream is closed).
+   * @return The stream to write the plain text of a literal packet of indefinite length, in partial packets.
+   * Closing it completes the compressed and encrypted packets.
+   */
+  private static OutputStream openStreaming(OutputStream encOut, PGPEncryptedDataGenerator encGen,
+                                            LiteralMetadata metadata, Compression compression)
+      throws IOException, PGPException {
+    OutputStream encryptedOut = encGen.open(encOut, new byte[BUFFER_SIZE]);
+    OutputStream compressedOut = openCompressed(encryptedOut, compression, new byte[BUFFER_SIZE]);
+    OutputStream literalOut = new PGPLiteralDataGenerator().open(compressedOut, PGPLiteralData.BINARY,
+        metadata.getFileName(), metadata.getModificationTime(), new byte[BUFFER_SIZE]);
+    return new FilterOutputStream(literalOut) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        try {
+          literalOut.close();
+          compressedOut.close();
+        } finally {
+          encryptedOut.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * @param out The stream receiving compressed data (it is not closed when the returned stream is closed).
+   * @param compression The compression to apply.
+   * @param buffer Buffer for partial packets, or null for a single packet of indefinite length.
+   * @return The stream to write uncompressed data.
+   */
+  private static OutputStream openCompressed(OutputStream out, Compression compression, byte[] buffer)
+      throws IOException, PGPException {
+    int algorithm;
+    switch (compression.getAlgorithm()) {
+      case NONE:
+        return new CloseShieldOutputStream(out);
+      case ZLIB:
+        algorithm = PGPCompressedData.ZLIB;
+        break;
+      case BZIP2:
+        algorithm = PGPCompressedData.BZIP2;
+        break;
+      default:
+        algorithm = PGPCompressedData.ZIP;
+    }
+    PGPCompressedDataGenerator compressedDataGenerator = new PGPCompressedDataGenerator(algorithm,
+        compression.getLevel());
+    return buffer == null ? compressedDataGenerator.open(out) : compressedDataGenerator.open(out, buffer);
+  }
+
   private String getFullId(PGPPublicKey key) {
     StringBuilder result = new StringBuilder(Long.toString(key.getKeyID()));
     Iterator<String> iter = key.getUserIDs();
@@ -251,81 +781,182 @@ public class BcPgpService implements CrypterService {
 
   @Override
   public void decrypt(Path encryptedFile, Path plainTextFile, PrivateKeyProxy key) {
-    Map<Long, PGPSecretKey> keyMap = ((MyPrivateKeyProxy) key).keysById();
-    PGPPrivateKey privateKey = null;
+    try (MyDecryptionSession session = new MyDecryptionSession((MyPrivateKeyProxy) key, 0, blockSize)) {
+      session.decrypt(encryptedFile, plainTextFile);
+    }
+  }
+
+  @Override
+  public long decryptRange(Path encryptedFile, long offset, long length, OutputStream plainText, PrivateKeyProxy key) {
+    try (MyDecryptionSession session = new MyDecryptionSession((MyPrivateKeyProxy) key, 0, blockSize)) {
+      return session.decryptRange(encryptedFile, offset, length, plainText);
+    }
+  }
+
+  @Override
+  public List<Path> extractArchive(Path archiveFile, Predicate<String> members, Path directory, boolean force,
+                                   PrivateKeyProxy key) {
+    try (MyDecryptionSession session = new MyDecryptionSession((MyPrivateKeyProxy) key, 0, blockSize)) {
+      return session.extractArchive(archiveFile, members, directory, force);
+    }
+  }
+
+  @Override
+  public List<Path> extractZip(Path encryptedFile, Path directory, int parallelism, PrivateKeyProxy key) {
+    try (MyDecryptionSession session = new MyDecryptionSession((MyPrivateKeyProxy) key, 0, blockSize)) {
+      return session.extractZip(encryptedFile, directory, parallelism);
+    }
+  }
+
+  @Override
+  public LiteralMetadata decrypt(InputStream encrypted, OutputStream plainText, PrivateKeyProxy key) {
+    try (MyDecryptionSession session = new MyDecryptionSession((MyPrivateKeyProxy) key, 0, blockSize)) {
+      return session.decrypt(encrypted, plainText);
+    }
+  }
+
+  @Override
+  public LiteralMetadata decrypt(ReadableByteChannel encrypted, WritableByteChannel plainText, PrivateKeyProxy key) {
+    try (MyDecryptionSession session = new MyDecryptionSession((MyPrivateKeyProxy) key, 0, blockSize)) {
+      return session.decrypt(encrypted, plainText);
+    }
+  }
+
+  private static void decrypt(Path encryptedFile, Path plainTextFile, MyDecryptionSession session) {
+    // decrypted data lands in a staging file that becomes the plain text file only once verified
+    Path stagingFile = null;
     try {
-      InputStream inStream = Files.newInputStream(encryptedFile);
-      PGPObjectFactory pgpFact = new JcaPGPObjectFactory(inStream);
-      PGPEncryptedDataList encList = (PGPEncryptedDataList) pgpFact.nextObject();
-
-      // find the matching public key encrypted data packet.
-      PGPPublicKeyEncryptedData encData = null;
-      List<Long> foundId = new ArrayList<>();
-      for (PGPEncryptedData pgpEnc : encList) {
-        PGPPublicKeyEncryptedData pkEnc = (PGPPublicKeyEncryptedData) pgpEnc;
-        foundId.add(pkEnc.getKeyID());
-        PGPSecretKey secretKey = keyMap.get(pkEnc.getKeyID());
-        if (secretKey != null) {
-          privateKey = getPrivateKey(secretKey, ((MyPrivateKeyProxy) key).passPhrase);
-          encData = pkEnc;
-          break;
+      stagingFile = newStagingFile(plainTextFile);
+      int fileBlockSize = ChannelIO.blockSize(Files.size(encryptedFile), session.blockSize);
+      if (SeekableContainer.isSeekable(encryptedFile)) {
+        try (OutputStream out = ChannelIO.newOutputStream(stagingFile, fileBlockSize)) {
+          session.decryptRange(encryptedFile, 0, Long.MAX_VALUE, out);
+        }
+      } else {
+        try (InputStream in = ChannelIO.newInputStream(encryptedFile, fileBlockSize);
+             OutputStream out = ChannelIO.newOutputStream(stagingFile, fileBlockSize)) {
+          decrypt(in, out, session, encryptedFile);
         }
       }
-      if (encData == null) {
-        throw new IllegalStateException("No matching key ID. " + encryptedFile + ": " +
-            printKeyIds(foundId) + ", keys: " + printKeyIds(keyMap.keySet()));
+      moveReplacing(stagingFile, plainTextFile);
+      stagingFile = null;
+    } catch (PGPException | IOException e) {
+      throw new RuntimeException("Error decrypting " + encryptedFile, e);
+    } finally {
+      if (stagingFile != null)
+        discard(stagingFile);
+    }
+  }
+
+  /**
+   * Decrypt a stream in a single pass: the clear data is inflated and written as it arrives, so memory
+   * usage does not depend on the payload size. The integrity packet is checked after the last byte.
+   * @return The metadata of the literal data.
+   */
+  private static LiteralMetadata decrypt(InputStream encrypted, OutputStream plainText, MyDecryptionSession session,
+                                         Object source) throws IOException, PGPException {
+    byte[] buf = new byte[BUFFER_SIZE];
+    return decrypt(encrypted, session, source, literal -> {
+      int length;
+      while ((length = literal.read(buf)) > 0) {
+        plainText.write(buf, 0, length);
       }
+    });
+  }
 
-      // build decryptor factory
-      PublicKeyDataDecryptorFactory dataDecryptorFactory =
-          new JcePublicKeyDataDecryptorFactoryBuilder()
-              .setProvider("BC")
-              .build(privateKey);
-      InputStream clear = encData.getDataStream(dataDecryptorFactory);
-      byte[] literalData = Streams.readAll(clear);
-      clear.close();
-
-      // check data decrypts okay
-      if (encData.verify()) {
-
-        // parse out literal data
-        PGPObjectFactory litFact = new JcaPGPObjectFactory(literalData);
-        Object o = litFact.nextObject();
-        OutputStream pOut = Files.newOutputStream(plainTextFile);
-        byte[] buf = new byte[8192];
-        int length;
-        InputStream original;
-        if (o instanceof PGPLiteralData) {
-          PGPLiteralData litData = (PGPLiteralData) o;
-          log.config("Found Literal Data, fileName: " + litData.getFileName() + ", modified: " + litData.getModificationTime());
-          original = litData.getInputStream();
-        } else if (o instanceof PGPCompressedData) {
-          PGPCompressedData compData = (PGPCompressedData) o;
-          log.config("Found compressed data, algorithm: " + compData.getAlgorithm() + "");
-          pgpFact = new JcaPGPObjectFactory(compData.getDataStream());
-          o = (PGPLiteralData)pgpFact.nextObject();
-          if (!(o instanceof PGPLiteralData))
-            throw new RuntimeException("Unexpected stream in " + encryptedFile + ", unexpected object of type: " + o.getClass().getName());
-          PGPLiteralData litData = (PGPLiteralData)o;
-          log.config("Compressed data contains literal data, fileName: " + litData.getFileName() + ", modified: " + litData.getModificationTime());
-          original = litData.getInputStream();
-        } else
-          throw new RuntimeException("Unexpected stream in " + encryptedFile + ", unexpected object of type: " + o.getClass().getName());
-        while ((length = original.read(buf)) > 0) {
-          pOut.write(buf, 0, length);
-        }
-        pOut.close();
+  /**
+   * Consumes the literal data of a message as it is decrypted.
+   */
+  private interface LiteralReader {
+
+    /**
+     * @param literal The literal data, what is left unread is skipped.
+     */
+    void read(InputStream literal) throws IOException;
+  }
+
+  /**
+   * Decrypt a stream, passing the literal data to a reader: the integrity packet is checked once the reader
+   * returns, so whatever it did with the data shall be undone when an exception is thrown.
+   * @return The metadata of the literal data.
+   */
+  private static LiteralMetadata decrypt(InputStream encrypted, MyDecryptionSession session, Object source,
+                                         LiteralReader reader) throws IOException, PGPException {
+    PGPObjectFactory pgpFact = new JcaPGPObjectFactory(encrypted);
+    PGPEncryptedDataList encList = (PGPEncryptedDataList) pgpFact.nextObject();
+
+    // find the matching public key encrypted data packet.
+    PublicKeyDataDecryptorFactory dataDecryptorFactory = null;
+    PGPPublicKeyEncryptedData encData = null;
+    List<Long> foundId = new ArrayList<>();
+    for (PGPEncryptedData pgpEnc : encList) {
+      PGPPublicKeyEncryptedData pkEnc = (PGPPublicKeyEncryptedData) pgpEnc;
+      foundId.add(pkEnc.getKeyID());
+      dataDecryptorFactory = session.decryptorFor(pkEnc.getKeyID());
+      if (dataDecryptorFactory != null) {
+        encData = pkEnc;
+        break;
       }
-    } catch (PGPException |
-        IOException e) {
-      throw new RuntimeException("Error decrypting " + encryptedFile, e);
+    }
+    if (encData == null) {
+      throw new IllegalStateException("No matching key ID. " + source + ": " +
+          printKeyIds(foundId) + ", keys: " + printKeyIds(session.keyIds()));
+    }
+    if (!encData.isIntegrityProtected())
+      throw new PGPException("No integrity packet in " + source + ", refusing to decrypt it");
+
+    InputStream clear = encData.getDataStream(dataDecryptorFactory);
+
+    // parse out literal data
+    Object o = new JcaPGPObjectFactory(clear).nextObject();
+    if (o instanceof PGPCompressedData) {
+      PGPCompressedData compData = (PGPCompressedData) o;
+      log.config("Found compressed data, algorithm: " + compData.getAlgorithm() + "");
+      o = new JcaPGPObjectFactory(compData.getDataStream()).nextObject();
+    }
+    if (!(o instanceof PGPLiteralData))
+      throw new RuntimeException("Unexpected stream in " + source + ", unexpected object of type: " +
+          (o == null ? null : o.getClass().getName()));
+    PGPLiteralData litData = (PGPLiteralData) o;
+    log.config("Found Literal Data, fileName: " + litData.getFileName() + ", modified: " + litData.getModificationTime());
+    InputStream original = litData.getInputStream();
+    reader.read(original);
+
+    // the modification detection code trails the data: consume what is left, then check it
+    Streams.drain(original);
+    Streams.drain(clear);
+    if (!encData.verify())
+      throw new PGPException("Integrity check failed for " + source + ", data has been modified");
+    return new LiteralMetadata(litData.getFileName(), litData.getModificationTime());
+  }
+
+  /**
+   * @return A new hidden file next to a file, to be written and then moved over it.
+   */
+  static Path newStagingFile(Path file) throws IOException {
+    return Files.createTempFile(PathKit.getParentPath(file), "." + file.getFileName(), ".part");
+  }
+
+  static void moveReplacing(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  static void discard(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException ex) {
+      log.warning("Unable to delete " + file + ": " + ex.getMessage());
     }
   }
 
   public static PGPKeyRingGenerator generateDsaRsaKeyRings(String identity, String passphrase) {
     try {
       KeyPair dsaKp = generateDSAKeyPair();
-      KeyPair rsaKp = generateRSAKeyPair();
+      KeyPair rsaKp = generateRSAKeyPair(KeyPairGenerator.getInstance("RSA", "BC"));
       PGPKeyPair dsaKeyPair = new JcaPGPKeyPair(
           PGPPublicKey.DSA, dsaKp, new Date());
       PGPKeyPair rsaKeyPair = new JcaPGPKeyPair(
@@ -350,30 +981,78 @@ public class BcPgpService implements CrypterService {
 
   public PGPKeyRingGenerator generateKeyRings(String identity, String passphrase) {
     try {
-      KeyPair dsaKp = generateRSAKeyPair();
-      KeyPair rsaKp = generateRSAKeyPair();
+      return generateKeyRings(identity, passphrase, generateRSAKeyPair(providers.rsaKeyPairGenerator()),
+          generateRSAKeyPair(providers.rsaKeyPairGenerator()));
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException("Error generating key pair", e);
+    }
+  }
+
+  private PGPKeyRingGenerator generateKeyRings(String identity, String passphrase, KeyPair dsaKp, KeyPair rsaKp) {
+    try {
       PGPKeyPair dsaKeyPair = new JcaPGPKeyPair(
           PGPPublicKey.RSA_GENERAL, dsaKp, new Date());
       PGPKeyPair rsaKeyPair = new JcaPGPKeyPair(
           PGPPublicKey.RSA_GENERAL, rsaKp, new Date());
-      PGPDigestCalculator sha1Calc = new JcaPGPDigestCalculatorProviderBuilder()
-          .build().get(HashAlgorithmTags.SHA1);
+      PGPDigestCalculator sha1Calc = providers.digestCalculators().get(HashAlgorithmTags.SHA1);
       PGPKeyRingGenerator keyRingGen =
           new PGPKeyRingGenerator(PGPSignature.POSITIVE_CERTIFICATION, dsaKeyPair, identity, sha1Calc,
               null, null,
               new JcaPGPContentSignerBuilder(
                   dsaKeyPair.getPublicKey().getAlgorithm(),
                   HashAlgorithmTags.SHA384),
-              new JcePBESecretKeyEncryptorBuilder(
-                  PGPEncryptedData.AES_256, sha1Calc)
-                  .setProvider("BC").build(passphrase.toCharArray()));
+              providers.secretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1Calc)
+                  .build(passphrase.toCharArray()));
       keyRingGen.addSubKey(rsaKeyPair);
       return keyRingGen;
+    } catch (PGPException e) {
+      throw new RuntimeException("Error generating key pair", e);
+    }
+  }
+
+  /**
+   * An Ed25519 primary key certifying an X25519 encryption subkey. Bouncy Castle generates both, the JDK 8
+   * providers have no Curve25519.
+   */
+  public PGPKeyRingGenerator generateEccKeyRings(String identity, String passphrase) {
+    try {
+      Date now = new Date();
+      PGPKeyPair primaryKeyPair = new JcaPGPKeyPair(PGPPublicKey.EDDSA, generateEd25519KeyPair(), now);
+      PGPKeyPair encryptionKeyPair = new JcaPGPKeyPair(PGPPublicKey.ECDH,
+          KeyPairGenerator.getInstance("X25519", "BC").generateKeyPair(), now);
+      PGPDigestCalculator sha1Calc = providers.digestCalculators().get(HashAlgorithmTags.SHA1);
+      PGPKeyRingGenerator keyRingGen =
+          new PGPKeyRingGenerator(PGPSignature.POSITIVE_CERTIFICATION, primaryKeyPair, identity, sha1Calc,
+              null, null,
+              new JcaPGPContentSignerBuilder(PGPPublicKey.EDDSA, HashAlgorithmTags.SHA512).setProvider("BC"),
+              providers.secretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1Calc)
+                  .build(passphrase.toCharArray()));
+      keyRingGen.addSubKey(encryptionKeyPair);
+      return keyRingGen;
     } catch (PGPException | GeneralSecurityException e) {
       throw new RuntimeException("Error generating key pair", e);
     }
   }
 
+  /**
+   * OpenPGP stores the Ed25519 seed as a number, and Bouncy Castle 1.68 cannot read it back when the leading
+   * zeros made it shorter: such keys are discarded.
+   */
+  private static KeyPair generateEd25519KeyPair() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519", "BC");
+    while (true) {
+      KeyPair result = generator.generateKeyPair();
+      try {
+        byte[] seed = ASN1OctetString.getInstance(PrivateKeyInfo.getInstance(result.getPrivate().getEncoded())
+            .parsePrivateKey()).getOctets();
+        if (seed[0] != 0)
+          return result;
+      } catch (IOException e) {
+        throw new GeneralSecurityException("Unreadable Ed25519 key", e);
+      }
+    }
+  }
+
   private static KeyPair generateDSAKeyPair()
       throws GeneralSecurityException {
     KeyPairGenerator keyPair = KeyPairGenerator.getInstance("DSA", "BC");
@@ -381,9 +1060,8 @@ public class BcPgpService implements CrypterService {
     return keyPair.generateKeyPair();
   }
 
-  private static KeyPair generateRSAKeyPair()
+  private static KeyPair generateRSAKeyPair(KeyPairGenerator keyPair)
       throws GeneralSecurityException {
-    KeyPairGenerator keyPair = KeyPairGenerator.getInstance("RSA", "BC");
     keyPair.initialize(
         new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4));
     return keyPair.generateKeyPair();
@@ -396,9 +1074,13 @@ public class BcPgpService implements CrypterService {
   }
 
   public static String print(PGPSecretKeyRing ring, String passphrase) {
+    return print(ring, passphrase, CryptoProviders.bouncyCastle());
+  }
+
+  private static String print(PGPSecretKeyRing ring, String passphrase, CryptoProviders providers) {
     StringBuilder result = new StringBuilder();
     PGPSecretKey secretKey = ring.getSecretKey();
-    PGPPrivateKey privateKey = getPrivateKey(secretKey, passphrase);
+    PGPPrivateKey privateKey = getPrivateKey(secretKey, passphrase.toCharArray(), providers);
     result.append("\n    PRIVATE KEY - id: ").append(privateKey.getKeyID())
         .append(", format: ").append(privateKey.getPrivateKeyDataPacket().getFormat())
         .append(", algorithm: ").append(privateKey.getPublicKeyPacket().getAlgorithm())
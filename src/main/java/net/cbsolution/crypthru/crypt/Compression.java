@@ -0,0 +1,44 @@
+package net.cbsolution.crypthru.crypt;
+
+import lombok.Getter;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * How data is compressed before being encrypted.
+ */
+@Getter
+public class Compression {
+
+  public enum Algorithm {NONE, ZIP, ZLIB, BZIP2}
+
+  /**
+   * Data stored as is.
+   */
+  public static final Compression NONE = new Compression(Algorithm.NONE, 0);
+
+  /**
+   * Fastest deflate, the historical default.
+   */
+  public static final Compression FAST = new Compression(Algorithm.ZIP, Deflater.BEST_SPEED);
+
+  private final Algorithm algorithm;
+  private final int level;
+
+  /**
+   * @param algorithm The algorithm.
+   * @param level     Compression level from 1 (fastest) to 9 (smallest), only meaningful for ZIP and ZLIB.
+   */
+  public Compression(Algorithm algorithm, int level) {
+    this.algorithm = algorithm;
+    this.level = level;
+  }
+
+  @Override
+  public String toString() {
+    String name = algorithm.name().toLowerCase(Locale.ROOT);
+    return algorithm == Algorithm.ZIP || algorithm == Algorithm.ZLIB ? name + "/" + level : name;
+  }
+
+}
@@ -0,0 +1,106 @@
+package net.cbsolution.crypthru.crypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Chooses the compression of each file. In "auto" mode files in a compressed format (by extension) or
+ * whose first block looks random are stored as is, others are deflated with a level depending on how
+ * redundant the first block is. Other modes apply the same compression to every file.
+ */
+public class CompressionPolicy {
+
+  public static final String AUTO = "auto";
+
+  private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+      "7z", "aac", "avi", "bz2", "docx", "gif", "gpg", "gz", "jar", "jpeg", "jpg", "lz4", "mkv", "mov",
+      "mp3", "mp4", "odp", "ods", "odt", "ogg", "pgp", "png", "pptx", "rar", "tgz", "war", "webm",
+      "webp", "xlsx", "xz", "z", "zip", "zst"));
+
+  private static final int SAMPLE_SIZE = 65536;
+  private static final int DEFAULT_LEVEL = 6;
+
+  // Shannon entropy in bits per byte: 8 is random data.
+  private static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+  private static final double REDUNDANT_ENTROPY = 6.0;
+
+  private final Compression fixed;
+
+  private CompressionPolicy(Compression fixed) {
+    this.fixed = fixed;
+  }
+
+  /**
+   * @param mode  One of auto, none, zip, zlib or bzip2.
+   * @param level The level for zip and zlib (1 to 9), 0 for the default.
+   * @return The policy.
+   */
+  public static CompressionPolicy of(String mode, int level) {
+    if (AUTO.equalsIgnoreCase(mode))
+      return new CompressionPolicy(null);
+    Compression.Algorithm algorithm;
+    try {
+      algorithm = Compression.Algorithm.valueOf(mode.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException ex) {
+      throw new RuntimeException("Unknown compression " + mode + ", valid values are " + AUTO + ", none, zip, zlib, bzip2");
+    }
+    if (level < 0 || level > 9)
+      throw new RuntimeException("Invalid compression level " + level + ", valid levels are 1 to 9");
+    return new CompressionPolicy(new Compression(algorithm, level == 0 ? DEFAULT_LEVEL : level));
+  }
+
+  /**
+   * @param file A plain text file.
+   * @return The compression to use for it.
+   */
+  public Compression choose(Path file) {
+    if (fixed != null)
+      return fixed;
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)))
+      return Compression.NONE;
+    double entropy = sampleEntropy(file);
+    if (entropy >= INCOMPRESSIBLE_ENTROPY)
+      return Compression.NONE;
+    if (entropy >= REDUNDANT_ENTROPY)
+      return Compression.FAST;
+    return new Compression(Compression.Algorithm.ZIP, DEFAULT_LEVEL);
+  }
+
+  private static double sampleEntropy(Path file) {
+    byte[] sample = new byte[SAMPLE_SIZE];
+    int length = 0;
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while (length < sample.length && (read = in.read(sample, length, sample.length - length)) > 0)
+        length += read;
+    } catch (IOException ex) {
+      throw new RuntimeException("Error sampling " + file, ex);
+    }
+    return entropy(sample, length);
+  }
+
+  static double entropy(byte[] data, int length) {
+    if (length == 0)
+      return 0;
+    int[] counts = new int[256];
+    for (int i = 0; i < length; i++)
+      counts[data[i] & 0xff]++;
+    double result = 0;
+    for (int count : counts) {
+      if (count > 0) {
+        double p = (double) count / length;
+        result -= p * Math.log(p);
+      }
+    }
+    return result / Math.log(2);
+  }
+
+}
@@ -1,6 +1,13 @@
 package net.cbsolution.crypthru.crypt;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * A generic Encrypt / Decrypt service
@@ -13,6 +20,12 @@ public interface CrypterService {
    */
   PublicKeyProxy readPublicKey(Path keyFile);
 
+  /**
+   * @param encoded A key in binary form, see {@link PublicKeyProxy#getEncoded()}.
+   * @return the public key.
+   */
+  PublicKeyProxy readPublicKey(byte[] encoded);
+
   /**
    * @param keyFile a file.
    * @return the contained private key.
@@ -21,8 +34,144 @@ public interface CrypterService {
 
   void encrypt(Path plainTextFile, Path encryptedFile, PublicKeyProxy... keys);
 
+  /**
+   * Encrypt a file.
+   * @param plainTextFile The file to encrypt.
+   * @param encryptedFile The resulting file.
+   * @param compression How data is compressed before encryption.
+   * @param keys The public keys of the recipients.
+   */
+  void encrypt(Path plainTextFile, Path encryptedFile, Compression compression, PublicKeyProxy... keys);
+
+  /**
+   * Encrypt a file, computing a digest of its content in the same read.
+   * @param digest Updated with the content of the plain text file.
+   * @see #encrypt(Path, Path, Compression, PublicKeyProxy...)
+   */
+  void encrypt(Path plainTextFile, Path encryptedFile, Compression compression, MessageDigest digest,
+               PublicKeyProxy... keys);
+
+  /**
+   * Encrypt a stream with bounded memory. Streams are not closed.
+   * @param plainText The data to encrypt, read up to its end.
+   * @param encrypted The receiving stream.
+   * @param metadata The file name and modification time stored with the data.
+   * @param compression How data is compressed before encryption.
+   * @param keys The public keys of the recipients.
+   */
+  void encrypt(InputStream plainText, OutputStream encrypted, LiteralMetadata metadata, Compression compression,
+               PublicKeyProxy... keys);
+
+  /**
+   * Encrypt a channel with bounded memory. Channels are not closed.
+   * @see #encrypt(InputStream, OutputStream, LiteralMetadata, Compression, PublicKeyProxy...)
+   */
+  void encrypt(ReadableByteChannel plainText, WritableByteChannel encrypted, LiteralMetadata metadata,
+               Compression compression, PublicKeyProxy... keys);
+
+  /**
+   * Encrypt a file in the seekable format: independently authenticated segments followed by an index, so
+   * that any byte range can be decrypted without reading the rest. It is not OpenPGP: only crypthru reads it.
+   * @param plainTextFile The file to encrypt.
+   * @param encryptedFile The resulting file.
+   * @param keys The public keys of the recipients.
+   */
+  void encryptSeekable(Path plainTextFile, Path encryptedFile, PublicKeyProxy... keys);
+
+  /**
+   * Encrypt files into an archive: the members in the seekable format followed by their table of contents,
+   * so that any member can be extracted without decrypting the others.
+   * @param files The member files.
+   * @param baseDirectory The directory member names are relative to.
+   * @param archiveFile The resulting file.
+   * @param keys The public keys of the recipients.
+   */
+  void encryptArchive(List<Path> files, Path baseDirectory, Path archiveFile, PublicKeyProxy... keys);
+
+  /**
+   * Encrypt files as a zip, streamed into the encrypted data without any intermediate file.
+   * @param files The entries.
+   * @param baseDirectory The directory entry names are relative to.
+   * @param zipName The name of the zip, stored with the data.
+   * @param encryptedFile The resulting file, deleted if any entry fails.
+   * @param compression How the zip is compressed before encryption (entries are deflated anyway).
+   * @param parallelism The number of threads deflating entries ahead, 1 to deflate them one after the other.
+   * @param keys The public keys of the recipients.
+   */
+  void encryptZip(List<Path> files, Path baseDirectory, String zipName, Path encryptedFile, Compression compression,
+                  int parallelism, PublicKeyProxy... keys);
+
+  /**
+   * Decrypt a file, either OpenPGP or in the seekable format.
+   * @param encryptedFile The file to decrypt.
+   * @param plainTextFile The resulting file, written only if the whole file could be decrypted and verified.
+   * @param key The private key.
+   */
   void decrypt(Path encryptedFile, Path plainTextFile, PrivateKeyProxy key);
 
+  /**
+   * Decrypt a byte range of a file in the seekable format, reading only the segments covering it.
+   * Each segment is verified before any of its bytes are written. The stream is not closed.
+   * @param encryptedFile A file written by {@link #encryptSeekable(Path, Path, PublicKeyProxy...)}.
+   * @param offset The first byte of the range, negative to count from the end of the plain text.
+   * @param length The maximum number of bytes of the range.
+   * @param plainText The receiving stream.
+   * @param key The private key.
+   * @return The number of bytes written, less than length if the range exceeds the plain text.
+   */
+  long decryptRange(Path encryptedFile, long offset, long length, OutputStream plainText, PrivateKeyProxy key);
+
+  /**
+   * Extract members of an archive, decrypting only the segments holding them. Each member is written to a
+   * staging file and renamed once verified, names escaping the directory are refused.
+   * @param archiveFile A file written by {@link #encryptArchive(List, Path, Path, PublicKeyProxy...)}.
+   * @param members Selects the members to extract by name (relative, with '/' separators).
+   * @param directory The directory receiving the members.
+   * @param force Overwrite files that are not older than the member too.
+   * @param key The private key.
+   * @return The extracted files.
+   */
+  List<Path> extractArchive(Path archiveFile, Predicate<String> members, Path directory, boolean force,
+                            PrivateKeyProxy key);
+
+  /**
+   * Decrypt a zip and extract its entries as they are decrypted, without writing the zip. Each entry is written
+   * to a staging file, renamed once the whole message has been verified; names escaping the directory are
+   * refused.
+   * @param encryptedFile An OpenPGP message whose literal data is a zip.
+   * @param directory The directory receiving the entries.
+   * @param parallelism The number of threads writing large entries, 1 to write them on the decrypting thread.
+   * @param key The private key.
+   * @return The extracted files.
+   */
+  List<Path> extractZip(Path encryptedFile, Path directory, int parallelism, PrivateKeyProxy key);
+
+  /**
+   * Decrypt a stream with bounded memory. Streams are not closed.
+   * Data is written as it is decrypted and its integrity can only be checked at the end: when an exception
+   * is thrown whatever was written shall be discarded.
+   * @param encrypted The encrypted data.
+   * @param plainText The receiving stream.
+   * @param key The private key.
+   * @return The file name and modification time stored with the data.
+   */
+  LiteralMetadata decrypt(InputStream encrypted, OutputStream plainText, PrivateKeyProxy key);
+
+  /**
+   * Decrypt a channel with bounded memory. Channels are not closed.
+   * @see #decrypt(InputStream, OutputStream, PrivateKeyProxy)
+   */
+  LiteralMetadata decrypt(ReadableByteChannel encrypted, WritableByteChannel plainText, PrivateKeyProxy key);
+
+  /**
+   * Open a session decrypting many files with the same private key, unlocking its keys only once.
+   * @param key The private key.
+   * @param ttlMillis Milliseconds after which unlocked keys are forgotten and unlocked again, 0 to keep
+   *                  them until the session is closed.
+   * @return The session, to be closed when done.
+   */
+  DecryptionSession openDecryptionSession(PrivateKeyProxy key, long ttlMillis);
+
   /**
    * Generate a private-public key pair.
    * @param identity An ID to identify the key (usually an email, phone number and so on)
@@ -31,4 +180,18 @@ public interface CrypterService {
    */
   KeyPairProxy createKeyPair(String identity, String passphrase);
 
+  /**
+   * Generate a private-public key pair of the given type.
+   * @see #createKeyPair(String, String)
+   */
+  KeyPairProxy createKeyPair(String identity, String passphrase, KeyType keyType);
+
+  /**
+   * Open a factory for generating many key pairs concurrently. The primes of RSA keys are searched in
+   * background, ahead of the requests.
+   * @param parallelism The number of threads searching primes.
+   * @return The factory, to be closed after use.
+   */
+  KeyPairFactory openKeyPairFactory(int parallelism);
+
 }
@@ -0,0 +1,397 @@
+package net.cbsolution.crypthru.crypt;
+
+import lombok.extern.java.Log;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.PBESecretKeyDecryptor;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
+import org.bouncycastle.openpgp.operator.jcajce.*;
+import org.bouncycastle.util.io.Streams;
+
+import javax.crypto.Cipher;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+import java.util.*;
+
+/**
+ * The JCA providers performing each primitive: the symmetric cipher of the data, the RSA operations on
+ * session keys and the digests used to unlock secret keys. In "auto" mode every installed provider is
+ * timed against Bouncy Castle and the fastest one producing data Bouncy Castle can read (and reading data
+ * Bouncy Castle produced) is chosen. The outcome is cached in a calibration file and redone when the JVM
+ * or its providers change.
+ */
+@Log
+public class CryptoProviders {
+
+  public enum Primitive {
+    SYMMETRIC("Cipher", "AES"), RSA("Cipher", "RSA"), DIGEST("MessageDigest", "SHA-1");
+
+    private final String serviceType, algorithm;
+
+    Primitive(String serviceType, String algorithm) {
+      this.serviceType = serviceType;
+      this.algorithm = algorithm;
+    }
+
+    public String key() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  public static final String AUTO = "auto";
+  public static final String BC = "BC";
+  /**
+   * The provider the JCA prefers for each algorithm: RSA keys and ciphers may come from different providers.
+   */
+  public static final String JCA_DEFAULT = "default";
+  public static final String CALIBRATION_FILE = "provider-calibration.properties";
+
+  private static final String FINGERPRINT = "fingerprint";
+  private static final String SYMMETRIC_TRANSFORMATION = "AES/CFB/NoPadding";
+  private static final int SAMPLE_SIZE = 256 * 1024;
+  private static final int WARM_UP_ROUNDS = 10;
+  private static final int ROUNDS = 5;
+
+  static {
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  private final Map<Primitive, String> providers;
+
+  private CryptoProviders(Map<Primitive, String> providers) {
+    this.providers = providers;
+  }
+
+  /**
+   * @return Bouncy Castle for every primitive.
+   */
+  public static CryptoProviders bouncyCastle() {
+    Map<Primitive, String> providers = new EnumMap<>(Primitive.class);
+    for (Primitive primitive : Primitive.values())
+      providers.put(primitive, BC);
+    return new CryptoProviders(providers);
+  }
+
+  /**
+   * @param configured      The provider of each primitive by {@link Primitive#key()}: auto (or missing) to
+   *                        calibrate, BC, default or the name of an installed provider.
+   * @param calibrationFile The file caching the calibration.
+   * @return The providers to use.
+   */
+  public static CryptoProviders configure(Map<String, String> configured, Path calibrationFile) {
+    Map<Primitive, String> providers = new EnumMap<>(Primitive.class);
+    Map<Primitive, String> calibrated = null;
+    for (Primitive primitive : Primitive.values()) {
+      String name = configured == null ? null : configured.get(primitive.key());
+      String origin;
+      if (name == null || AUTO.equalsIgnoreCase(name)) {
+        if (calibrated == null)
+          calibrated = calibrated(calibrationFile);
+        name = calibrated.get(primitive);
+        origin = "calibrated";
+      } else {
+        name = resolve(primitive, name);
+        origin = "configured";
+      }
+      providers.put(primitive, name);
+      log.info("Crypto provider for " + primitive.key() + ": " + name + " (" + origin + ")");
+    }
+    return new CryptoProviders(providers);
+  }
+
+  public String get(Primitive primitive) {
+    return providers.get(primitive);
+  }
+
+  JcePGPDataEncryptorBuilder dataEncryptorBuilder(int algorithm) {
+    return new JcePGPDataEncryptorBuilder(algorithm).setProvider(providers.get(Primitive.SYMMETRIC));
+  }
+
+  /**
+   * @return The provider of the public key operations of an algorithm: only RSA is calibrated, the JDK 8
+   * providers have no X25519 so ECC keys always use Bouncy Castle.
+   */
+  private String publicKeyProvider(int algorithm) {
+    switch (algorithm) {
+      case PublicKeyAlgorithmTags.RSA_GENERAL:
+      case PublicKeyAlgorithmTags.RSA_ENCRYPT:
+        return providers.get(Primitive.RSA);
+      default:
+        return BC;
+    }
+  }
+
+  JcePublicKeyKeyEncryptionMethodGenerator keyEncryptionMethod(PGPPublicKey key) {
+    JcePublicKeyKeyEncryptionMethodGenerator result = new JcePublicKeyKeyEncryptionMethodGenerator(key);
+    String provider = publicKeyProvider(key.getAlgorithm());
+    return JCA_DEFAULT.equals(provider) ? result : result.setProvider(provider);
+  }
+
+  PublicKeyDataDecryptorFactory dataDecryptor(PGPPrivateKey key) {
+    JcePublicKeyDataDecryptorFactoryBuilder result = new JcePublicKeyDataDecryptorFactoryBuilder();
+    String provider = publicKeyProvider(key.getPublicKeyPacket().getAlgorithm());
+    if (!JCA_DEFAULT.equals(provider))
+      result.setProvider(provider);
+    // after setProvider, which sets the content provider too
+    return result.setContentProvider(providers.get(Primitive.SYMMETRIC)).build(key);
+  }
+
+  PGPDigestCalculatorProvider digestCalculators() throws PGPException {
+    return new JcaPGPDigestCalculatorProviderBuilder().setProvider(providers.get(Primitive.DIGEST)).build();
+  }
+
+  PBESecretKeyDecryptor secretKeyDecryptor(char[] passphrase) throws PGPException {
+    return new JcePBESecretKeyDecryptorBuilder(digestCalculators())
+        .setProvider(providers.get(Primitive.SYMMETRIC)).build(passphrase);
+  }
+
+  JcePBESecretKeyEncryptorBuilder secretKeyEncryptorBuilder(int algorithm, PGPDigestCalculator checksum) {
+    return new JcePBESecretKeyEncryptorBuilder(algorithm, checksum).setProvider(providers.get(Primitive.SYMMETRIC));
+  }
+
+  Cipher symmetricCipher(String transformation) throws GeneralSecurityException {
+    return Cipher.getInstance(transformation, providers.get(Primitive.SYMMETRIC));
+  }
+
+  KeyPairGenerator rsaKeyPairGenerator() throws GeneralSecurityException {
+    String rsa = providers.get(Primitive.RSA);
+    return JCA_DEFAULT.equals(rsa) ? KeyPairGenerator.getInstance("RSA") : KeyPairGenerator.getInstance("RSA", rsa);
+  }
+
+  /**
+   * Only RSA may really use the JCA default, as keys and ciphers come from different providers. For other
+   * primitives it stands for the provider the JCA would pick.
+   */
+  private static String resolve(Primitive primitive, String name) {
+    try {
+      if (JCA_DEFAULT.equalsIgnoreCase(name)) {
+        switch (primitive) {
+          case SYMMETRIC:
+            return Cipher.getInstance(SYMMETRIC_TRANSFORMATION).getProvider().getName();
+          case DIGEST:
+            return MessageDigest.getInstance(primitive.algorithm).getProvider().getName();
+          default:
+            return JCA_DEFAULT;
+        }
+      }
+    } catch (GeneralSecurityException ex) {
+      throw new RuntimeException("No default provider for " + primitive.key(), ex);
+    }
+    if (Security.getProvider(name) == null)
+      throw new RuntimeException("Unknown crypto provider " + name + " for " + primitive.key() +
+          ", installed providers are " + installed());
+    return name;
+  }
+
+  private static List<String> installed() {
+    List<String> result = new ArrayList<>();
+    for (Provider provider : Security.getProviders())
+      result.add(provider.getName());
+    return result;
+  }
+
+  /**
+   * @return A description of the platform: a calibration is valid as long as it does not change.
+   */
+  private static String fingerprint() {
+    StringBuilder result = new StringBuilder()
+        .append(System.getProperty("java.vm.vendor")).append(' ')
+        .append(System.getProperty("java.vm.version")).append(' ')
+        .append(System.getProperty("os.arch"));
+    for (Provider provider : Security.getProviders())
+      result.append(' ').append(provider.getName()).append('/').append(provider.getVersion());
+    return result.toString();
+  }
+
+  private static Map<Primitive, String> calibrated(Path calibrationFile) {
+    String fingerprint = fingerprint();
+    if (Files.exists(calibrationFile)) {
+      Map<Primitive, String> result = readCalibration(calibrationFile, fingerprint);
+      if (result != null)
+        return result;
+      log.info("Platform changed since the last calibration of crypto providers");
+    }
+    Map<Primitive, String> result = new EnumMap<>(Primitive.class);
+    try {
+      Calibration calibration = new Calibration();
+      for (Primitive primitive : Primitive.values())
+        result.put(primitive, calibration.fastest(primitive));
+    } catch (GeneralSecurityException | PGPException ex) {
+      log.warning("Calibration of crypto providers failed, using " + BC + ": " + ex.getMessage());
+      return bouncyCastle().providers;
+    }
+    Properties properties = new Properties();
+    properties.setProperty(FINGERPRINT, fingerprint);
+    for (Map.Entry<Primitive, String> entry : result.entrySet())
+      properties.setProperty(entry.getKey().key(), entry.getValue());
+    try (OutputStream out = Files.newOutputStream(calibrationFile)) {
+      properties.store(out, "Crypto provider calibration, delete this file to calibrate again");
+    } catch (IOException ex) {
+      log.warning("Unable to save " + calibrationFile + ": " + ex.getMessage());
+    }
+    return result;
+  }
+
+  /**
+   * @return The calibrated providers, or null if the file is stale.
+   */
+  private static Map<Primitive, String> readCalibration(Path calibrationFile, String fingerprint) {
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(calibrationFile)) {
+      properties.load(in);
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + calibrationFile, ex);
+    }
+    if (!fingerprint.equals(properties.getProperty(FINGERPRINT)))
+      return null;
+    Map<Primitive, String> result = new EnumMap<>(Primitive.class);
+    for (Primitive primitive : Primitive.values()) {
+      String name = properties.getProperty(primitive.key());
+      if (name == null || !JCA_DEFAULT.equals(name) && Security.getProvider(name) == null)
+        return null;
+      result.put(primitive, name);
+    }
+    return result;
+  }
+
+  private interface Operation {
+    void run() throws Exception;
+  }
+
+  /**
+   * Times providers on the PGP operations crypthru actually performs, with a throw-away RSA key.
+   */
+  private static class Calibration {
+    private final byte[] sample = new byte[SAMPLE_SIZE];
+    private final PGPPublicKey publicKey;
+    private final PGPPrivateKey privateKey;
+
+    private Calibration() throws GeneralSecurityException, PGPException {
+      new SecureRandom().nextBytes(sample);
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+      generator.initialize(2048);
+      JcaPGPKeyPair keyPair = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(), new Date());
+      publicKey = keyPair.getPublicKey();
+      privateKey = keyPair.getPrivateKey();
+    }
+
+    private String fastest(Primitive primitive) {
+      String best = BC;
+      long bestTime = Long.MAX_VALUE;
+      for (String candidate : candidates(primitive)) {
+        try {
+          if (!interoperates(primitive, candidate)) {
+            log.config(candidate + " does not interoperate with " + BC + " for " + primitive.key());
+            continue;
+          }
+          long time = time(operation(primitive, candidate));
+          log.config(String.format("%s takes %.3f ms for %s", candidate, time / 1e6, primitive.key()));
+          if (time < bestTime) {
+            best = candidate;
+            bestTime = time;
+          }
+        } catch (Exception ex) {
+          log.config(candidate + " cannot perform " + primitive.key() + ": " + ex);
+        }
+      }
+      return best;
+    }
+
+    /**
+     * @return Bouncy Castle, the installed providers offering the primitive and, for RSA, the JCA default.
+     */
+    private static Set<String> candidates(Primitive primitive) {
+      Set<String> result = new LinkedHashSet<>();
+      result.add(BC);
+      for (Provider provider : Security.getProviders()) {
+        if (provider.getService(primitive.serviceType, primitive.algorithm) != null)
+          result.add(provider.getName());
+      }
+      if (primitive == Primitive.RSA)
+        result.add(JCA_DEFAULT);
+      return result;
+    }
+
+    private boolean interoperates(Primitive primitive, String candidate) throws Exception {
+      if (primitive == Primitive.DIGEST)
+        return Arrays.equals(digest(BC), digest(candidate));
+      CryptoProviders tested = with(primitive, candidate);
+      CryptoProviders reference = bouncyCastle();
+      return Arrays.equals(sample, decrypt(encrypt(sample, tested), reference)) &&
+          Arrays.equals(sample, decrypt(encrypt(sample, reference), tested));
+    }
+
+    private Operation operation(Primitive primitive, String candidate) {
+      CryptoProviders tested = with(primitive, candidate);
+      switch (primitive) {
+        case SYMMETRIC:
+          return () -> decrypt(encrypt(sample, tested), tested);
+        case RSA:
+          byte[] small = Arrays.copyOf(sample, 16);
+          return () -> decrypt(encrypt(small, tested), tested);
+        default:
+          return () -> digest(candidate);
+      }
+    }
+
+    private static long time(Operation operation) throws Exception {
+      for (int i = 0; i < WARM_UP_ROUNDS; i++)
+        operation.run();
+      long result = Long.MAX_VALUE;
+      for (int i = 0; i < ROUNDS; i++) {
+        long start = System.nanoTime();
+        operation.run();
+        result = Math.min(result, System.nanoTime() - start);
+      }
+      return result;
+    }
+
+    private static CryptoProviders with(Primitive primitive, String candidate) {
+      CryptoProviders result = bouncyCastle();
+      result.providers.put(primitive, candidate);
+      return result;
+    }
+
+    private byte[] digest(String candidate) throws PGPException, IOException {
+      PGPDigestCalculator calculator = with(Primitive.DIGEST, candidate).digestCalculators()
+          .get(HashAlgorithmTags.SHA1);
+      try (OutputStream out = calculator.getOutputStream()) {
+        out.write(sample);
+      }
+      return calculator.getDigest();
+    }
+
+    private byte[] encrypt(byte[] data, CryptoProviders providers) throws PGPException, IOException {
+      PGPEncryptedDataGenerator generator = new PGPEncryptedDataGenerator(
+          providers.dataEncryptorBuilder(SymmetricKeyAlgorithmTags.AES_256).setWithIntegrityPacket(true)
+              .setSecureRandom(new SecureRandom()));
+      generator.addMethod(providers.keyEncryptionMethod(publicKey));
+      ByteArrayOutputStream result = new ByteArrayOutputStream(data.length + 1024);
+      try (OutputStream out = generator.open(result, data.length)) {
+        out.write(data);
+      }
+      return result.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] data, CryptoProviders providers) throws PGPException, IOException {
+      PGPEncryptedDataList list = (PGPEncryptedDataList) new JcaPGPObjectFactory(data).nextObject();
+      PGPPublicKeyEncryptedData encrypted = (PGPPublicKeyEncryptedData) list.get(0);
+      byte[] result = Streams.readAll(encrypted.getDataStream(providers.dataDecryptor(privateKey)));
+      if (!encrypted.verify())
+        throw new PGPException("Integrity check failed");
+      return result;
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+package net.cbsolution.crypthru.crypt;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A private key kept unlocked for decrypting many files. Close the session to forget the unlocked keys.
+ * <p>
+ * Closing also clears the copy of the passphrase the session unlocks keys with. The passphrase is only partly
+ * cleared: the private key keeps it as a String, as do the arguments it was read from, for the life of the
+ * process.
+ */
+public interface DecryptionSession extends AutoCloseable {
+
+  /**
+   * Decrypt a file, either OpenPGP or in the seekable format.
+   * @param encryptedFile The file to decrypt.
+   * @param plainTextFile The resulting file.
+   */
+  void decrypt(Path encryptedFile, Path plainTextFile);
+
+  /**
+   * Decrypt a stream, see {@link CrypterService#decrypt(InputStream, OutputStream, PrivateKeyProxy)}.
+   */
+  LiteralMetadata decrypt(InputStream encrypted, OutputStream plainText);
+
+  /**
+   * Decrypt a channel, see {@link CrypterService#decrypt(ReadableByteChannel, WritableByteChannel, PrivateKeyProxy)}.
+   */
+  LiteralMetadata decrypt(ReadableByteChannel encrypted, WritableByteChannel plainText);
+
+  /**
+   * Decrypt a byte range of a seekable file, see
+   * {@link CrypterService#decryptRange(Path, long, long, OutputStream, PrivateKeyProxy)}.
+   */
+  long decryptRange(Path encryptedFile, long offset, long length, OutputStream plainText);
+
+  /**
+   * Extract members of an archive, see
+   * {@link CrypterService#extractArchive(Path, Predicate, Path, boolean, PrivateKeyProxy)}.
+   */
+  List<Path> extractArchive(Path archiveFile, Predicate<String> members, Path directory, boolean force);
+
+  /**
+   * Decrypt and extract a zip, see {@link CrypterService#extractZip(Path, Path, int, PrivateKeyProxy)}.
+   */
+  List<Path> extractZip(Path encryptedFile, Path directory, int parallelism);
+
+  /**
+   * Forget the unlocked keys and clear the copy of the passphrase of the session.
+   */
+  @Override
+  void close();
+
+}
@@ -0,0 +1,16 @@
+package net.cbsolution.crypthru.crypt;
+
+/**
+ * Creates many key pairs, possibly from concurrent threads. Close the factory to stop its background work.
+ */
+public interface KeyPairFactory extends AutoCloseable {
+
+  /**
+   * Generate a private-public key pair, see {@link CrypterService#createKeyPair(String, String, KeyType)}.
+   */
+  KeyPairProxy createKeyPair(String identity, String passphrase, KeyType keyType);
+
+  @Override
+  void close();
+
+}
@@ -0,0 +1,29 @@
+package net.cbsolution.crypthru.crypt;
+
+import java.util.Locale;
+
+/**
+ * The kinds of key pairs that can be created. Both can be mixed among the recipients of a file.
+ */
+public enum KeyType {
+  /**
+   * RSA-2048 primary key and encryption subkey.
+   */
+  RSA,
+  /**
+   * Ed25519 primary key with an X25519 encryption subkey: much faster to generate and to decrypt with.
+   */
+  ECC;
+
+  /**
+   * @param name rsa or ecc, in any case.
+   * @return The key type.
+   */
+  public static KeyType of(String name) {
+    try {
+      return valueOf(name.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException ex) {
+      throw new RuntimeException("Unknown key type " + name + ", valid values are rsa, ecc");
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package net.cbsolution.crypthru.crypt;
+
+import lombok.Getter;
+
+import java.util.Date;
+
+/**
+ * The information traveling with encrypted data about the original file.
+ */
+@Getter
+public class LiteralMetadata {
+  private final String fileName;
+  private final Date modificationTime;
+
+  /**
+   * @param fileName         The name of the original file (empty if none).
+   * @param modificationTime The modification time of the original file.
+   */
+  public LiteralMetadata(String fileName, Date modificationTime) {
+    this.fileName = fileName;
+    this.modificationTime = modificationTime;
+  }
+
+  @Override
+  public String toString() {
+    return fileName + " (" + modificationTime + ")";
+  }
+
+}
@@ -6,34 +6,97 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.MessageFormat;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 
+/**
+ * Collects throughput figures. Jobs can be measured concurrently: elapsed time only counts
+ * the periods in which at least one job was running, so overlapping jobs are not counted twice.
+ */
 @Log
 public class Performance {
 
   private final String caption;
   private long bytes;
-  private long millis;
+  private long nanos;
+  private int running;
+  private long runningSince;
+  private final Map<String, Integer> tallies = new TreeMap<>();
 
   public Performance(String caption) {
     this.caption = caption;
   }
 
-  public void record(Date start, Date end, Path file) {
-    millis += end.getTime() - start.getTime();
+  /**
+   * Execute and measure a job.
+   * @param file The file whose size is accounted when the job completes.
+   * @param job The job to be measured.
+   */
+  public void measure(Path file, Runnable job) {
+    measure(() -> {
+      job.run();
+      return Collections.singletonList(file);
+    });
+  }
+
+  /**
+   * Execute and measure a job producing several files, as extracting an archive.
+   * @param job The job to be measured, returning the files whose sizes are accounted.
+   */
+  public void measure(Supplier<Collection<Path>> job) {
+    start();
+    Collection<Path> files = null;
+    try {
+      files = job.get();
+    } finally {
+      stop(files);
+    }
+  }
+
+  /**
+   * Count an occurrence, reported with the figures (for example the compression chosen for a file).
+   * @param label What occurred.
+   */
+  public synchronized void tally(String label) {
+    tallies.merge(label, 1, Integer::sum);
+  }
+
+  private synchronized void start() {
+    if (running++ == 0)
+      runningSince = System.nanoTime();
+  }
+
+  private void stop(Collection<Path> files) {
+    long size = 0;
+    Path file = null;
     try {
-      this.bytes += Files.size(file);
+      if (files != null)
+        for (Path each : files)
+          size += Files.size(file = each);
     } catch (IOException e) {
       throw new RuntimeException("Can't measure size of " + file, e);
+    } finally {
+      synchronized (this) {
+        bytes += size;
+        if (--running == 0)
+          nanos += System.nanoTime() - runningSince;
+      }
     }
   }
 
-  public String getFigures() {
+  public synchronized String getFigures() {
     if (bytes == 0)
       return null;
-    double rate = (double) bytes / millis / 1000;
-    return MessageFormat.format("{0} - {1} bytes in {2} seconds = {3} KB/sec.",
-        caption, bytes, millis/1000, rate);
+    double seconds = nanos / 1e9;
+    double rate = bytes / 1024.0 / seconds;
+    String result = MessageFormat.format("{0} - {1} bytes in {2,number,0.###} seconds = {3,number,0.#} KB/sec.",
+        caption, bytes, seconds, rate);
+    if (!tallies.isEmpty())
+      result += " Files by " + tallies;
+    return result;
   }
 
   public void logFigures() {
@@ -6,4 +6,9 @@ package net.cbsolution.crypthru.crypt;
 public interface PublicKeyProxy extends KeyProxy {
   String getPartyId();
 
+  /**
+   * @return The key in binary form, readable by {@link CrypterService#readPublicKey(byte[])}.
+   */
+  byte[] getEncoded();
+
 }
@@ -0,0 +1,200 @@
+package net.cbsolution.crypthru.crypt;
+
+import lombok.extern.java.Log;
+import net.cbsolution.crypthru.util.ChannelIO;
+import net.cbsolution.crypthru.util.PathKit;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Archives are the plain text of a seekable container: the data of the members one after the other, then
+ * the table of contents and its length. The table of contents is read with two range reads from the end,
+ * each member with one more, so extracting a member only decrypts the segments holding it.
+ */
+@Log
+class SeekableArchive {
+
+  private static final int TOC_VERSION = 1;
+
+  private SeekableArchive() {
+  }
+
+  private static class Entry {
+    private final String name;
+    private final long offset, size, modificationTime;
+
+    private Entry(String name, long offset, long size, long modificationTime) {
+      this.name = name;
+      this.offset = offset;
+      this.size = size;
+      this.modificationTime = modificationTime;
+    }
+  }
+
+  /**
+   * @param files         The members.
+   * @param baseDirectory The directory member names are relative to.
+   * @return The plain text of the archive.
+   */
+  static ReadableByteChannel open(List<Path> files, Path baseDirectory) {
+    return new MembersChannel(files, baseDirectory);
+  }
+
+  /**
+   * Serves the members one after the other, recording the bytes actually read, then the table of contents.
+   */
+  private static class MembersChannel implements ReadableByteChannel {
+    private final Iterator<Path> files;
+    private final Path baseDirectory;
+    private final List<Entry> entries = new ArrayList<>();
+    private Path file;
+    private FileChannel channel;
+    private long offset, size;
+    private ByteBuffer contents;
+    private boolean open = true;
+
+    private MembersChannel(List<Path> files, Path baseDirectory) {
+      this.files = files.iterator();
+      this.baseDirectory = baseDirectory;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+      while (contents == null) {
+        if (channel == null) {
+          if (!files.hasNext()) {
+            contents = writeContents(entries);
+            break;
+          }
+          file = files.next();
+          channel = FileChannel.open(file, StandardOpenOption.READ);
+          size = 0;
+        }
+        int length = channel.read(buffer);
+        if (length >= 0) {
+          size += length;
+          return length;
+        }
+        entries.add(new Entry(memberName(baseDirectory, file), offset, size,
+            Files.getLastModifiedTime(file).toMillis()));
+        offset += size;
+        channel.close();
+        channel = null;
+      }
+      if (!contents.hasRemaining())
+        return -1;
+      int length = Math.min(buffer.remaining(), contents.remaining());
+      ByteBuffer slice = contents.duplicate();
+      slice.limit(slice.position() + length);
+      buffer.put(slice);
+      contents.position(contents.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+      open = false;
+      if (channel != null)
+        channel.close();
+    }
+  }
+
+  private static String memberName(Path baseDirectory, Path file) {
+    return baseDirectory.relativize(file).toString().replace(File.separatorChar, '/');
+  }
+
+  private static ByteBuffer writeContents(List<Entry> entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(TOC_VERSION);
+    out.writeInt(entries.size());
+    for (Entry entry : entries) {
+      out.writeUTF(entry.name);
+      out.writeLong(entry.offset);
+      out.writeLong(entry.size);
+      out.writeLong(entry.modificationTime);
+    }
+    out.writeLong(bytes.size() + 8L);
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  private static List<Entry> readContents(SeekableContainer container) throws IOException, GeneralSecurityException {
+    ByteArrayOutputStream tail = new ByteArrayOutputStream(8);
+    if (container.decrypt(-8, 8, tail) != 8)
+      throw new IOException("Not an archive");
+    long length = ByteBuffer.wrap(tail.toByteArray()).getLong();
+    if (length < 16 || length > container.getPlainTextSize())
+      throw new IOException("Damaged table of contents");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) length);
+    container.decrypt(-length, length - 8, bytes);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    if (in.readInt() != TOC_VERSION)
+      throw new IOException("Unsupported archive version");
+    int count = in.readInt();
+    List<Entry> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++)
+      result.add(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+    return result;
+  }
+
+  /**
+   * Extract members, each written to a staging file renamed once all its segments have been verified.
+   * Members not older than the corresponding file are skipped unless forced.
+   * @param container An archive.
+   * @param members   Selects members by name.
+   * @param directory The directory receiving the members.
+   * @param force     Overwrite up to date files too.
+   * @param blockSize Size of the blocks written to files.
+   * @return The extracted files.
+   */
+  static List<Path> extract(SeekableContainer container, Predicate<String> members, Path directory, boolean force,
+                            int blockSize) throws IOException, GeneralSecurityException {
+    List<Path> result = new ArrayList<>();
+    List<Entry> entries = readContents(container);
+    log.fine("Archive contains " + entries.size() + " members");
+    for (Entry entry : entries) {
+      if (!members.test(entry.name))
+        continue;
+      Path file = PathKit.resolveInside(directory, entry.name);
+      if (!force && Files.exists(file) && Files.getLastModifiedTime(file).toMillis() >= entry.modificationTime) {
+        log.fine("Skipping up to date " + file);
+        continue;
+      }
+      Files.createDirectories(PathKit.getParentPath(file));
+      Path stagingFile = Files.createTempFile(PathKit.getParentPath(file), "." + file.getFileName(), ".part");
+      try {
+        try (OutputStream out = ChannelIO.newOutputStream(stagingFile,
+            ChannelIO.blockSize(entry.size, blockSize))) {
+          if (container.decrypt(entry.offset, entry.size, out) != entry.size)
+            throw new IOException("Member " + entry.name + " exceeds the archive");
+        }
+        Files.setLastModifiedTime(stagingFile, FileTime.fromMillis(entry.modificationTime));
+        BcPgpService.moveReplacing(stagingFile, file);
+        stagingFile = null;
+      } finally {
+        if (stagingFile != null)
+          BcPgpService.discard(stagingFile);
+      }
+      result.add(file);
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,273 @@
+package net.cbsolution.crypthru.crypt;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * The seekable format: plain text cut in fixed-size segments, each encrypted and authenticated on its own
+ * with AES-256-GCM, so that a byte range is decrypted by reading only the segments covering it.
+ * <pre>
+ *   header:   magic "CTSEEK01", segment size (int), key message length (int), key message
+ *   segments: ciphertext + 16 bytes tag, one per segment (an empty file has one empty segment)
+ *   index:    sealed plain text size (long), segment count (int), offset of each segment (long)
+ *   trailer:  index offset (long), magic "CTINDEX1"
+ * </pre>
+ * The key message is an OpenPGP message to the recipients carrying the random data key. Nonces are the
+ * segment number plus a flag telling the last segment and the index apart, so segments cannot be dropped,
+ * reordered or appended without failing authentication. The whole header is the additional authenticated
+ * data of every segment and of the index, so a changed segment size or key message fails authentication too.
+ */
+class SeekableContainer implements Closeable {
+
+  static final int KEY_SIZE = 32;
+  private static final byte[] MAGIC = "CTSEEK01".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] INDEX_MAGIC = "CTINDEX1".getBytes(StandardCharsets.US_ASCII);
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final int TAG_SIZE = 16;
+  private static final int NONCE_SIZE = 12;
+  private static final int TRAILER_SIZE = 8 + INDEX_MAGIC.length;
+  private static final byte SEGMENT = 0, LAST_SEGMENT = 1, INDEX = 2;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final Cipher cipher;
+  private final SecretKeySpec key;
+  private final byte[] header;
+  private final int segmentSize;
+  private final long plainTextSize;
+  private final long indexOffset;
+  private final long[] offsets;
+  private int cachedSegment = -1;
+  private byte[] cachedClearText;
+
+  /**
+   * @param file       A file in the seekable format.
+   * @param unwrapKey  Decrypts the key message to the data key.
+   * @param providers  The providers of the cipher.
+   */
+  SeekableContainer(Path file, Function<byte[], byte[]> unwrapKey, CryptoProviders providers)
+      throws IOException, GeneralSecurityException {
+    this.file = file;
+    channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      ByteBuffer start = read(0, MAGIC.length + 8);
+      if (!hasMagic(start))
+        throw new IOException(file + " is not in the seekable format");
+      segmentSize = start.getInt();
+      int keyMessageLength = start.getInt();
+      if (segmentSize <= 0 || keyMessageLength < 0)
+        throw new IOException("Damaged header in " + file);
+      header = read(0, start.capacity() + keyMessageLength).array();
+      byte[] keyMessage = Arrays.copyOfRange(header, start.capacity(), header.length);
+      key = new SecretKeySpec(unwrapKey.apply(keyMessage), "AES");
+      cipher = providers.symmetricCipher(TRANSFORMATION);
+
+      ByteBuffer trailer = read(channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+      indexOffset = trailer.getLong();
+      byte[] magic = new byte[INDEX_MAGIC.length];
+      trailer.get(magic);
+      if (!Arrays.equals(INDEX_MAGIC, magic) || indexOffset < header.length ||
+          indexOffset > channel.size() - TRAILER_SIZE - TAG_SIZE)
+        throw new IOException("Missing or damaged index in " + file);
+      ByteBuffer index = ByteBuffer.wrap(open(INDEX, 0, read(indexOffset, (int) (channel.size() - TRAILER_SIZE -
+          indexOffset)).array()));
+      plainTextSize = index.getLong();
+      offsets = new long[index.getInt()];
+      for (int i = 0; i < offsets.length; i++)
+        offsets[i] = index.getLong();
+    } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return true if the file starts like a file in the seekable format.
+   */
+  static boolean isSeekable(Path file) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+      while (header.hasRemaining() && channel.read(header) > 0) ;
+      header.flip();
+      return hasMagic(header);
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + file, ex);
+    }
+  }
+
+  private static boolean hasMagic(ByteBuffer header) {
+    if (header.remaining() < MAGIC.length)
+      return false;
+    byte[] magic = new byte[MAGIC.length];
+    header.get(magic);
+    return Arrays.equals(MAGIC, magic);
+  }
+
+  long getPlainTextSize() {
+    return plainTextSize;
+  }
+
+  /**
+   * Decrypt a byte range.
+   * @param offset    The first byte, negative to count from the end.
+   * @param length    The maximum number of bytes.
+   * @param plainText The receiving stream.
+   * @return The number of bytes written.
+   */
+  long decrypt(long offset, long length, OutputStream plainText) throws IOException, GeneralSecurityException {
+    long start = offset < 0 ? Math.max(0, plainTextSize + offset) : Math.min(offset, plainTextSize);
+    long end = Math.min(plainTextSize, start + Math.max(0, Math.min(length, Long.MAX_VALUE - start)));
+    long position = start;
+    while (position < end) {
+      int segment = (int) (position / segmentSize);
+      long segmentEnd = segment + 1 < offsets.length ? offsets[segment + 1] : indexOffset;
+      // the last segment is kept, as consecutive small ranges often share it
+      if (segment != cachedSegment) {
+        cachedClearText = open(segment + 1 == offsets.length ? LAST_SEGMENT : SEGMENT, segment,
+            read(offsets[segment], (int) (segmentEnd - offsets[segment])).array());
+        cachedSegment = segment;
+      }
+      byte[] clear = cachedClearText;
+      int from = (int) (position - (long) segment * segmentSize);
+      int to = (int) Math.min(clear.length, end - (long) segment * segmentSize);
+      if (from >= to)
+        throw new IOException("Segment " + segment + " of " + file + " is shorter than expected");
+      plainText.write(clear, from, to - from);
+      position += to - from;
+    }
+    return end - start;
+  }
+
+  private byte[] open(byte kind, long number, byte[] sealed) throws GeneralSecurityException {
+    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce(kind, number)));
+    cipher.updateAAD(header);
+    return cipher.doFinal(sealed);
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    if (length < 0 || position < 0 || position + length > channel.size())
+      throw new IOException("Damaged file " + file);
+    ByteBuffer result = ByteBuffer.allocate(length);
+    while (result.hasRemaining()) {
+      if (channel.read(result, position + result.position()) < 0)
+        throw new EOFException("Unexpected end of " + file);
+    }
+    result.flip();
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static byte[] nonce(byte kind, long number) {
+    return ByteBuffer.allocate(NONCE_SIZE).put(kind).putLong(NONCE_SIZE - 8, number).array();
+  }
+
+  /**
+   * Write a file in the seekable format.
+   * @param plainTextFile The file to encrypt.
+   * @param encryptedFile The resulting file.
+   * @param dataKey       The random data key.
+   * @param keyMessage    The data key encrypted to the recipients.
+   * @param segmentSize   Size of plain text segments.
+   * @param providers     The providers of the cipher.
+   */
+  static void write(Path plainTextFile, Path encryptedFile, byte[] dataKey, byte[] keyMessage, int segmentSize,
+                    CryptoProviders providers) throws IOException, GeneralSecurityException {
+    try (FileChannel in = FileChannel.open(plainTextFile, StandardOpenOption.READ)) {
+      write(in, encryptedFile, dataKey, keyMessage, segmentSize, providers);
+    }
+  }
+
+  /**
+   * Write a file in the seekable format.
+   * @param plainText The data to encrypt, read up to its end.
+   * @see #write(Path, Path, byte[], byte[], int, CryptoProviders)
+   */
+  static void write(ReadableByteChannel plainText, Path encryptedFile, byte[] dataKey, byte[] keyMessage,
+                    int segmentSize, CryptoProviders providers) throws IOException, GeneralSecurityException {
+    Cipher cipher = providers.symmetricCipher(TRANSFORMATION);
+    SecretKeySpec key = new SecretKeySpec(dataKey, "AES");
+    try (FileChannel out = FileChannel.open(encryptedFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+             StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 8 + keyMessage.length);
+      header.put(MAGIC).putInt(segmentSize).putInt(keyMessage.length).put(keyMessage).flip();
+      byte[] aad = header.array();
+      writeFully(out, header);
+
+      // one segment is read ahead to know whether the current one is the last
+      long[] offsets = new long[16];
+      int count = 0;
+      long plainTextSize = 0;
+      ByteBuffer current = readSegment(plainText, ByteBuffer.allocate(segmentSize));
+      ByteBuffer next = ByteBuffer.allocate(segmentSize);
+      ByteBuffer sealed = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+      while (true) {
+        readSegment(plainText, next);
+        boolean last = next.remaining() == 0;
+        if (count == offsets.length)
+          offsets = Arrays.copyOf(offsets, count * 2);
+        offsets[count] = out.position();
+        plainTextSize += current.remaining();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8,
+            nonce(last ? LAST_SEGMENT : SEGMENT, count)));
+        cipher.updateAAD(aad);
+        sealed.clear();
+        cipher.doFinal(current, sealed);
+        sealed.flip();
+        writeFully(out, sealed);
+        count++;
+        if (last)
+          break;
+        ByteBuffer swap = current;
+        current = next;
+        next = swap;
+      }
+
+      long indexOffset = out.position();
+      ByteBuffer index = ByteBuffer.allocate(12 + 8 * count);
+      index.putLong(plainTextSize).putInt(count);
+      for (int i = 0; i < count; i++)
+        index.putLong(offsets[i]);
+      index.flip();
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce(INDEX, 0)));
+      cipher.updateAAD(aad);
+      ByteBuffer sealedIndex = ByteBuffer.allocate(index.remaining() + TAG_SIZE);
+      cipher.doFinal(index, sealedIndex);
+      sealedIndex.flip();
+      writeFully(out, sealedIndex);
+      ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).putLong(indexOffset).put(INDEX_MAGIC);
+      trailer.flip();
+      writeFully(out, trailer);
+    }
+  }
+
+  private static ByteBuffer readSegment(ReadableByteChannel in, ByteBuffer segment) throws IOException {
+    segment.clear();
+    while (segment.hasRemaining() && in.read(segment) >= 0) ;
+    segment.flip();
+    return segment;
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining())
+      out.write(buffer);
+  }
+
+}
@@ -0,0 +1,31 @@
+package net.cbsolution.crypthru.crypt;
+
+import net.cbsolution.crypthru.util.PathKit;
+
+import java.nio.file.Path;
+
+/**
+ * Files in the seekable format are named by suffixing the plain text file name with ".spgp".
+ */
+public class SeekableNamingConvention implements NamingConvention {
+  final static String SUFFIX = ".spgp";
+
+  @Override
+  public boolean isEncrypted(Path plainTextFileName) {
+    return plainTextFileName.toString().endsWith(SUFFIX);
+  }
+
+  @Override
+  public Path encryptedName(Path plainTextFileName) {
+    return PathKit.getParentPath(plainTextFileName).resolve(plainTextFileName.getFileName() + SUFFIX);
+  }
+
+  @Override
+  public Path decryptedName(Path encryptedFileName) {
+    if (!isEncrypted(encryptedFileName))
+      return null;
+    String name = encryptedFileName.getFileName().toString();
+    return PathKit.getParentPath(encryptedFileName).resolve(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+}
@@ -0,0 +1,431 @@
+package net.cbsolution.crypthru.crypt;
+
+import lombok.extern.java.Log;
+import net.cbsolution.crypthru.util.ChannelIO;
+import net.cbsolution.crypthru.util.PathKit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Zip files written as a stream, so that a bundle is encrypted while it is built, without a temporary file.
+ * ZipOutputStream deflates entries by itself, one after the other, so the container is written here: entries
+ * are either deflated inline, their CRC and sizes following the data in a data descriptor, or deflated ahead
+ * in memory by a pool of workers and stitched in order. Zip64 records are written when sizes, offsets or the
+ * number of entries exceed the classic format, as ZipOutputStream does.
+ */
+@Log
+class ZipBundle {
+
+  // entries up to this size are deflated ahead by the workers, larger ones inline
+  static final int PARALLEL_ENTRY_SIZE = 4 * 1024 * 1024;
+  // entries larger than this are extracted by the writers
+  static final int PARALLEL_WRITE_SIZE = 1024 * 1024;
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int DATA_DESCRIPTOR = 0x08074b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int ZIP64_END = 0x06064b50;
+  private static final int ZIP64_LOCATOR = 0x07064b50;
+  private static final int END = 0x06054b50;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int DEFLATED = 8;
+  // names are UTF-8
+  private static final int UTF8_FLAG = 0x800;
+  private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+  private static final int BUFFER_SIZE = 65536;
+  private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() ->
+      new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+  private final OutputStream out;
+  private final List<Entry> entries = new ArrayList<>();
+  private final ByteBuffer header = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+  private final byte[] input = new byte[BUFFER_SIZE], output = new byte[BUFFER_SIZE];
+  private long position;
+
+  private static class Entry {
+    private final byte[] name;
+    private final int flags, dosTime;
+    private long crc, size, compressedSize, offset;
+    // the deflated data, when deflated ahead
+    private ByteArrayOutputStream data;
+
+    private Entry(String name, long modificationTime, int flags) {
+      this.name = name.getBytes(StandardCharsets.UTF_8);
+      this.dosTime = dosTime(modificationTime);
+      this.flags = flags;
+    }
+  }
+
+  private ZipBundle(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Write files as a zip.
+   * @param files         The entries.
+   * @param baseDirectory The directory entry names are relative to.
+   * @param out           The receiving stream, not closed.
+   * @param parallelism   The number of workers deflating entries ahead, 1 (or less) to deflate them inline.
+   */
+  static void write(List<Path> files, Path baseDirectory, OutputStream out, int parallelism) throws IOException {
+    ZipBundle bundle = new ZipBundle(out);
+    if (parallelism <= 1) {
+      for (Path file : files)
+        bundle.writeInline(file, entryName(baseDirectory, file));
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+        Thread result = new Thread(r, "crypthru-zip");
+        result.setDaemon(true);
+        return result;
+      });
+      try {
+        Deque<Pending> pending = new ArrayDeque<>();
+        for (Path file : files) {
+          String name = entryName(baseDirectory, file);
+          pending.add(new Pending(file, name,
+              Files.size(file) <= PARALLEL_ENTRY_SIZE ? executor.submit(() -> deflate(file, name)) : null));
+          // bounds the memory held by entries deflated ahead
+          if (pending.size() > 2 * parallelism)
+            bundle.write(pending.remove());
+        }
+        while (!pending.isEmpty())
+          bundle.write(pending.remove());
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    bundle.finish();
+  }
+
+  /**
+   * An entry waiting to be written.
+   */
+  private static class Pending {
+    private final Path file;
+    private final String name;
+    // null for an entry deflated inline
+    private final Future<Entry> deflated;
+
+    private Pending(Path file, String name, Future<Entry> deflated) {
+      this.file = file;
+      this.name = name;
+      this.deflated = deflated;
+    }
+  }
+
+  private void write(Pending next) throws IOException {
+    if (next.deflated == null) {
+      writeInline(next.file, next.name);
+      return;
+    }
+    try {
+      writeDeflated(next.deflated.get());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while zipping " + next.file, ex);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException)
+        throw (IOException) ex.getCause();
+      throw new IOException("Error zipping " + next.file, ex.getCause());
+    }
+  }
+
+  private static String entryName(Path baseDirectory, Path file) {
+    // subdirectories are kept, with the separator of zip files
+    return baseDirectory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+  }
+
+  private static Entry deflate(Path file, String name) throws IOException {
+    log.fine("Zipping " + file);
+    Entry entry = new Entry(name, Files.getLastModifiedTime(file).toMillis(), UTF8_FLAG);
+    entry.data = new ByteArrayOutputStream((int) Math.min(Files.size(file) / 2 + 64, PARALLEL_ENTRY_SIZE));
+    deflate(file, entry, entry.data, new byte[BUFFER_SIZE], new byte[BUFFER_SIZE]);
+    return entry;
+  }
+
+  /**
+   * Deflate a file, setting the CRC and sizes of the entry.
+   */
+  private static void deflate(Path file, Entry entry, OutputStream out, byte[] input, byte[] output)
+      throws IOException {
+    Deflater deflater = DEFLATERS.get();
+    deflater.reset();
+    CRC32 crc = new CRC32();
+    try (InputStream in = Files.newInputStream(file)) {
+      int length;
+      while ((length = in.read(input)) >= 0) {
+        crc.update(input, 0, length);
+        deflater.setInput(input, 0, length);
+        while (!deflater.needsInput())
+          out.write(output, 0, deflater.deflate(output));
+      }
+    }
+    deflater.finish();
+    while (!deflater.finished())
+      out.write(output, 0, deflater.deflate(output));
+    entry.crc = crc.getValue();
+    entry.size = deflater.getBytesRead();
+    entry.compressedSize = deflater.getBytesWritten();
+  }
+
+  private void writeDeflated(Entry entry) throws IOException {
+    entry.offset = position;
+    writeLocalHeader(entry);
+    entry.data.writeTo(out);
+    position += entry.compressedSize;
+    entry.data = null;
+    entries.add(entry);
+  }
+
+  private void writeInline(Path file, String name) throws IOException {
+    log.fine("Zipping " + file);
+    Entry entry = new Entry(name, Files.getLastModifiedTime(file).toMillis(), UTF8_FLAG | DATA_DESCRIPTOR_FLAG);
+    entry.offset = position;
+    writeLocalHeader(entry);
+    deflate(file, entry, out, input, output);
+    position += entry.compressedSize;
+    header.clear();
+    header.putInt(DATA_DESCRIPTOR).putInt((int) entry.crc);
+    if (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC)
+      header.putLong(entry.compressedSize).putLong(entry.size);
+    else
+      header.putInt((int) entry.compressedSize).putInt((int) entry.size);
+    writeHeader();
+    entries.add(entry);
+  }
+
+  private void writeLocalHeader(Entry entry) throws IOException {
+    // with a data descriptor the CRC and sizes are not known yet
+    boolean known = (entry.flags & DATA_DESCRIPTOR_FLAG) == 0;
+    header.clear();
+    header.putInt(LOCAL_HEADER).putShort((short) 20).putShort((short) entry.flags).putShort((short) DEFLATED)
+        .putInt(entry.dosTime).putInt(known ? (int) entry.crc : 0).putInt(known ? (int) entry.compressedSize : 0)
+        .putInt(known ? (int) entry.size : 0).putShort((short) entry.name.length).putShort((short) 0);
+    writeHeader();
+    out.write(entry.name);
+    position += entry.name.length;
+  }
+
+  /**
+   * Write the central directory and the end records.
+   */
+  private void finish() throws IOException {
+    long directoryOffset = position;
+    for (Entry entry : entries) {
+      boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC || entry.offset >= ZIP64_MAGIC;
+      header.clear();
+      header.putInt(CENTRAL_HEADER).putShort((short) (zip64 ? 45 : 20)).putShort((short) (zip64 ? 45 : 20))
+          .putShort((short) entry.flags).putShort((short) DEFLATED).putInt(entry.dosTime).putInt((int) entry.crc)
+          .putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC)).putInt((int) Math.min(entry.size, ZIP64_MAGIC))
+          .putShort((short) entry.name.length);
+      // only the fields not fitting the classic format are in the extra field, in this order
+      List<Long> extra = new ArrayList<>();
+      if (entry.size >= ZIP64_MAGIC)
+        extra.add(entry.size);
+      if (entry.compressedSize >= ZIP64_MAGIC)
+        extra.add(entry.compressedSize);
+      if (entry.offset >= ZIP64_MAGIC)
+        extra.add(entry.offset);
+      header.putShort((short) (extra.isEmpty() ? 0 : 4 + 8 * extra.size())).putShort((short) 0)
+          .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) Math.min(entry.offset, ZIP64_MAGIC));
+      writeHeader();
+      out.write(entry.name);
+      position += entry.name.length;
+      if (!extra.isEmpty()) {
+        header.clear();
+        header.putShort((short) 1).putShort((short) (8 * extra.size()));
+        for (long value : extra)
+          header.putLong(value);
+        writeHeader();
+      }
+    }
+    long directorySize = position - directoryOffset;
+    if (entries.size() >= 0xFFFF || directoryOffset >= ZIP64_MAGIC || directorySize >= ZIP64_MAGIC) {
+      long zip64EndOffset = position;
+      header.clear();
+      header.putInt(ZIP64_END).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+          .putLong(entries.size()).putLong(entries.size()).putLong(directorySize).putLong(directoryOffset);
+      header.putInt(ZIP64_LOCATOR).putInt(0).putLong(zip64EndOffset).putInt(1);
+      writeHeader();
+    }
+    header.clear();
+    header.putInt(END).putShort((short) 0).putShort((short) 0)
+        .putShort((short) Math.min(entries.size(), 0xFFFF)).putShort((short) Math.min(entries.size(), 0xFFFF))
+        .putInt((int) Math.min(directorySize, ZIP64_MAGIC)).putInt((int) Math.min(directoryOffset, ZIP64_MAGIC))
+        .putShort((short) 0);
+    writeHeader();
+  }
+
+  private void writeHeader() throws IOException {
+    out.write(header.array(), 0, header.position());
+    position += header.position();
+  }
+
+  /**
+   * Extract the entries of a zip into staging files, to be renamed by {@link #commit(Map)} once the data they
+   * come from has been verified. With parallelism > 1, entries larger than {@link #PARALLEL_WRITE_SIZE} are
+   * handed to a pool of writers, so that reading the zip does not wait for the disk.
+   * @param zip         The zip, read up to its central directory and not closed.
+   * @param directory   The directory receiving the entries, names escaping it are refused.
+   * @param parallelism The number of writers, 1 (or less) to write entries on the calling thread.
+   * @param blockSize   Size of the blocks written to files.
+   * @param staged      Receives the staging files by the files they become, also when an exception is thrown.
+   */
+  static void extract(InputStream zip, Path directory, int parallelism, int blockSize, Map<Path, Path> staged)
+      throws IOException {
+    ExecutorService writers = parallelism <= 1 ? null : Executors.newFixedThreadPool(parallelism, r -> {
+      Thread result = new Thread(r, "crypthru-unzip");
+      result.setDaemon(true);
+      return result;
+    });
+    try {
+      List<Future<Void>> writing = new ArrayList<>();
+      ZipInputStream in = new ZipInputStream(zip);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        Path file = PathKit.resolveInside(directory, entry.getName());
+        if (entry.isDirectory()) {
+          Files.createDirectories(file);
+          continue;
+        }
+        Files.createDirectories(PathKit.getParentPath(file));
+        Path stagingFile = Files.createTempFile(PathKit.getParentPath(file), "." + file.getFileName(), ".part");
+        Path previous = staged.put(file, stagingFile);
+        if (previous != null)
+          BcPgpService.discard(previous);
+        log.fine("Unzipping " + file);
+        int length = 0;
+        if (writers == null) {
+          try (OutputStream out = ChannelIO.newOutputStream(stagingFile, entry.getSize() < 0 ? blockSize :
+              ChannelIO.blockSize(entry.getSize(), blockSize))) {
+            while ((length = in.read(buffer)) >= 0)
+              out.write(buffer, 0, length);
+          }
+          setModificationTime(stagingFile, entry);
+          continue;
+        }
+        // small entries are written here, the others handed to a writer once known to be large
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (head.size() <= PARALLEL_WRITE_SIZE && (length = in.read(buffer)) >= 0)
+          head.write(buffer, 0, length);
+        if (length < 0) {
+          try (OutputStream out = ChannelIO.newOutputStream(stagingFile, ChannelIO.blockSize(head.size(), blockSize))) {
+            head.writeTo(out);
+          }
+          setModificationTime(stagingFile, entry);
+          continue;
+        }
+        EntryWriter writer = new EntryWriter(stagingFile, entry, blockSize);
+        writing.add(writers.submit(writer));
+        writer.add(head.toByteArray());
+        while ((length = in.read(buffer)) >= 0)
+          writer.add(Arrays.copyOf(buffer, length));
+        writer.add(EntryWriter.END);
+      }
+      for (Future<Void> written : writing)
+        written.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while unzipping");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException)
+        throw (IOException) ex.getCause();
+      throw new IOException("Error unzipping", ex.getCause());
+    } finally {
+      if (writers != null)
+        writers.shutdownNow();
+    }
+  }
+
+  /**
+   * Rename the staging files into the files they become.
+   * @param staged The staging files by the files they become, removed as they are renamed.
+   * @return The extracted files.
+   */
+  static List<Path> commit(Map<Path, Path> staged) throws IOException {
+    List<Path> result = new ArrayList<>(staged.size());
+    for (Iterator<Map.Entry<Path, Path>> i = staged.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<Path, Path> next = i.next();
+      BcPgpService.moveReplacing(next.getValue(), next.getKey());
+      i.remove();
+      result.add(next.getKey());
+    }
+    return result;
+  }
+
+  private static void setModificationTime(Path file, ZipEntry entry) throws IOException {
+    if (entry.getTime() != -1)
+      Files.setLastModifiedTime(file, FileTime.fromMillis(entry.getTime()));
+  }
+
+  /**
+   * Writes a large entry from the chunks read for it.
+   */
+  private static class EntryWriter implements Callable<Void> {
+    private static final byte[] END = new byte[0];
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(16);
+    private final Path file;
+    private final ZipEntry entry;
+    private final int blockSize;
+
+    private EntryWriter(Path file, ZipEntry entry, int blockSize) {
+      this.file = file;
+      this.entry = entry;
+      this.blockSize = blockSize;
+    }
+
+    private void add(byte[] chunk) throws InterruptedException {
+      chunks.put(chunk);
+    }
+
+    @Override
+    public Void call() throws IOException, InterruptedException {
+      boolean ended = false;
+      try {
+        try (OutputStream out = ChannelIO.newOutputStream(file, blockSize)) {
+          byte[] chunk;
+          while (!(ended = (chunk = chunks.take()) == END))
+            out.write(chunk);
+        }
+        setModificationTime(file, entry);
+        return null;
+      } catch (IOException ex) {
+        // the reader must not wait for room: the error is reported when it is done
+        while (!ended)
+          ended = chunks.take() == END;
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * @return The time in the MS-DOS format of zip files, in the local time zone.
+   */
+  private static int dosTime(long millis) {
+    LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    if (time.getYear() < 1980)
+      return (1 << 21) | (1 << 16);
+    return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 |
+        time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+  }
+
+}
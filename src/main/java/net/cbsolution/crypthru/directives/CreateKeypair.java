@@ -6,6 +6,7 @@ import net.cbsolution.crypthru.Arguments;
 import net.cbsolution.crypthru.ConfigurationDecoder;
 import net.cbsolution.crypthru.Directive;
 import net.cbsolution.crypthru.crypt.KeyPairProxy;
+import net.cbsolution.crypthru.crypt.KeyType;
 import net.cbsolution.crypthru.util.Dialog;
 
 import java.nio.file.Path;
@@ -13,17 +14,20 @@ import java.util.Optional;
 
 @Log
 public class CreateKeypair implements Directive {
-  private static final int MIN_PASSPHRASE_LEN = 8;
-  private static final int MIN_ID_LEN = 3;
+  static final int MIN_PASSPHRASE_LEN = 8;
+  static final int MIN_ID_LEN = 3;
+  static final String ID_PATTERN = "^[.A-Za-z0-9@_-]+$";
 
   private String privateId;
   private String passphrase;
+  private KeyType keyType;
   private Dialog dialog;
 
   @Override
   public void configure(ConfigurationDecoder config) {
     privateId = config.readString("private-id", null);
     passphrase = config.readString("pass", null);
+    keyType = KeyType.of(config.readString("key-type", "rsa"));
   }
 
   private Dialog getDialog() {
@@ -52,7 +56,7 @@ public class CreateKeypair implements Directive {
         dialog.error("Your ID shall have at least {0} characters. Please try again.",
             MIN_ID_LEN);
         ok = false;
-      } else if (!myId.get().matches("^[.A-Za-z0-9@_-]+$")) {
+      } else if (!myId.get().matches(ID_PATTERN)) {
         dialog.error("Your ID contains invalid characters.", MIN_ID_LEN);
       }
       if (ok)
@@ -76,7 +80,7 @@ public class CreateKeypair implements Directive {
         dialog.error("Your confirmation mismatches. Let's try again...");
       }
     }
-    KeyPairProxy keyPair = args.getCryptService().createKeyPair(privateId, passphrase);
+    KeyPairProxy keyPair = args.getCryptService().createKeyPair(privateId, passphrase, keyType);
     Path[] privateAndPublic = args.getFsKeystore().save(privateId, keyPair);
     if (dialog != null) {
       dialog.say("Your public key {3} has been generated into file {0}{1}{2}.\n" +
@@ -91,7 +95,7 @@ public class CreateKeypair implements Directive {
           Dialog.ANSI_YELLOW, privateAndPublic[0], Dialog.ANSI_GREEN, privateId, Dialog.ANSI_RED,
           Dialog.ANSI_RESET);
     }
-    log.info("New Key pair generated for " + privateId);
+    log.info("New " + keyType + " key pair generated for " + privateId);
   }
 
 }
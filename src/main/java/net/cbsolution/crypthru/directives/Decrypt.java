@@ -4,34 +4,55 @@ import lombok.extern.java.Log;
 import net.cbsolution.crypthru.Arguments;
 import net.cbsolution.crypthru.ConfigurationDecoder;
 import net.cbsolution.crypthru.Directive;
+import net.cbsolution.crypthru.crypt.ArchiveNamingConvention;
+import net.cbsolution.crypthru.crypt.BcPgpService;
 import net.cbsolution.crypthru.crypt.DefaultNamingConvention;
 import net.cbsolution.crypthru.crypt.GPGWrapper;
 import net.cbsolution.crypthru.crypt.NamingConvention;
-import net.cbsolution.crypthru.util.DirectoryWatcher;
+import net.cbsolution.crypthru.crypt.SeekableNamingConvention;
+import net.cbsolution.crypthru.util.ChannelIO;
 import net.cbsolution.crypthru.util.FileGrabber;
+import net.cbsolution.crypthru.util.ParallelJobs;
 import net.cbsolution.crypthru.util.PathKit;
+import net.cbsolution.crypthru.util.ProcessingManifest;
+import net.cbsolution.crypthru.util.WatchPipeline;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.text.MessageFormat;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 @Log
 public class Decrypt implements Directive {
-  private NamingConvention namingConvention = new DefaultNamingConvention();
+  private static final Pattern RANGE_PATTERN = Pattern.compile("^(\\d*)-(\\d*)$");
+  private static final String RANGE_SUFFIX = ".range";
+  private final NamingConvention seekableNamingConvention = new SeekableNamingConvention();
+  private final NamingConvention archiveNamingConvention = new ArchiveNamingConvention();
+  private final List<NamingConvention> namingConventions = Arrays.asList(new DefaultNamingConvention(),
+      seekableNamingConvention, archiveNamingConvention);
   private FileGrabber fileGrabber;
   private boolean wipe;
   private boolean unzip;
   private boolean runGpg;
+  private int parallelism;
+  private String range;
+  private long rangeOffset, rangeLength;
+  private String member;
+  private boolean useManifest;
+  private ProcessingManifest manifest;
 
   @Override
   public void configure(ConfigurationDecoder config) {
@@ -40,6 +61,50 @@ public class Decrypt implements Directive {
     unzip = config.read("unzip", false);
     config.captureFilters(fileGrabber);
     runGpg = config.read("gpg", false);
+    parallelism = config.read("parallelism", 0);
+    range = config.readString("range", "");
+    if (!range.isEmpty())
+      parseRange();
+    member = config.readString("member", "");
+    if (wipe && !member.isEmpty())
+      throw new RuntimeException("Archives cannot be wiped when extracting some members only");
+    useManifest = config.read("manifest", false);
+    if (useManifest && !range.isEmpty())
+      throw new RuntimeException("A manifest cannot be kept when decrypting ranges");
+  }
+
+  /**
+   * Ranges are written like HTTP byte ranges: first-last, first- (up to the end) or -count (the last bytes).
+   */
+  private void parseRange() {
+    Matcher m = RANGE_PATTERN.matcher(range);
+    if (!m.matches() || m.group(1).isEmpty() && m.group(2).isEmpty())
+      throw new RuntimeException("Invalid range " + range + ", expected first-last, first- or -count");
+    if (m.group(1).isEmpty()) {
+      rangeOffset = -Long.parseLong(m.group(2));
+      rangeLength = Long.MAX_VALUE;
+    } else {
+      rangeOffset = Long.parseLong(m.group(1));
+      rangeLength = m.group(2).isEmpty() ? Long.MAX_VALUE : Long.parseLong(m.group(2)) - rangeOffset + 1;
+      if (rangeLength <= 0)
+        throw new RuntimeException("Invalid range " + range + ", last byte precedes first byte");
+    }
+  }
+
+  /**
+   * @return The file receiving the decrypted data, or null if the file is not encrypted.
+   */
+  private Path decryptedName(Path encryptedFile) {
+    if (!range.isEmpty()) {
+      Path decrypted = seekableNamingConvention.decryptedName(encryptedFile);
+      return decrypted == null ? null : decrypted.resolveSibling(decrypted.getFileName() + RANGE_SUFFIX);
+    }
+    for (NamingConvention convention : namingConventions) {
+      Path decrypted = convention.decryptedName(encryptedFile);
+      if (decrypted != null)
+        return decrypted;
+    }
+    return null;
   }
 
   @Override
@@ -47,25 +112,48 @@ public class Decrypt implements Directive {
     return MessageFormat.format("Decrypt {0}", fileGrabber.print());
   }
 
-  private boolean needsDecrypting(Path p, boolean force) {
-    if (!namingConvention.isEncrypted(p))
+  private boolean needsDecrypting(Path p, Arguments args) {
+    Path decrypted = decryptedName(p);
+    if (decrypted == null)
       return false;
-    if (force)
+    if (args.isForce() || archiveNamingConvention.isEncrypted(p))
       return true;
-    Path decrypted = namingConvention.decryptedName(p);
-    return PathKit.isOutdated(p, decrypted);
+    // a zip extracted while decrypted is never written: the manifest records its directory
+    Path output = extractsWhileDecrypting(p, decrypted, args) ? PathKit.getParentPath(decrypted) : decrypted;
+    Boolean upToDate = manifest == null ? null : manifest.isUpToDate(p, output);
+    return upToDate == null ? PathKit.isOutdated(p, decrypted) : !upToDate;
   }
 
   @Override
   public void execute(Arguments args) {
-    List<Path> files = fileGrabber.grab(p -> needsDecrypting(p, args.isForce()));
-    decrypt(files, args);
-    wipeIfApplicable(files, args);
+    if ((!range.isEmpty() || !member.isEmpty()) && (runGpg || args.isRunGpg()))
+      throw new RuntimeException("Ranges and archive members can only be decrypted by crypthru, not by gpg");
+    if (useManifest && fileGrabber.getDirectory() != null)
+      manifest = new ProcessingManifest(fileGrabber.getDirectory());
+    try {
+      process(args);
+    } finally {
+      if (manifest != null)
+        manifest.close();
+      manifest = null;
+    }
+  }
+
+  private void process(Arguments args) {
+    // each batch is decrypted before more of the tree is listed
+    fileGrabber.grab(p -> needsDecrypting(p, args), batch -> {
+      decrypt(batch, args);
+      wipeIfApplicable(batch, args);
+    });
     if (args.isWatch()) {
       log.info("Watching directory " + fileGrabber.getDirectory() + " to decrypt new files. Drop a file named \"STOP\" to terminate.");
-      DirectoryWatcher watcher = new DirectoryWatcher(fileGrabber.getDirectory());
-      watcher.stopOn("STOP").filter(p -> needsDecrypting(p, args.isForce()))
-          .react((e, p) -> {
+      new WatchPipeline(fileGrabber.getDirectory(), parallelism > 0 ? parallelism : args.getParallelism(),
+          args.getWatchQueue(), args.getWatchStableMillis())
+          .recursive(fileGrabber.isRecursive()).backend(args.getWatchBackend(), args.getWatchPollMillis())
+          .stopOn("STOP")
+          .filter(p -> fileGrabber.matches(p) && needsDecrypting(p, args))
+          .rescan(() -> fileGrabber.grab(p -> needsDecrypting(p, args)))
+          .run(p -> {
             decrypt(p, args);
             wipeIfApplicable(Arrays.asList(new Path[]{p}), args);
           });
@@ -80,27 +168,37 @@ public class Decrypt implements Directive {
   }
 
   void decrypt(List<Path> files, Arguments args) {
-    for (Path encryptedFile : files) {
-      decrypt(encryptedFile, args);
-    }
+    new ParallelJobs(parallelism > 0 ? parallelism : args.getParallelism()).run(files, file -> decrypt(file, args));
   }
 
   void decrypt(Path encryptedFile, Arguments args) {
-    Path decryptedFile = namingConvention.decryptedName(encryptedFile);
+    if (archiveNamingConvention.isEncrypted(encryptedFile)) {
+      extract(encryptedFile, args);
+      return;
+    }
+    Path decryptedFile = decryptedName(encryptedFile);
+    if (extractsWhileDecrypting(encryptedFile, decryptedFile, args)) {
+      decryptAndUnzip(encryptedFile, decryptedFile, args);
+      return;
+    }
     String action = args.isPreviewMode() ? "Would decrypt " : "Decrypting ";
-    log.info(action + encryptedFile + " into " + namingConvention.decryptedName(encryptedFile));
+    log.info(action + (range.isEmpty() ? "" : "range " + range + " of ") + encryptedFile + " into " + decryptedFile);
     if (!args.isPreviewMode()) {
-      Date start = new Date();
-      if (runGpg || args.isRunGpg())
-        GPGWrapper.runDecrypt(encryptedFile, decryptedFile, args.getPrivateKeyId(),
-            args.getOrAskPassphrase(args.getPrivateKeyId()));
-      else {
-        args.getCryptService().decrypt(encryptedFile, decryptedFile, args.figurePrivateKey());
-      }
-      Date end = new Date();
-      args.getDecryptPerformance().record(start, end, decryptedFile);
+      if (manifest != null)
+        manifest.started(encryptedFile, decryptedFile);
+      args.getDecryptPerformance().measure(decryptedFile, () -> {
+        if (runGpg || args.isRunGpg())
+          GPGWrapper.runDecrypt(encryptedFile, decryptedFile, args.getPrivateKeyId(),
+              args.getOrAskPassphrase(args.getPrivateKeyId()));
+        else if (range.isEmpty())
+          args.figureDecryptionSession().decrypt(encryptedFile, decryptedFile);
+        else
+          decryptRange(encryptedFile, decryptedFile, args);
+      });
+      if (manifest != null)
+        manifest.completed(encryptedFile, decryptedFile);
     }
-    if (decryptedFile.getFileName().toString().endsWith(".zip") && unzip) {
+    if (isZip(decryptedFile) && unzip) {
       action = args.isPreviewMode() ? "Would unzip " : "Unzipping ";
       log.info(action + decryptedFile);
       if (!(args.isPreviewMode()))
@@ -108,9 +206,73 @@ public class Decrypt implements Directive {
     }
   }
 
+  private static boolean isZip(Path decryptedFile) {
+    return decryptedFile.getFileName().toString().endsWith(".zip");
+  }
+
+  private boolean extractsWhileDecrypting(Path encryptedFile, Path decryptedFile, Arguments args) {
+    return isZip(decryptedFile) && unzip && !(runGpg || args.isRunGpg()) &&
+        !seekableNamingConvention.isEncrypted(encryptedFile);
+  }
+
+  /**
+   * The decrypted zip is extracted as it is decrypted, it is never written.
+   */
+  private void decryptAndUnzip(Path encryptedFile, Path zipFile, Arguments args) {
+    Path directory = PathKit.getParentPath(zipFile);
+    String action = args.isPreviewMode() ? "Would decrypt and unzip " : "Decrypting and unzipping ";
+    log.info(action + encryptedFile + " into " + directory);
+    if (args.isPreviewMode())
+      return;
+    if (manifest != null)
+      manifest.started(encryptedFile, directory);
+    // the files extracted are accounted, as the decrypted file is when not unzipping
+    args.getDecryptPerformance().measure(() -> {
+      List<Path> extracted = args.figureDecryptionSession().extractZip(encryptedFile, directory,
+          parallelism > 0 ? parallelism : args.getParallelism());
+      log.info("Extracted " + extracted.size() + " files from " + encryptedFile);
+      return extracted;
+    });
+    if (manifest != null)
+      manifest.completed(encryptedFile, directory);
+  }
+
+  /**
+   * Members are extracted beside the archive, up to date ones are skipped unless forced.
+   */
+  private void extract(Path archiveFile, Arguments args) {
+    String action = args.isPreviewMode() ? "Would extract " : "Extracting ";
+    log.info(action + (member.isEmpty() ? "members" : "members matching " + member) + " of " + archiveFile);
+    if (!args.isPreviewMode()) {
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (member.isEmpty() ? "**" : member));
+      long start = System.nanoTime();
+      List<Path> extracted = args.figureDecryptionSession().extractArchive(archiveFile,
+          name -> matcher.matches(Paths.get(name)), PathKit.getParentPath(archiveFile), args.isForce());
+      log.info(MessageFormat.format("Extracted {0} members of {1} in {2,number,0.###} ms", extracted.size(),
+          archiveFile, (System.nanoTime() - start) / 1e6));
+    }
+  }
 
+  private void decryptRange(Path encryptedFile, Path rangeFile, Arguments args) {
+    try (OutputStream out = ChannelIO.newOutputStream(rangeFile, BcPgpService.BUFFER_SIZE)) {
+      long length = args.figureDecryptionSession().decryptRange(encryptedFile, rangeOffset, rangeLength, out);
+      log.info("Decrypted " + length + " bytes of " + encryptedFile);
+    } catch (IOException | RuntimeException ex) {
+      try {
+        Files.deleteIfExists(rangeFile);
+      } catch (IOException ignored) {
+        // the original error is more relevant
+      }
+      throw ex instanceof RuntimeException ? (RuntimeException) ex :
+          new RuntimeException("Error writing " + rangeFile, ex);
+    }
+  }
+
+  /**
+   * Extract a zip decrypted into a file (by gpg or from the seekable format), then delete it.
+   */
   void doUnzip(Path zipFile) {
-    byte[] buffer = new byte[1024];
+    byte[] buffer = new byte[BcPgpService.BUFFER_SIZE];
     try (ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile.toString()))) {
       ZipEntry zipEntry = zis.getNextEntry();
       while (zipEntry != null) {
@@ -147,13 +309,7 @@ public class Decrypt implements Directive {
   }
 
   public static Path newFile(Path destinationDir, ZipEntry zipEntry) throws IOException {
-    Path destFile = destinationDir.resolve(zipEntry.getName());
-    String destDirPath = destinationDir.toFile().getCanonicalPath();
-    String destFilePath = destFile.toFile().getCanonicalPath();
-    if (!destFilePath.startsWith(destDirPath + FileSystems.getDefault().getSeparator())) {
-      throw new IOException("Entry is outside of the target dir: " + zipEntry.getName());
-    }
-    return destFile;
+    return PathKit.resolveInside(destinationDir, zipEntry.getName());
   }
 
 }
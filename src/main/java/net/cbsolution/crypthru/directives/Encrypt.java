@@ -6,16 +6,23 @@ import net.cbsolution.crypthru.ConfigurationDecoder;
 import net.cbsolution.crypthru.Directive;
 import net.cbsolution.crypthru.FSKeystore;
 import net.cbsolution.crypthru.crypt.*;
-import net.cbsolution.crypthru.util.DirectoryWatcher;
+import net.cbsolution.crypthru.util.ChannelIO;
+import net.cbsolution.crypthru.util.ContentHashIndex;
 import net.cbsolution.crypthru.util.FileGrabber;
+import net.cbsolution.crypthru.util.ParallelJobs;
 import net.cbsolution.crypthru.util.PathKit;
+import net.cbsolution.crypthru.util.ProcessingManifest;
+import net.cbsolution.crypthru.util.WatchPipeline;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.zip.ZipEntry;
@@ -25,20 +32,44 @@ import java.util.zip.ZipOutputStream;
 public class Encrypt implements Directive {
   private boolean wipe;
   private String zip;
+  private String archive;
+  private static final List<NamingConvention> ENCRYPTED_NAMES = Arrays.asList(new DefaultNamingConvention(),
+      new SeekableNamingConvention(), new ArchiveNamingConvention());
   private NamingConvention namingConvention = new DefaultNamingConvention();
   private PublicKeyCollector collector = new PublicKeyCollector();
   private FileGrabber fileGrabber;
   private boolean runGpg;
+  private int parallelism;
+  private CompressionPolicy compressionPolicy;
+  private boolean seekable;
+  private boolean keysCollected;
+  private boolean useManifest;
+  private ProcessingManifest manifest;
+  private boolean dedup;
+  private ContentHashIndex hashIndex;
 
   @Override
   public void configure(ConfigurationDecoder config) {
     wipe = config.read("wipe", false);
     zip = config.readString("zip", "");
+    archive = config.readString("archive", "");
     fileGrabber = new FileGrabber(config.readString("path"));
     config.captureFilters(fileGrabber);
     collector.addKeyIds(Arrays.asList(config.readStrings("public-id")));
     collector.addKeyFiles(Arrays.asList(config.readStrings("public-key")));
     runGpg = config.read("gpg", false);
+    parallelism = config.read("parallelism", 0);
+    compressionPolicy = CompressionPolicy.of(config.readString("compression", CompressionPolicy.AUTO),
+        config.read("compression-level", 0));
+    seekable = config.read("seekable", false);
+    useManifest = config.read("manifest", false);
+    if (useManifest && !(zip.isEmpty() && archive.isEmpty()))
+      throw new RuntimeException("A manifest cannot be kept when files are zipped or archived");
+    dedup = config.read("dedup", false);
+    if (dedup && !(zip.isEmpty() && archive.isEmpty()))
+      throw new RuntimeException("Files cannot be deduplicated when zipped or archived");
+    if (seekable)
+      namingConvention = new SeekableNamingConvention();
   }
 
   @Override
@@ -46,44 +77,119 @@ public class Encrypt implements Directive {
     return MessageFormat.format("Encrypt {0}", fileGrabber.print());
   }
 
-  private boolean needsEncrypting(Path p, boolean force) {
-    if (namingConvention.isEncrypted(p))
+  private static boolean isEncrypted(Path p) {
+    for (NamingConvention convention : ENCRYPTED_NAMES) {
+      if (convention.isEncrypted(p))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true for the files keeping the state of the directory.
+   */
+  private static boolean isStateFile(Path p) {
+    return ProcessingManifest.isManifest(p) || ContentHashIndex.isIndex(p);
+  }
+
+  private boolean needsEncrypting(Path p, boolean force, boolean previewMode) {
+    if (isEncrypted(p) || isStateFile(p))
       return false;
+    if (hashIndex != null)
+      hashIndex.seen(p);
     if (force)
       return true;
     Path encrypted = namingConvention.encryptedName(p);
-    return PathKit.isOutdated(p, encrypted);
+    Boolean upToDate = manifest == null ? null : manifest.isUpToDate(p, encrypted);
+    if (upToDate == null ? !PathKit.isOutdated(p, encrypted) : upToDate)
+      return false;
+    if (hashIndex != null && Files.exists(encrypted) && hashIndex.isUnchanged(p, collector.fingerprint)) {
+      // rewritten with the same content: the encrypted file is made up to date instead
+      log.info((previewMode ? "Would keep " : "Keeping ") + encrypted + ", the content of " + p + " did not change");
+      if (!previewMode)
+        PathKit.touch(encrypted);
+      return false;
+    }
+    return true;
   }
 
   @Override
   public void execute(Arguments args) {
-    List<Path> files = fileGrabber.grab(p -> needsEncrypting(p, args.isForce()) || !zip.isEmpty());
-    if (!files.isEmpty()) {
-      collector.addKeyIds(args.getPublicKeys());
-      collector.addKeyFiles(args.getPublicKeyFiles());
-      collector.collect(args.getFsKeystore(), args.getCryptService(), runGpg || args.isRunGpg());
-      if (!zip.isEmpty()) {
-        Path zipFile = buildZip(files, zip, args.isPreviewMode());
-        List<Path> lZip = Arrays.asList(new Path[]{zipFile});
-        encrypt(lZip, args);
-        wipe(lZip, args.isPreviewMode(), text -> {
-          log.info(text);
-        });
-      } else
-        encrypt(files, args);
-      wipeIfApplicable(files, args);
+    if ((seekable || !archive.isEmpty()) && (runGpg || args.isRunGpg()))
+      throw new RuntimeException("The seekable format cannot be written by gpg");
+    if (useManifest && fileGrabber.getDirectory() != null)
+      manifest = new ProcessingManifest(fileGrabber.getDirectory());
+    if (dedup && fileGrabber.getDirectory() != null) {
+      // the recipients are part of the comparison
+      collectKeys(args);
+      hashIndex = new ContentHashIndex(fileGrabber.getDirectory());
+    }
+    try {
+      process(args);
+    } finally {
+      if (manifest != null)
+        manifest.close();
+      manifest = null;
+      if (hashIndex != null)
+        hashIndex.close();
+      hashIndex = null;
+    }
+  }
+
+  private void process(Arguments args) {
+    if (zip.isEmpty() && archive.isEmpty()) {
+      // each batch is encrypted before more of the tree is listed
+      fileGrabber.grab(p -> needsEncrypting(p, args.isForce(), args.isPreviewMode()), batch -> {
+        collectKeys(args);
+        encrypt(batch, args);
+        wipeIfApplicable(batch, args);
+      });
+    } else {
+      List<Path> files = fileGrabber.grab(p -> archive.isEmpty() ?
+          needsEncrypting(p, args.isForce(), args.isPreviewMode()) || !zip.isEmpty() && !isStateFile(p) :
+          !isEncrypted(p) && !isStateFile(p));
+      if (!files.isEmpty()) {
+        collectKeys(args);
+        if (!zip.isEmpty() && (seekable || runGpg || args.isRunGpg())) {
+          // gpg and the seekable format read a file
+          Path zipFile = buildZip(files, args.isPreviewMode());
+          List<Path> lZip = Arrays.asList(new Path[]{zipFile});
+          encrypt(lZip, args);
+          wipe(lZip, args.isPreviewMode(), text -> {
+            log.info(text);
+          });
+        } else if (!zip.isEmpty())
+          encryptZip(files, args);
+        else
+          encryptArchive(files, args);
+        wipeIfApplicable(files, args);
+      }
     }
     if (args.isWatch()) {
+      collectKeys(args);
       log.info("Watching directory " + fileGrabber.getDirectory() + " to encrypt new files. Drop a file named \"STOP\" to terminate.");
-      DirectoryWatcher watcher = new DirectoryWatcher(fileGrabber.getDirectory());
-      watcher.stopOn("STOP").filter(p -> needsEncrypting(p, args.isForce()))
-          .react((e, p) -> {
+      new WatchPipeline(fileGrabber.getDirectory(), parallelism > 0 ? parallelism : args.getParallelism(),
+          args.getWatchQueue(), args.getWatchStableMillis())
+          .recursive(fileGrabber.isRecursive()).backend(args.getWatchBackend(), args.getWatchPollMillis())
+          .stopOn("STOP")
+          .filter(p -> fileGrabber.matches(p) && needsEncrypting(p, args.isForce(), args.isPreviewMode()))
+          .rescan(() -> fileGrabber.grab(p -> needsEncrypting(p, args.isForce(), args.isPreviewMode())))
+          .run(p -> {
             encrypt(p, args);
             wipeIfApplicable(Arrays.asList(new Path[]{p}), args);
           });
     }
   }
 
+  private void collectKeys(Arguments args) {
+    if (keysCollected)
+      return;
+    collector.addKeyIds(args.getPublicKeys());
+    collector.addKeyFiles(args.getPublicKeyFiles());
+    collector.collect(args.getFsKeystore(), args.getCryptService(), runGpg || args.isRunGpg());
+    keysCollected = true;
+  }
+
   private void wipeIfApplicable(List<Path> files, Arguments args) {
     if (wipe)
       wipe(files, args.isPreviewMode(), text -> {
@@ -92,45 +198,97 @@ public class Encrypt implements Directive {
   }
 
   private void encrypt(List<Path> files, Arguments args) {
-    for (Path file : files) {
-      encrypt(file, args);
-    }
+    new ParallelJobs(parallelism > 0 ? parallelism : args.getParallelism()).run(files, file -> encrypt(file, args));
   }
 
   private void encrypt(Path file, Arguments args) {
     Path encryptedFile = namingConvention.encryptedName(file);
+    boolean gpg = runGpg || args.isRunGpg();
+    Compression compression = gpg || seekable ? null : compressionPolicy.choose(file);
     String action = args.isPreviewMode() ? "Would encrypt " : "Encrypting ";
     log.info(action + file + " into " + namingConvention.encryptedName(file) + " for " +
-        collector.ids);
+        collector.ids + (compression == null ? "" : " (compression: " + compression + ")"));
+    if (!args.isPreviewMode()) {
+      if (manifest != null)
+        manifest.started(file, encryptedFile);
+      // the manifest and the index share the hash of the content, computed while encrypting when possible
+      MessageDigest digest = manifest == null && hashIndex == null || gpg || seekable ? null : sha256();
+      args.getEncryptPerformance().measure(file, () -> {
+        if (gpg) {
+          GPGWrapper.runEncrypt(file, encryptedFile, collector.publicKeyIds);
+        } else if (seekable)
+          args.getCryptService().encryptSeekable(file, encryptedFile, collector.keys);
+        else
+          args.getCryptService().encrypt(file, encryptedFile, compression, digest, collector.keys);
+      });
+      byte[] hash = digest != null ? digest.digest() :
+          manifest != null || hashIndex != null ? PathKit.sha256(file) : null;
+      if (manifest != null)
+        manifest.completed(file, encryptedFile, hash);
+      if (hashIndex != null)
+        hashIndex.record(file, collector.fingerprint, hash);
+      if (compression != null)
+        args.getEncryptPerformance().tally(compression.toString());
+    }
+  }
+
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new RuntimeException("SHA-256 not available", ex);
+    }
+  }
+
+  private void encryptArchive(List<Path> files, Arguments args) {
+    Path archiveFile = new ArchiveNamingConvention().encryptedName(fileGrabber.getDirectory().resolve(archive));
+    String action = args.isPreviewMode() ? "Would archive " : "Archiving ";
+    log.info(action + files.size() + " files into " + archiveFile + " for " + collector.ids);
     if (!args.isPreviewMode()) {
-      Date start = new Date();
-      if (runGpg || args.isRunGpg()) {
-        GPGWrapper.runEncrypt(file, encryptedFile, collector.publicKeyIds);
-      } else
-        args.getCryptService().encrypt(file, encryptedFile, collector.keys);
-      Date end = new Date();
-      args.getEncryptPerformance().record(start, end, file);
+      args.getEncryptPerformance().measure(archiveFile, () -> args.getCryptService().encryptArchive(files,
+          fileGrabber.getDirectory(), archiveFile, collector.keys));
     }
   }
 
+  private Path zipPath() {
+    return fileGrabber.getDirectory().resolve(zip.endsWith(".zip") ? zip : zip + ".zip");
+  }
 
-  private Path buildZip(List<Path> files, String zip, boolean previewMode) {
-    if (!zip.endsWith(".zip"))
-      zip += ".zip";
-    Path zipPath = fileGrabber.getDirectory().resolve(zip);
+  private void encryptZip(List<Path> files, Arguments args) {
+    Path zipPath = zipPath();
+    Path encryptedFile = namingConvention.encryptedName(zipPath);
+    Compression compression = compressionPolicy.choose(zipPath);
+    if (args.isPreviewMode()) {
+      for (Path input : files)
+        log.info("Would zip " + input + " into " + zipPath);
+      log.info("Would encrypt " + zipPath + " into " + encryptedFile + " for " + collector.ids);
+      return;
+    }
+    log.info("Zipping " + files.size() + " files into " + encryptedFile + " for " + collector.ids +
+        " (compression: " + compression + ")");
+    args.getEncryptPerformance().measure(encryptedFile, () -> args.getCryptService().encryptZip(files,
+        fileGrabber.getDirectory(), zipPath.getFileName().toString(), encryptedFile, compression,
+        parallelism > 0 ? parallelism : args.getParallelism(), collector.keys));
+    args.getEncryptPerformance().tally(compression.toString());
+  }
+
+  private Path buildZip(List<Path> files, boolean previewMode) {
+    Path zipPath = zipPath();
     if (previewMode) {
       for (Path input : files) {
         log.info("Would zip " + input + " into " + zipPath);
       }
     } else {
-      try (FileOutputStream fos = new FileOutputStream(zipPath.toString())) {
-        ZipOutputStream zipOut = new ZipOutputStream(fos);
+      try (ZipOutputStream zipOut = new ZipOutputStream(ChannelIO.newOutputStream(zipPath, 65536))) {
+        byte[] bytes = new byte[65536];
         for (Path input : files) {
           log.info("Zipping " + input + " into " + zipPath);
-          try (InputStream fis = new FileInputStream(input.toString())) {
-            ZipEntry zipEntry = new ZipEntry(input.getFileName().toString());
+          try (InputStream fis = Files.newInputStream(input)) {
+            // subdirectories are kept, with the separator of zip files
+            ZipEntry zipEntry = new ZipEntry(fileGrabber.getDirectory().relativize(input).toString()
+                .replace(input.getFileSystem().getSeparator(), "/"));
             zipOut.putNextEntry(zipEntry);
-            byte[] bytes = new byte[1024];
             int length;
             while ((length = fis.read(bytes)) >= 0) {
               zipOut.write(bytes, 0, length);
@@ -139,7 +297,6 @@ public class Encrypt implements Directive {
             throw new RuntimeException("I/O error zipping " + input + " into " + zipPath, ex);
           }
         }
-        zipOut.close();
       } catch (IOException ex) {
         throw new RuntimeException("I/O Error zipping into " + zipPath, ex);
       }
@@ -152,6 +309,8 @@ public class Encrypt implements Directive {
     Set<String> publicKeyIds = new HashSet<>();
     String ids;
     PublicKeyProxy[] keys;
+    // identifies the set of recipients
+    long fingerprint;
 
     void addKeyFiles(List<String> keyFiles) {
       publicKeyFiles.addAll(keyFiles);
@@ -173,14 +332,30 @@ public class Encrypt implements Directive {
         throw new RuntimeException("You did not define any public key for encrypting.");
       ArrayList<PublicKeyProxy> keyList = new ArrayList();
       ArrayList<String> idList = new ArrayList();
-      for (Path p : collected) {
-        PublicKeyProxy publicKey = service.readPublicKey(p);
+      for (PublicKeyProxy publicKey : keyStore.readPublicKeys(collected, service)) {
         keyList.add(publicKey);
         idList.add(publicKey.getPartyId());
       }
       Collections.sort(idList);
       ids = String.join(", ", idList);
       keys = keyList.toArray(new PublicKeyProxy[keyList.size()]);
+      fingerprint = fingerprint(keyList, runningGpg);
+    }
+
+    private long fingerprint(List<PublicKeyProxy> keyList, boolean runningGpg) {
+      List<String> recipients = new ArrayList<>();
+      for (PublicKeyProxy key : keyList)
+        recipients.add(Base64.getEncoder().encodeToString(key.getEncoded()));
+      // gpg finds the keys by itself
+      if (runningGpg)
+        recipients.addAll(publicKeyIds);
+      Collections.sort(recipients);
+      try {
+        return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(
+            String.join("\n", recipients).getBytes(StandardCharsets.UTF_8))).getLong();
+      } catch (NoSuchAlgorithmException ex) {
+        throw new RuntimeException("Error identifying the recipients", ex);
+      }
     }
 
   }
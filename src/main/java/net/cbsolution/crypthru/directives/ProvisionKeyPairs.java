@@ -0,0 +1,213 @@
+package net.cbsolution.crypthru.directives;
+
+import lombok.extern.java.Log;
+import net.cbsolution.crypthru.Arguments;
+import net.cbsolution.crypthru.ConfigurationDecoder;
+import net.cbsolution.crypthru.Directive;
+import net.cbsolution.crypthru.FSKeystore;
+import net.cbsolution.crypthru.crypt.KeyPairFactory;
+import net.cbsolution.crypthru.crypt.KeyType;
+import net.cbsolution.crypthru.util.PathKit;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Create key pairs for many identities without any dialog, reading identities and passphrases from a
+ * CSV or YAML file.
+ */
+@Log
+public class ProvisionKeyPairs implements Directive {
+
+  private Path source;
+  private KeyType keyType;
+  private int parallelism;
+  private boolean replace;
+
+  private static class Identity {
+    private final String id, passphrase;
+    private final KeyType keyType;
+
+    private Identity(String id, String passphrase, KeyType keyType) {
+      this.id = id;
+      this.passphrase = passphrase;
+      this.keyType = keyType;
+    }
+  }
+
+  @Override
+  public void configure(ConfigurationDecoder config) {
+    source = PathKit.replaceHome(config.readString("source"));
+    keyType = KeyType.of(config.readString("key-type", "rsa"));
+    parallelism = config.read("parallelism", 0);
+    replace = config.read("replace", false);
+  }
+
+  @Override
+  public String print() {
+    return "Provision Key Pairs from " + source;
+  }
+
+  @Override
+  public void execute(Arguments args) {
+    List<Identity> identities = read();
+    FSKeystore keystore = args.getFsKeystore();
+    List<Identity> toCreate = new ArrayList<>();
+    int skipped = 0;
+    for (Identity identity : identities) {
+      if (!replace && Files.exists(keystore.getHomeFile("keys/private/" + identity.id + FSKeystore.KEY))) {
+        log.fine("Skipping " + identity.id + ": key pair already present");
+        skipped++;
+      } else
+        toCreate.add(identity);
+    }
+    if (args.isPreviewMode()) {
+      for (Identity identity : toCreate)
+        log.info("Would create " + identity.keyType + " key pair for " + identity.id);
+      return;
+    }
+
+    int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    Map<String, String> failures = new ConcurrentSkipListMap<>();
+    AtomicInteger rsaCount = new AtomicInteger(), eccCount = new AtomicInteger();
+    long start = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, toCreate.size())));
+    try (KeyPairFactory factory = args.getCryptService().openKeyPairFactory(threads)) {
+      List<Callable<Void>> jobs = new ArrayList<>();
+      for (Identity identity : toCreate)
+        jobs.add(() -> {
+          try {
+            keystore.save(identity.id, factory.createKeyPair(identity.id, identity.passphrase, identity.keyType));
+            (identity.keyType == KeyType.ECC ? eccCount : rsaCount).incrementAndGet();
+            log.fine("New " + identity.keyType + " key pair generated for " + identity.id);
+          } catch (RuntimeException ex) {
+            log.severe("Error provisioning " + identity.id + ": " + ex.getMessage());
+            failures.put(identity.id, String.valueOf(ex.getMessage()));
+          }
+          return null;
+        });
+      executor.invokeAll(jobs);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while provisioning key pairs", ex);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    log.info(String.format(Locale.ROOT, "Provisioned %d key pairs (%d RSA, %d ECC) in %.1f s on %d threads, " +
+            "%d skipped as already present, %d failed%s", rsaCount.get() + eccCount.get(), rsaCount.get(),
+        eccCount.get(), seconds, threads, skipped, failures.size(),
+        failures.isEmpty() ? "" : ": " + String.join(", ", failures.keySet())));
+    if (!failures.isEmpty())
+      throw new RuntimeException(failures.size() + " of " + toCreate.size() + " key pairs could not be provisioned");
+  }
+
+  /**
+   * @return The identities of the source, all of them checked before creating any key.
+   */
+  private List<Identity> read() {
+    String name = source.getFileName().toString().toLowerCase(Locale.ROOT);
+    List<Identity> result = name.endsWith(".yml") || name.endsWith(".yaml") ? readYaml() : readCsv();
+    Set<String> ids = new HashSet<>();
+    for (Identity identity : result) {
+      if (identity.id.length() < CreateKeypair.MIN_ID_LEN || !identity.id.matches(CreateKeypair.ID_PATTERN))
+        throw new RuntimeException("Invalid identity [" + identity.id + "] in " + source);
+      if (identity.passphrase.length() < CreateKeypair.MIN_PASSPHRASE_LEN)
+        throw new RuntimeException("The passphrase of " + identity.id + " shall have at least " +
+            CreateKeypair.MIN_PASSPHRASE_LEN + " characters, in " + source);
+      if (!ids.add(identity.id))
+        throw new RuntimeException("Duplicate identity " + identity.id + " in " + source);
+    }
+    return result;
+  }
+
+  private List<Identity> readYaml() {
+    Object obj;
+    try (InputStream in = Files.newInputStream(source)) {
+      obj = new Yaml().load(in);
+    } catch (Exception ex) {
+      throw new RuntimeException("I/O Error reading identities from " + source, ex);
+    }
+    if (!(obj instanceof List))
+      throw new RuntimeException("File " + source + " does not contain a sequence of identities");
+    List<Identity> result = new ArrayList<>();
+    for (Object element : (List) obj) {
+      if (!(element instanceof Map))
+        throw new RuntimeException("Not a map (" + element + ") in " + source);
+      Map map = (Map) element;
+      Object id = map.get("private-id"), passphrase = map.get("pass"), type = map.get("key-type");
+      if (id == null || passphrase == null)
+        throw new RuntimeException("Missing private-id or pass in " + element + ", file: " + source);
+      result.add(new Identity(id.toString(), passphrase.toString(),
+          type == null ? keyType : KeyType.of(type.toString())));
+    }
+    return result;
+  }
+
+  /**
+   * Lines are private-id, pass and optionally key-type. Fields containing commas or quotes are quoted with
+   * double quotes, doubled inside, and closed on the same line. Empty lines, lines starting with # and a
+   * private-id header are ignored.
+   */
+  private List<Identity> readCsv() {
+    List<Identity> result = new ArrayList<>();
+    try (BufferedReader in = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+      int lineNumber = 0;
+      for (String line; (line = in.readLine()) != null; ) {
+        lineNumber++;
+        if (line.trim().isEmpty() || line.startsWith("#"))
+          continue;
+        List<String> fields = splitCsv(line, lineNumber);
+        if (lineNumber == 1 && "private-id".equals(fields.get(0)))
+          continue;
+        if (fields.size() < 2 || fields.size() > 3)
+          throw new RuntimeException("Expected private-id, pass and optionally key-type at line " + lineNumber +
+              " of " + source);
+        result.add(new Identity(fields.get(0), fields.get(1),
+            fields.size() == 3 && !fields.get(2).isEmpty() ? KeyType.of(fields.get(2)) : keyType));
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException("I/O Error reading identities from " + source, ex);
+    }
+    return result;
+  }
+
+  private List<String> splitCsv(String line, int lineNumber) {
+    List<String> result = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false, wasQuoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"')
+          field.append(c);
+        else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+          field.append(line.charAt(++i));
+        else
+          quoted = false;
+      } else if (c == '"') {
+        field.setLength(0);
+        quoted = wasQuoted = true;
+      } else if (c == ',') {
+        result.add(wasQuoted ? field.toString() : field.toString().trim());
+        field.setLength(0);
+        wasQuoted = false;
+      } else if (!wasQuoted)
+        field.append(c);
+    }
+    if (quoted)
+      throw new RuntimeException("Unterminated quoted field at line " + lineNumber + " of " + source);
+    result.add(wasQuoted ? field.toString() : field.toString().trim());
+    return result;
+  }
+
+}
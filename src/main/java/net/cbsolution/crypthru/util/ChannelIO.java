@@ -0,0 +1,60 @@
+package net.cbsolution.crypthru.util;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File I/O through channels with large blocks.
+ *
+ * PGP streams read and write packet headers a few bytes at a time: on an unbuffered file stream each of them
+ * is a system call. Streams returned here gather them in blocks before touching the channel. Blocks are never
+ * larger than the file, so that small files, the most common, do not allocate a large block each.
+ * Files are not memory-mapped: a mapping can't be released explicitly and, on Windows, prevents deleting the
+ * file (for example wiping it after encryption) until it is garbage collected.
+ */
+public class ChannelIO {
+
+  /**
+   * The smallest block, enough for a small file and its PGP headers.
+   */
+  public static final int MIN_BLOCK_SIZE = 16 * 1024;
+
+  /**
+   * @param fileSize     The (expected) size of a file.
+   * @param maxBlockSize The block size of large files.
+   * @return The block size to read or write the file.
+   */
+  public static int blockSize(long fileSize, int maxBlockSize) {
+    return (int) Math.min(maxBlockSize, Math.max(MIN_BLOCK_SIZE, fileSize));
+  }
+
+  /**
+   * @param file      The file to read.
+   * @param blockSize Size of the reads from the file channel, reduced to the size of the file.
+   * @return A buffered stream reading the file.
+   */
+  public static InputStream newInputStream(Path file, int blockSize) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      return new BufferedInputStream(Channels.newInputStream(channel), blockSize(channel.size(), blockSize));
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * @param file      The file to write (created or truncated).
+   * @param blockSize Size of the writes to the file channel, see {@link #blockSize(long, int)} when the size of
+   *                  the file is known.
+   * @return A buffered stream writing the file.
+   */
+  public static OutputStream newOutputStream(Path file, int blockSize) throws IOException {
+    return new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)), blockSize);
+  }
+
+}
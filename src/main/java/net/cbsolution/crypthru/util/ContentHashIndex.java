@@ -0,0 +1,364 @@
+package net.cbsolution.crypthru.util;
+
+import lombok.extern.java.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The content hashes of the files of a directory and the recipients they were encrypted for, so that files
+ * rewritten with the same content are not encrypted again. A file is compared in two steps: the CRC-32 of a
+ * few samples of its content first, that tells most changed files apart reading little, then the SHA-256 of
+ * the whole content.
+ * <p>
+ * The index is a file of the directory with fixed size records sorted by path key, searched through its channel
+ * when first needed, so that hundreds of thousands of files take no heap. It is not memory-mapped: a mapping
+ * can't be released explicitly and, on Windows, prevents replacing the file when the index is rewritten:
+ * <pre>
+ *   magic "CTHIX001", number of records (int)
+ *   record: path key (long), size (long), samples CRC-32 (int), day last seen (int), recipients (long),
+ *           SHA-256 (32 bytes)
+ * </pre>
+ * The path key is a 64 bit FNV-1a hash of the path relative to the directory. Records of files not
+ * {@link #seen(Path)} for {@link #EXPIRY_DAYS} days, usually deleted files, are dropped when the index is
+ * rewritten.
+ */
+@Log
+public class ContentHashIndex implements AutoCloseable {
+
+  public static final String FILE_NAME = ".crypthru-hashes";
+  public static final int EXPIRY_DAYS = 30;
+  private static final byte[] MAGIC = "CTHIX001".getBytes(StandardCharsets.US_ASCII);
+  private static final int HEADER_SIZE = MAGIC.length + 4;
+  private static final int RECORD_SIZE = 64;
+  private static final int SAMPLE_SIZE = 16 * 1024;
+
+  private final Path directory;
+  private final Path indexFile;
+  private final int today = (int) (System.currentTimeMillis() / (24 * 60 * 60 * 1000L));
+  private FileChannel channel;
+  private final ByteBuffer probe = ByteBuffer.allocate(RECORD_SIZE);
+  private int count;
+  // records of files encrypted in this execution, by path key
+  private final Map<Long, Record> updates = new HashMap<>();
+  private boolean loaded;
+
+  private static class Record {
+    private final long size;
+    private final int samples;
+    private final long recipients;
+    private final byte[] hash;
+
+    private Record(long size, int samples, long recipients, byte[] hash) {
+      this.size = size;
+      this.samples = samples;
+      this.recipients = recipients;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * Open the index of a directory, creating it when first written.
+   */
+  public ContentHashIndex(Path directory) {
+    this.directory = directory;
+    this.indexFile = directory.resolve(FILE_NAME);
+  }
+
+  /**
+   * @return true if the file is an index, that shall not be processed.
+   */
+  public static boolean isIndex(Path file) {
+    return FILE_NAME.equals(file.getFileName().toString());
+  }
+
+  /**
+   * @param file       A file of the directory.
+   * @param recipients The fingerprint of the recipients the file is encrypted for.
+   * @return true if the file has the same content as when last encrypted for the same recipients.
+   */
+  public boolean isUnchanged(Path file, long recipients) {
+    Record record = find(pathKey(file));
+    if (record == null || record.recipients != recipients)
+      return false;
+    try {
+      if (Files.size(file) != record.size || samples(file) != record.samples)
+        return false;
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + file, ex);
+    }
+    return Arrays.equals(PathKit.sha256(file), record.hash);
+  }
+
+  /**
+   * Keep the record of a file found in the directory, up to date or not, from expiring.
+   */
+  public synchronized void seen(Path file) {
+    load();
+    long position = locate(pathKey(file));
+    if (position < 0)
+      return;
+    try {
+      if (read(position + 20, 4).getInt(0) != today) {
+        probe.clear();
+        probe.putInt(today).flip();
+        channel.write(probe, position + 20);
+      }
+    } catch (IOException ex) {
+      log.warning("Unable to update content hash index " + indexFile + ": " + ex);
+    }
+  }
+
+  /**
+   * Record the content of a file just encrypted.
+   * @param recipients The fingerprint of the recipients the file was encrypted for.
+   */
+  public void record(Path file, long recipients) {
+    record(file, recipients, PathKit.sha256(file));
+  }
+
+  /**
+   * Record the content of a file just encrypted, whose hash was computed while encrypting it.
+   * @param recipients The fingerprint of the recipients the file was encrypted for.
+   * @param sha256     The SHA-256 of the content of the file.
+   */
+  public void record(Path file, long recipients, byte[] sha256) {
+    Record record;
+    try {
+      record = new Record(Files.size(file), samples(file), recipients, sha256);
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + file, ex);
+    }
+    synchronized (this) {
+      updates.put(pathKey(file), record);
+    }
+  }
+
+  /**
+   * Write the records of the files encrypted, if any, and release the index.
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      if (!updates.isEmpty())
+        save();
+    } finally {
+      release();
+    }
+  }
+
+  private synchronized Record find(long key) {
+    Record result = updates.get(key);
+    if (result != null)
+      return result;
+    load();
+    long position = locate(key);
+    if (position < 0)
+      return null;
+    try {
+      ByteBuffer record = read(position, RECORD_SIZE);
+      byte[] hash = new byte[32];
+      ((ByteBuffer) record.position(32)).get(hash);
+      return new Record(record.getLong(8), record.getInt(16), record.getLong(24), hash);
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + indexFile, ex);
+    }
+  }
+
+  /**
+   * @return The position of the record of a key in the loaded index, -1 if there is none.
+   */
+  private long locate(long key) {
+    int low = 0, high = count - 1;
+    try {
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        long position = HEADER_SIZE + (long) middle * RECORD_SIZE;
+        long middleKey = read(position, 8).getLong(0);
+        if (middleKey < key)
+          low = middle + 1;
+        else if (middleKey > key)
+          high = middle - 1;
+        else
+          return position;
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + indexFile, ex);
+    }
+    return -1;
+  }
+
+  /**
+   * @return The bytes of the index at a position, in the probe buffer.
+   */
+  private ByteBuffer read(long position, int length) throws IOException {
+    probe.clear();
+    probe.limit(length);
+    readFully(channel, probe, position);
+    probe.flip();
+    return probe;
+  }
+
+  private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = in.read(buffer, position);
+      if (read < 0)
+        throw new EOFException("Content hash index truncated");
+      position += read;
+    }
+  }
+
+  private void load() {
+    if (loaded)
+      return;
+    loaded = true;
+    if (!Files.exists(indexFile))
+      return;
+    try {
+      channel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      if (channel.size() < HEADER_SIZE)
+        throw new IOException("Not a content hash index");
+      ByteBuffer header = read(0, HEADER_SIZE);
+      byte[] magic = new byte[MAGIC.length];
+      header.get(magic);
+      count = header.getInt();
+      if (!Arrays.equals(MAGIC, magic) || channel.size() != HEADER_SIZE + (long) count * RECORD_SIZE)
+        throw new IOException("Not a content hash index");
+      log.fine("Loaded " + count + " content hashes from " + indexFile);
+    } catch (IOException ex) {
+      log.warning("Ignoring damaged content hash index " + indexFile + ": " + ex);
+      release();
+    }
+  }
+
+  private void release() {
+    count = 0;
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        log.warning("Unable to close " + indexFile + ": " + ex);
+      }
+      channel = null;
+    }
+  }
+
+  /**
+   * Merge the records of the files encrypted into those still in use, in key order.
+   */
+  private void save() {
+    load();
+    TreeMap<Long, Record> sortedUpdates = new TreeMap<>(updates);
+    Path tempFile = null;
+    try {
+      tempFile = Files.createTempFile(directory, FILE_NAME, ".tmp");
+      int written = 0;
+      try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * RECORD_SIZE);
+        // the records of the index, read a block at a time
+        ByteBuffer records = ByteBuffer.allocate(64 * RECORD_SIZE);
+        records.flip();
+        long readPosition = HEADER_SIZE;
+        out.position(HEADER_SIZE);
+        int i = 0;
+        Iterator<Map.Entry<Long, Record>> update = sortedUpdates.entrySet().iterator();
+        Map.Entry<Long, Record> next = update.hasNext() ? update.next() : null;
+        while (i < count || next != null) {
+          if (i < count && !records.hasRemaining()) {
+            records.clear();
+            records.limit((int) Math.min(records.capacity(), (long) (count - i) * RECORD_SIZE));
+            readFully(channel, records, readPosition);
+            readPosition += records.limit();
+            records.flip();
+          }
+          int position = records.position();
+          long key = i < count ? records.getLong(position) : Long.MAX_VALUE;
+          if (next != null && (i == count || next.getKey() <= key)) {
+            if (i < count && next.getKey() == key) {
+              i++; // replaced
+              records.position(position + RECORD_SIZE);
+            }
+            put(buffer, next.getKey(), next.getValue());
+            next = update.hasNext() ? update.next() : null;
+          } else {
+            i++;
+            records.position(position + RECORD_SIZE);
+            if (today - records.getInt(position + 20) > EXPIRY_DAYS)
+              continue;
+            buffer.put((ByteBuffer) records.duplicate().position(position).limit(position + RECORD_SIZE));
+          }
+          written++;
+          if (!buffer.hasRemaining())
+            drain(buffer, out);
+        }
+        drain(buffer, out);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).putInt(written).flip();
+        out.write(header, 0);
+      }
+      release();
+      Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      tempFile = null;
+      log.fine("Saved " + written + " content hashes into " + indexFile);
+    } catch (IOException ex) {
+      // only an index: the files are encrypted again next time
+      log.warning("Unable to save content hash index " + indexFile + ": " + ex);
+    } finally {
+      updates.clear();
+      if (tempFile != null) {
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException ex) {
+          log.warning("Unable to delete " + tempFile);
+        }
+      }
+    }
+  }
+
+  private void put(ByteBuffer buffer, long key, Record record) {
+    buffer.putLong(key).putLong(record.size).putInt(record.samples).putInt(today).putLong(record.recipients)
+        .put(record.hash);
+  }
+
+  private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      out.write(buffer);
+    buffer.clear();
+  }
+
+  private long pathKey(Path file) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : directory.relativize(file).toString().getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * @return The CRC-32 of the beginning, the middle and the end of the file.
+   */
+  private static int samples(Path file) throws IOException {
+    CRC32 crc = new CRC32();
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = in.size();
+      ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+      for (long position : new long[]{0, size / 2 - SAMPLE_SIZE / 2, size - SAMPLE_SIZE}) {
+        buffer.clear();
+        position = Math.max(0, position);
+        while (buffer.hasRemaining() && in.read(buffer, position + buffer.position()) > 0)
+          ;
+        crc.update(buffer.array(), 0, buffer.position());
+      }
+    }
+    return (int) crc.getValue();
+  }
+
+}
@@ -0,0 +1,142 @@
+package net.cbsolution.crypthru.util;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Name, size and modification time of the entries of some directories, compared with a later listing to find
+ * out which entries were created, modified or deleted meanwhile. Used to watch file systems that deliver no
+ * watch events, like NFS and CIFS shares.
+ * <p>
+ * Each directory is listed with a single walk of depth one: where the platform returns the attributes along
+ * with the names (Windows) no further access is made per entry, elsewhere attributes come from the client
+ * cache that listing the directory fills on network file systems.
+ */
+class DirectorySnapshot {
+
+  private final Map<Path, Map<Path, Entry>> directories = new LinkedHashMap<>();
+
+  private static class Entry {
+    private final long size, modified;
+    private final boolean directory;
+
+    private Entry(BasicFileAttributes attributes) {
+      size = attributes.size();
+      modified = attributes.lastModifiedTime().toMillis();
+      directory = attributes.isDirectory();
+    }
+
+    private boolean changed(Entry previous) {
+      // the size and time of directories change with their content, which has its own events
+      return !directory && (size != previous.size || modified != previous.modified);
+    }
+  }
+
+  /**
+   * Record the current entries of a directory, that will be compared from now on.
+   */
+  void record(Path directory) {
+    Map<Path, Entry> entries = list(directory);
+    if (entries != null)
+      directories.put(directory, entries);
+  }
+
+  /**
+   * List again the recorded directories and record their current entries.
+   * @param kinds The kinds of events to return.
+   * @return The differences since the last listing as events, by directory. Directories no longer existing are
+   * not compared any more.
+   */
+  Map<Path, List<WatchEvent<?>>> compare(Collection<WatchEvent.Kind<?>> kinds) {
+    Map<Path, List<WatchEvent<?>>> result = new LinkedHashMap<>();
+    for (Path directory : new ArrayList<>(directories.keySet())) {
+      Map<Path, Entry> previous = directories.get(directory);
+      Map<Path, Entry> current = list(directory);
+      if (current == null) {
+        directories.remove(directory);
+        continue;
+      }
+      directories.put(directory, current);
+      List<WatchEvent<?>> events = new ArrayList<>();
+      for (Map.Entry<Path, Entry> entry : current.entrySet()) {
+        Entry before = previous.get(entry.getKey());
+        if (before == null)
+          add(events, kinds, StandardWatchEventKinds.ENTRY_CREATE, entry.getKey());
+        else if (entry.getValue().changed(before))
+          add(events, kinds, StandardWatchEventKinds.ENTRY_MODIFY, entry.getKey());
+      }
+      for (Path name : previous.keySet())
+        if (!current.containsKey(name))
+          add(events, kinds, StandardWatchEventKinds.ENTRY_DELETE, name);
+      if (!events.isEmpty())
+        result.put(directory, events);
+    }
+    return result;
+  }
+
+  private static void add(List<WatchEvent<?>> events, Collection<WatchEvent.Kind<?>> kinds,
+                          WatchEvent.Kind<Path> kind, Path name) {
+    if (kinds.contains(kind))
+      events.add(new Event(kind, name));
+  }
+
+  /**
+   * @return The entries by name, null if the directory does not exist any more.
+   */
+  private static Map<Path, Entry> list(Path directory) {
+    Map<Path, Entry> result = new LinkedHashMap<>();
+    try {
+      Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          result.put(file.getFileName(), new Entry(attributes));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+          if (file.equals(directory))
+            throw exc;
+          // vanished meanwhile
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (NoSuchFileException | NotDirectoryException ex) {
+      return null;
+    } catch (IOException ex) {
+      throw new RuntimeException("IO Error listing the content of " + directory, ex);
+    }
+    return result;
+  }
+
+  /**
+   * An event found comparing listings, relative to its directory like those of a watch service.
+   */
+  private static class Event implements WatchEvent<Path> {
+    private final Kind<Path> kind;
+    private final Path context;
+
+    private Event(Kind<Path> kind, Path context) {
+      this.kind = kind;
+      this.context = context;
+    }
+
+    @Override
+    public Kind<Path> kind() {
+      return kind;
+    }
+
+    @Override
+    public int count() {
+      return 1;
+    }
+
+    @Override
+    public Path context() {
+      return context;
+    }
+  }
+
+}
@@ -1,16 +1,47 @@
 package net.cbsolution.crypthru.util;
 
+import lombok.extern.java.Log;
+
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Watch events in a directory
  */
+@Log
 public class DirectoryWatcher {
 
+  /**
+   * File system types that deliver no watch events: changes made by other hosts are not notified.
+   */
+  private static final List<String> UNWATCHABLE_FILE_STORES = Arrays.asList("nfs", "nfs4", "cifs", "smb", "smbfs",
+      "smb2", "smb3");
+  public static final long DEFAULT_POLL_MILLIS = 2000;
+
+  /**
+   * How events are detected.
+   */
+  public enum Backend {
+    /** Polling for network file systems, native otherwise. */
+    AUTO,
+    /** The watch service of the operating system. */
+    NATIVE,
+    /** Listing directories periodically and comparing with the previous listing. */
+    POLLING
+  }
+
   private final Path path;
+  private final boolean recursive;
+  private final WatchEvent.Kind<?>[] eventKinds;
   private Reaction reaction;
   private final WatchService watchService;
+  private final DirectorySnapshot snapshot;
+  private final long pollMillis;
   private Filter filter;
   private String stopper;
 
@@ -28,15 +59,96 @@ public class DirectoryWatcher {
    * @param eventKinds The kind of events to be handled.
    */
   public DirectoryWatcher(Path path, WatchEvent.Kind<?>... eventKinds) {
+    this(path, false, eventKinds);
+  }
+
+  /**
+   * Instance constructor.
+   * @param path The directory to watch.
+   * @param recursive true to watch subdirectories too, including those created later.
+   * @param eventKinds The kind of events to be handled.
+   */
+  public DirectoryWatcher(Path path, boolean recursive, WatchEvent.Kind<?>... eventKinds) {
+    this(path, recursive, Backend.AUTO, DEFAULT_POLL_MILLIS, eventKinds);
+  }
+
+  /**
+   * Instance constructor.
+   * @param path The directory to watch.
+   * @param recursive true to watch subdirectories too, including those created later.
+   * @param backend How events are detected.
+   * @param pollMillis Milliseconds between listings when polling.
+   * @param eventKinds The kind of events to be handled.
+   */
+  public DirectoryWatcher(Path path, boolean recursive, Backend backend, long pollMillis,
+                          WatchEvent.Kind<?>... eventKinds) {
     this.path = path;
+    this.recursive = recursive;
+    this.eventKinds = eventKinds;
+    this.pollMillis = Math.max(1, pollMillis);
+    if (backend == Backend.AUTO)
+      backend = isWatchable(path) ? Backend.NATIVE : Backend.POLLING;
+    if (backend == Backend.POLLING) {
+      log.info("Polling " + path + " every " + this.pollMillis + " ms");
+      watchService = null;
+      snapshot = new DirectorySnapshot();
+    } else {
+      try {
+        watchService = FileSystems.getDefault().newWatchService();
+      } catch (IOException e) {
+        throw new RuntimeException("I/O error watching " + path, e);
+      }
+      snapshot = null;
+    }
+    register(path);
+  }
+
+  /**
+   * @return false if the directory is on a network file system, whose changes are not notified.
+   */
+  private static boolean isWatchable(Path directory) {
     try {
-      watchService = FileSystems.getDefault().newWatchService();
-      path.register(watchService, eventKinds);
+      String type = Files.getFileStore(directory).type().toLowerCase(Locale.ROOT);
+      return !UNWATCHABLE_FILE_STORES.contains(type);
     } catch (IOException e) {
-      throw new RuntimeException("I/O error watching " + path, e);
+      throw new RuntimeException("I/O error watching " + directory, e);
     }
   }
 
+  /**
+   * Register a directory and, if recursive, its subdirectories.
+   */
+  private void register(Path directory) {
+    try {
+      if (!recursive) {
+        watch(directory);
+        return;
+      }
+      Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+          watch(dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          // vanished meanwhile
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException("I/O error watching " + directory, e);
+    }
+  }
+
+  private void watch(Path directory) throws IOException {
+    if (snapshot == null)
+      directory.register(watchService, eventKinds);
+    else
+      snapshot.record(directory);
+  }
+
   /**
    * Acrivate reactions.
    * @param reaction The reaction to be activated or null to stop reacting.
@@ -44,29 +156,60 @@ public class DirectoryWatcher {
    */
   public DirectoryWatcher react(Reaction reaction) {
     this.reaction = reaction;
-    WatchKey key;
-    boolean stopped = false;
-    while (!stopped) {
-      try {
-        if (!(reaction != null && (key = watchService.take()) != null)) break;
-      } catch (InterruptedException e) {
-        stopped = true;
-        break;
-      }
-      for (WatchEvent<?> event : key.pollEvents()) {
-        if (stopper != null && stopper.equals(event.context().toString())) {
-          stopped = true;
+    if (snapshot != null)
+      poll();
+    else {
+      WatchKey key;
+      while (true) {
+        try {
+          if (!(reaction != null && (key = watchService.take()) != null)) break;
+        } catch (InterruptedException e) {
           break;
         }
-        Path context = path.resolve(event.context().toString());
-        if (filter == null || filter.accept(context))
-          reaction.reactTo(event, context);
+        boolean stopped = dispatch((Path) key.watchable(), key.pollEvents());
+        key.reset();
+        if (stopped)
+          break;
       }
-      key.reset();
     }
     return this;
   }
 
+  private void poll() {
+    List<WatchEvent.Kind<?>> kinds = Arrays.asList(eventKinds);
+    while (reaction != null) {
+      try {
+        Thread.sleep(pollMillis);
+      } catch (InterruptedException e) {
+        break;
+      }
+      for (Map.Entry<Path, List<WatchEvent<?>>> changes : snapshot.compare(kinds).entrySet())
+        if (dispatch(changes.getKey(), changes.getValue()))
+          return;
+    }
+  }
+
+  /**
+   * React to the events of a directory.
+   * @return true if the stopper was found.
+   */
+  private boolean dispatch(Path directory, List<WatchEvent<?>> events) {
+    for (WatchEvent<?> event : events) {
+      if (stopper != null && event.context() != null && directory.equals(path) &&
+          stopper.equals(event.context().toString()))
+        return true;
+      // overflow events have no context: some events were lost in the directory
+      Path context = event.kind() == StandardWatchEventKinds.OVERFLOW ? directory :
+          directory.resolve(event.context().toString());
+      if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+          Files.isDirectory(context, LinkOption.NOFOLLOW_LINKS))
+        register(context);
+      if (filter == null || filter.accept(context))
+        reaction.reactTo(event, context);
+    }
+    return false;
+  }
+
   /**
    * Apply a filter
    * @param filter The filter to use or null to remove the filter.
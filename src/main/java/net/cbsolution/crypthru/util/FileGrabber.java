@@ -1,20 +1,34 @@
 package net.cbsolution.crypthru.util;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 /**
  * A generic grabber of files in a directory.
+ * <p>
+ * Files are listed a batch at a time. Each file is checked against the name patterns first, then against the
+ * size and age limits, and last against the filter of the caller, usually the most expensive check.
  */
 public class FileGrabber {
   private final String fileOrDirectory;
   private final Path directory;
   private final Path singleFile;
   private final List<GlobFilter> patternFilters = new ArrayList<>();
+  // all patterns as alternatives of one expression, the first matching alternative winning
+  private Pattern compiledPatterns;
   boolean acceptByDefault;
+  private boolean recursive;
+  private long minSize = 0, maxSize = Long.MAX_VALUE;
+  private long minAgeMillis = 0, maxAgeMillis = Long.MAX_VALUE;
 
   public FileGrabber(String fileOrDirectory) {
     Path fullPath = PathKit.replaceHome(this.fileOrDirectory = fileOrDirectory);
@@ -39,59 +53,216 @@ public class FileGrabber {
     return directory;
   }
 
+  public boolean isRecursive() {
+    return recursive;
+  }
+
+  /**
+   * @param recursive true to grab the files of subdirectories too, at any depth.
+   */
+  public void setRecursive(boolean recursive) {
+    this.recursive = recursive;
+  }
+
+  /**
+   * Grab only files whose size is within limits.
+   * @param min The minimum size in bytes.
+   * @param max The maximum size in bytes.
+   */
+  public void limitSize(long min, long max) {
+    minSize = min;
+    maxSize = max;
+  }
+
+  /**
+   * Grab only files whose last modification is within limits.
+   * @param minMillis The minimum age in milliseconds.
+   * @param maxMillis The maximum age in milliseconds.
+   */
+  public void limitAge(long minMillis, long maxMillis) {
+    minAgeMillis = minMillis;
+    maxAgeMillis = maxMillis;
+  }
+
+  private boolean hasAttributeLimits() {
+    return minSize > 0 || maxSize < Long.MAX_VALUE || minAgeMillis > 0 || maxAgeMillis < Long.MAX_VALUE;
+  }
+
+  /**
+   * @param file A file of the directory.
+   * @return true if the file passes the include/exclude patterns and the size and age limits.
+   */
+  public boolean matches(Path file) {
+    return accept(file, null, null);
+  }
+
+  /**
+   * @param attributes The attributes of the file if already read, null to read them when needed.
+   */
+  private boolean accept(Path file, BasicFileAttributes attributes, Filter filter) {
+    if (!passPatterns(file))
+      return false;
+    if (hasAttributeLimits()) {
+      try {
+        if (attributes == null)
+          attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      } catch (IOException ex) {
+        return false; // vanished meanwhile
+      }
+      long age = System.currentTimeMillis() - attributes.lastModifiedTime().toMillis();
+      if (attributes.size() < minSize || attributes.size() > maxSize || age < minAgeMillis || age > maxAgeMillis)
+        return false;
+    }
+    return filter == null || filter.accept(file);
+  }
+
   private boolean passPatterns(Path file) {
     if (patternFilters.isEmpty())
       return true; // no filter to apply
-    Path fileName = file.getFileName();
-    for (GlobFilter f: patternFilters) {
-      if (f.pathMatcher.matches(fileName)) {
-        switch (f.action) {
-          case EXCLUDE:
-            return false;
-          case INCLUDE:
-            return true;
-        }
-      }
+    Matcher m = compiledPatterns().matcher(file.getFileName().toString());
+    if (!m.matches())
+      return acceptByDefault;
+    for (int i = 0; i < patternFilters.size(); i++) {
+      if (m.start(i + 1) >= 0)
+        return patternFilters.get(i).action == GlobFilter.Action.INCLUDE;
     }
     return acceptByDefault;
   }
 
-  public void filter(GlobFilter.Action action, String pattern) {
+  private synchronized Pattern compiledPatterns() {
+    if (compiledPatterns == null) {
+      String expression = patternFilters.stream().map(f -> "(" + f.regex + ")").collect(Collectors.joining("|"));
+      // as the glob matcher of the platform
+      compiledPatterns = Pattern.compile(expression, File.separatorChar == '\\' ?
+          Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+    }
+    return compiledPatterns;
+  }
+
+  public synchronized void filter(GlobFilter.Action action, String pattern) {
     patternFilters.add(new GlobFilter(action, pattern));
+    compiledPatterns = null;
   }
 
   public List<Path> grab(Filter filter) {
+    List<Path> result = new ArrayList<>();
+    grab(filter, result::addAll);
+    return result;
+  }
+
+  /**
+   * Grab files a batch at a time, so that a large directory or tree is never listed all in memory: each batch
+   * is processed before more files are listed.
+   * @param filter   The files to grab, null for all.
+   * @param consumer Processes a batch of files, called on the calling thread.
+   */
+  public void grab(Filter filter, TreeWalker.Batches consumer) {
     if (singleFile != null) {
       if (!Files.exists(singleFile))
         throw new RuntimeException("No such file: " + singleFile);
-      List<Path> result = new ArrayList<>();
-      if (passPatterns(singleFile))
-        result.add(singleFile);
-      return result;
+      // a file given by name is always processed, whatever the filter of the caller
+      if (accept(singleFile, null, null))
+        consumer.accept(new ArrayList<>(Collections.singletonList(singleFile)));
+      return;
     }
     if (!Files.isDirectory(directory))
       throw new RuntimeException("No such directory: " + directory);
-    try {
-      return Files.list(directory)
-          .filter(p -> filter == null ? true : filter.accept(p))
-          .filter(p -> passPatterns(p))
-          .collect(Collectors.toList());
+    if (recursive) {
+      new TreeWalker(Runtime.getRuntime().availableProcessors()).walk(directory,
+          (p, attributes) -> accept(p, attributes, filter), consumer);
+      return;
+    }
+    List<Path> batch = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        if (accept(entry, null, filter)) {
+          batch.add(entry);
+          if (batch.size() == TreeWalker.BATCH_SIZE) {
+            consumer.accept(batch);
+            batch = new ArrayList<>();
+          }
+        }
+      }
     } catch (IOException ex) {
       throw new RuntimeException("IO Error listing the content of " + directory, ex);
     }
+    if (!batch.isEmpty())
+      consumer.accept(batch);
   }
 
   public static class GlobFilter {
     public enum Action { INCLUDE, EXCLUDE }
 
     private final Action action;
-    private final PathMatcher pathMatcher;
+    private final String regex;
     private final String pattern;
 
     public GlobFilter(Action action, String pattern) {
       this.action = action;
-      this.pathMatcher = FileSystems.getDefault().getPathMatcher(
-          "glob:" + (this.pattern =  pattern));
+      this.regex = toRegex(this.pattern = pattern);
+    }
+
+    /**
+     * Translate a glob, as understood by {@link FileSystem#getPathMatcher}, to a regular expression without
+     * capturing groups.
+     */
+    static String toRegex(String glob) {
+      StringBuilder result = new StringBuilder();
+      boolean inGroup = false;
+      for (int i = 0; i < glob.length(); i++) {
+        char c = glob.charAt(i);
+        switch (c) {
+          case '\\':
+            if (++i == glob.length())
+              throw new PatternSyntaxException("No character to escape", glob, i - 1);
+            result.append(literal(glob.charAt(i)));
+            break;
+          case '*':
+            if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+              result.append(".*");
+              i++;
+            } else
+              result.append("[^/\\\\]*");
+            break;
+          case '?':
+            result.append("[^/\\\\]");
+            break;
+          case '[':
+            int end = glob.indexOf(']', i + 2);
+            if (end < 0)
+              throw new PatternSyntaxException("Missing ']'", glob, i);
+            String set = glob.substring(i + 1, end);
+            result.append('[').append(set.startsWith("!") ? "^" : "");
+            for (char member : (set.startsWith("!") ? set.substring(1) : set).toCharArray())
+              result.append(member == '-' ? "-" : literal(member));
+            result.append(']');
+            i = end;
+            break;
+          case '{':
+            if (inGroup)
+              throw new PatternSyntaxException("Cannot nest groups", glob, i);
+            result.append("(?:");
+            inGroup = true;
+            break;
+          case '}':
+            result.append(inGroup ? ")" : "\\}");
+            inGroup = false;
+            break;
+          case ',':
+            result.append(inGroup ? "|" : ",");
+            break;
+          default:
+            result.append(literal(c));
+        }
+      }
+      if (inGroup)
+        throw new PatternSyntaxException("Missing '}'", glob, glob.length() - 1);
+      return result.toString();
+    }
+
+    private static String literal(char c) {
+      // a backslash before a character that is not a letter or a digit always stands for the character
+      return Character.isLetterOrDigit(c) ? String.valueOf(c) : "\\" + c;
     }
 
     public String print() {
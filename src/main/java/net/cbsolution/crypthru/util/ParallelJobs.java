@@ -0,0 +1,127 @@
+package net.cbsolution.crypthru.util;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes a job for each file of a list on a bounded pool of workers.
+ * Largest files are scheduled first, so that a big file does not start last and stretch the run.
+ */
+@Log
+public class ParallelJobs {
+
+  private final int parallelism;
+
+  /**
+   * @param parallelism The maximum number of files processed concurrently. With 1 (or less) files are processed
+   *                    sequentially on the calling thread, in the given order.
+   */
+  public ParallelJobs(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Execute the job on every file and wait for completion.
+   * If a job fails the files still waiting are skipped, the jobs running are completed and the first error is
+   * re-thrown. Running jobs are never interrupted, that would leave their output half written.
+   *
+   * @param files The files to process.
+   * @param job   The job executed for each file.
+   */
+  public void run(List<Path> files, Job job) {
+    if (parallelism <= 1 || files.size() <= 1) {
+      for (Path file : files)
+        job.run(file);
+      return;
+    }
+    List<Path> queue = largestFirst(files);
+    int threads = Math.min(parallelism, queue.size());
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerFactory());
+    log.fine("Processing " + queue.size() + " files on " + threads + " workers");
+    List<Future<Path>> jobs = new ArrayList<>(queue.size());
+    try {
+      CompletionService<Path> completion = new ExecutorCompletionService<>(executor);
+      for (Path file : queue)
+        jobs.add(completion.submit(() -> {
+          job.run(file);
+          return file;
+        }));
+      for (int i = 0; i < queue.size(); i++) {
+        try {
+          completion.take().get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+          if (cause instanceof Error)
+            throw (Error) cause;
+          throw new RuntimeException(cause);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while processing files", ex);
+    } finally {
+      for (Future<Path> waiting : jobs)
+        waiting.cancel(false);
+      executor.shutdown();
+      awaitTermination(executor);
+    }
+  }
+
+  private static void awaitTermination(ExecutorService executor) {
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static List<Path> largestFirst(List<Path> files) {
+    Map<Path, Long> sizes = new HashMap<>();
+    for (Path file : files)
+      sizes.put(file, sizeOf(file));
+    List<Path> result = new ArrayList<>(files);
+    result.sort(Comparator.comparing((Path p) -> sizes.get(p)).reversed());
+    return result;
+  }
+
+  private static long sizeOf(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException ex) {
+      return 0L; // vanished or unreadable: the job itself will report it
+    }
+  }
+
+  static class WorkerFactory implements ThreadFactory {
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final int poolNumber = POOL_NUMBER.incrementAndGet();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread result = new Thread(r, "crypthru-" + poolNumber + "-" + threadNumber.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+
+  /**
+   * The processing of a single file.
+   */
+  public interface Job {
+
+    /**
+     * @param file The file to process.
+     */
+    void run(Path file);
+  }
+
+}
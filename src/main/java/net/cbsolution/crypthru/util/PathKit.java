@@ -9,7 +9,10 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -63,6 +66,33 @@ public class PathKit {
     }
   }
 
+  /**
+   * @return The SHA-256 of the content of a file.
+   */
+  public static byte[] sha256(Path file) {
+    try (InputStream in = ChannelIO.newInputStream(file, 64 * 1024)) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[64 * 1024];
+      int length;
+      while ((length = in.read(buffer)) >= 0)
+        digest.update(buffer, 0, length);
+      return digest.digest();
+    } catch (IOException | NoSuchAlgorithmException ex) {
+      throw new RuntimeException("Error reading " + file, ex);
+    }
+  }
+
+  /**
+   * Set the modification time of a file to now.
+   */
+  public static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      throw new RuntimeException("Error touching " + file, e);
+    }
+  }
+
   public static boolean isOutdated(Path source, Path result) {
     if (!Files.exists(result))
       return true;
@@ -75,6 +105,24 @@ public class PathKit {
     return false;
   }
 
+  /**
+   * Resolve an archive entry name, preventing the
+   * <a href="https://snyk.io/research/zip-slip-vulnerability">zip-slip vulnerability</a>.
+   * @param destinationDir The directory receiving the entries.
+   * @param entryName The name of an entry.
+   * @return The path of the entry.
+   * @throws IOException If the entry would land outside the directory.
+   */
+  public static Path resolveInside(Path destinationDir, String entryName) throws IOException {
+    Path destFile = destinationDir.resolve(entryName);
+    String destDirPath = destinationDir.toFile().getCanonicalPath();
+    String destFilePath = destFile.toFile().getCanonicalPath();
+    if (!destFilePath.startsWith(destDirPath + FileSystems.getDefault().getSeparator())) {
+      throw new IOException("Entry is outside of the target dir: " + entryName);
+    }
+    return destFile;
+  }
+
   public static Path getParentPath(Path path) {
     Path result = path.getParent();
     if (result == null) // relative
@@ -0,0 +1,286 @@
+package net.cbsolution.crypthru.util;
+
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The files of a directory already processed, so that an incremental run decides what to do reading the
+ * attributes of the source files only, and not those of the outputs. The manifest is an append-only journal in
+ * the directory, one tab separated record per line, the last record of a file winning:
+ * <pre>
+ *   S  size  modification time (ms)  output  source     processing started
+ *   D  size  modification time (ms)  SHA-256 of the content  output  source     processing completed
+ * </pre>
+ * Paths are relative to the directory. A file started and never completed (the execution crashed) is processed
+ * again, even if its output looks up to date, and so is a file whose output was deleted. A completed file whose
+ * time changed but whose size and content did not is not processed again. The journal is rewritten with the
+ * last record of existing files only when superseded records outnumber them.
+ */
+@Log
+public class ProcessingManifest implements AutoCloseable {
+
+  public static final String FILE_NAME = ".crypthru-manifest";
+  private static final String HEADER = "CTMAN 1";
+  private static final int COMPACTION_THRESHOLD = 1000;
+
+  private final Path directory;
+  private final Path journalFile;
+  private final Map<String, Entry> entries = new HashMap<>();
+  // attributes of the files being processed, when they started
+  private final Map<String, BasicFileAttributes> started = new HashMap<>();
+  private Writer journal;
+  private int records;
+
+  private static class Entry {
+    private final boolean completed;
+    private final long size, modified;
+    private final String hash, output;
+
+    private Entry(boolean completed, long size, long modified, String hash, String output) {
+      this.completed = completed;
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+      this.output = output;
+    }
+  }
+
+  /**
+   * Open the manifest of a directory, creating it when first written.
+   */
+  public ProcessingManifest(Path directory) {
+    this.directory = directory;
+    this.journalFile = directory.resolve(FILE_NAME);
+    load();
+  }
+
+  /**
+   * @return true if the file is a manifest, that shall not be processed.
+   */
+  public static boolean isManifest(Path file) {
+    return FILE_NAME.equals(file.getFileName().toString());
+  }
+
+  /**
+   * @param source A file of the directory.
+   * @param output The file the source is processed into.
+   * @return true if the source was completely processed into the output, still existing, and did not change
+   * since, false if it shall be processed, null if the manifest does not know the file.
+   */
+  public Boolean isUpToDate(Path source, Path output) {
+    String name = relative(source);
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(name);
+    }
+    if (entry == null || !entry.output.equals(relative(output)))
+      return null;
+    if (!entry.completed || !Files.exists(output))
+      return false;
+    BasicFileAttributes attributes = attributes(source);
+    if (attributes.size() != entry.size)
+      return false;
+    if (attributes.lastModifiedTime().toMillis() == entry.modified)
+      return true;
+    // touched or copied again, maybe with the same content: hashed without holding the manifest, so that
+    // concurrent jobs do not wait for each other
+    if (!hash(source).equals(entry.hash))
+      return false;
+    synchronized (this) {
+      if (entries.get(name) == entry)
+        append(new Entry(true, entry.size, attributes.lastModifiedTime().toMillis(), entry.hash, entry.output), name);
+    }
+    return true;
+  }
+
+  /**
+   * Record that a file is being processed.
+   */
+  public synchronized void started(Path source, Path output) {
+    BasicFileAttributes attributes = attributes(source);
+    started.put(relative(source), attributes);
+    append(new Entry(false, attributes.size(), attributes.lastModifiedTime().toMillis(), null, relative(output)),
+        relative(source));
+  }
+
+  /**
+   * Record that a file was successfully processed. Nothing is recorded if the file changed meanwhile, so that
+   * it is processed again.
+   */
+  public void completed(Path source, Path output) {
+    completed(source, output, null);
+  }
+
+  /**
+   * Record that a file was successfully processed.
+   * @param sha256 The SHA-256 of the content of the source, computed while processing it, null if not known.
+   * @see #completed(Path, Path)
+   */
+  public void completed(Path source, Path output, byte[] sha256) {
+    String name = relative(source);
+    BasicFileAttributes before;
+    synchronized (this) {
+      before = started.remove(name);
+    }
+    if (before == null || !Files.exists(source))
+      return;
+    String hash = sha256 == null ? hash(source) : hex(sha256);
+    BasicFileAttributes after = attributes(source);
+    if (after.size() != before.size() || !after.lastModifiedTime().equals(before.lastModifiedTime()))
+      return;
+    synchronized (this) {
+      append(new Entry(true, before.size(), before.lastModifiedTime().toMillis(), hash, relative(output)), name);
+    }
+  }
+
+  /**
+   * Close the journal, compacting it if needed.
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      if (journal != null)
+        journal.close();
+    } catch (IOException ex) {
+      log.warning("Unable to close " + journalFile + ": " + ex);
+    }
+    journal = null;
+    if (records > COMPACTION_THRESHOLD && records > 2 * entries.size())
+      compact();
+  }
+
+  private void load() {
+    if (!Files.exists(journalFile))
+      return;
+    try (BufferedReader in = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+      String line = in.readLine();
+      if (!HEADER.equals(line)) {
+        log.warning("Ignoring " + journalFile + ": not a processing manifest");
+        return;
+      }
+      while ((line = in.readLine()) != null) {
+        records++;
+        String[] fields = line.split("\t", -1);
+        try {
+          if (fields.length == 5 && fields[0].equals("S"))
+            entries.put(unescape(fields[4]), new Entry(false, Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                null, unescape(fields[3])));
+          else if (fields.length == 6 && fields[0].equals("D"))
+            entries.put(unescape(fields[5]), new Entry(true, Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                fields[3], unescape(fields[4])));
+        } catch (NumberFormatException ex) {
+          // the last line of a crashed execution may be truncated
+        }
+      }
+      log.fine("Loaded " + entries.size() + " entries from " + journalFile);
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading " + journalFile, ex);
+    }
+  }
+
+  private void append(Entry entry, String source) {
+    entries.put(source, entry);
+    records++;
+    try {
+      if (journal == null) {
+        boolean create = !Files.exists(journalFile);
+        journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+        if (create)
+          journal.write(HEADER + "\n");
+      }
+      journal.write(format(entry, source));
+      // survives a crash of the execution
+      journal.flush();
+    } catch (IOException ex) {
+      throw new RuntimeException("Error writing " + journalFile, ex);
+    }
+  }
+
+  private static String format(Entry entry, String source) {
+    return entry.completed ?
+        "D\t" + entry.size + "\t" + entry.modified + "\t" + entry.hash + "\t" + escape(entry.output) + "\t" +
+            escape(source) + "\n" :
+        "S\t" + entry.size + "\t" + entry.modified + "\t" + escape(entry.output) + "\t" + escape(source) + "\n";
+  }
+
+  private void compact() {
+    Path tempFile = null;
+    try {
+      tempFile = Files.createTempFile(directory, FILE_NAME, ".tmp");
+      int count = 0;
+      try (BufferedWriter out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+        out.write(HEADER + "\n");
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          if (Files.exists(directory.resolve(entry.getKey()))) {
+            out.write(format(entry.getValue(), entry.getKey()));
+            count++;
+          }
+        }
+      }
+      Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      tempFile = null;
+      log.fine("Compacted " + journalFile + " from " + records + " to " + count + " records");
+      records = count;
+    } catch (IOException ex) {
+      // the journal is still valid, only longer
+      log.warning("Unable to compact " + journalFile + ": " + ex);
+    } finally {
+      if (tempFile != null) {
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException ex) {
+          log.warning("Unable to delete " + tempFile);
+        }
+      }
+    }
+  }
+
+  private String relative(Path file) {
+    return directory.relativize(file).toString();
+  }
+
+  private static BasicFileAttributes attributes(Path file) {
+    try {
+      return Files.readAttributes(file, BasicFileAttributes.class);
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading attributes of " + file, ex);
+    }
+  }
+
+  private static String hash(Path file) {
+    return hex(PathKit.sha256(file));
+  }
+
+  private static String hex(byte[] sha256) {
+    return String.format("%064x", new BigInteger(1, sha256));
+  }
+
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+  }
+
+  private static String unescape(String s) {
+    StringBuilder result = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\' && i + 1 < s.length()) {
+        c = s.charAt(++i);
+        result.append(c == 't' ? '\t' : c == 'n' ? '\n' : c);
+      } else
+        result.append(c);
+    }
+    return result.toString();
+  }
+
+}
@@ -0,0 +1,170 @@
+package net.cbsolution.crypthru.util;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the files of a directory tree, directories being listed concurrently, and hands them over in batches
+ * of at most {@link #BATCH_SIZE} files of the same directory. Batches not yet consumed are bounded, so that
+ * the listing of a tree is never all in memory: listing waits for the consumer. Symbolic links to directories
+ * are not followed. Files and directories deleted while the tree is listed are skipped.
+ */
+public class TreeWalker {
+
+  public static final int BATCH_SIZE = 1000;
+
+  private final int parallelism;
+
+  /**
+   * @param parallelism The number of directories listed concurrently, which is also the number of threads.
+   */
+  public TreeWalker(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * List the tree, consuming batches on the calling thread.
+   * @param root     The top directory.
+   * @param filter   The files to list, null for all.
+   * @param consumer Processes a batch of files.
+   */
+  public void walk(Path root, FileGrabber.Filter filter, Batches consumer) {
+    walk(root, filter == null ? null : (EntryFilter) (file, attributes) -> filter.accept(file), consumer);
+  }
+
+  /**
+   * List the tree, consuming batches on the calling thread.
+   * @param root     The top directory.
+   * @param filter   The files to list, given the attributes read while listing, null for all.
+   * @param consumer Processes a batch of files.
+   */
+  public void walk(Path root, EntryFilter filter, Batches consumer) {
+    BlockingQueue<List<Path>> batches = new ArrayBlockingQueue<>(2 * parallelism);
+    Listing listing = new Listing(root, filter, batches);
+    // a fixed pool: a worker waiting for the consumer holds its thread, no other is started in its place
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism, new ParallelJobs.WorkerFactory());
+    try {
+      for (int i = 0; i < parallelism; i++)
+        pool.execute(listing);
+      while (true) {
+        List<Path> batch = batches.poll(50, TimeUnit.MILLISECONDS);
+        if (batch != null)
+          consumer.accept(batch);
+        else if (listing.isDone()) {
+          // all batches were queued before the listing completed
+          while ((batch = batches.poll()) != null)
+            consumer.accept(batch);
+          break;
+        }
+      }
+      if (listing.failure != null)
+        throw listing.failure;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while listing " + root, ex);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * The directories still to list, shared by the workers. Subdirectories are listed depth first, so that the
+   * directories waiting are about the depth of the tree times its fan-out, not a whole level of it.
+   */
+  private static class Listing implements Runnable {
+    private final Path root;
+    private final EntryFilter filter;
+    private final BlockingQueue<List<Path>> batches;
+    private final BlockingDeque<Path> directories = new LinkedBlockingDeque<>();
+    // directories found and not yet completely listed
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile RuntimeException failure;
+
+    private Listing(Path root, EntryFilter filter, BlockingQueue<List<Path>> batches) {
+      this.root = root;
+      this.filter = filter;
+      this.batches = batches;
+      outstanding.incrementAndGet();
+      directories.add(root);
+    }
+
+    private boolean isDone() {
+      return outstanding.get() == 0 || failure != null;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isDone()) {
+          Path directory = directories.pollFirst(50, TimeUnit.MILLISECONDS);
+          if (directory == null)
+            continue;
+          try {
+            list(directory);
+          } catch (RuntimeException ex) {
+            if (failure == null)
+              failure = ex;
+          } finally {
+            outstanding.decrementAndGet();
+          }
+        }
+      } catch (InterruptedException ex) {
+        // the walk is over: the consumer completed or failed
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void list(Path directory) throws InterruptedException {
+      List<Path> batch = new ArrayList<>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (NoSuchFileException ex) {
+            continue; // vanished meanwhile
+          }
+          if (attributes.isDirectory()) {
+            outstanding.incrementAndGet();
+            directories.addFirst(entry);
+          } else if (!(attributes.isSymbolicLink() && Files.isDirectory(entry)) &&
+              (filter == null || filter.accept(entry, attributes))) {
+            batch.add(entry);
+            if (batch.size() == BATCH_SIZE) {
+              batches.put(batch);
+              batch = new ArrayList<>();
+            }
+          }
+        }
+      } catch (NoSuchFileException ex) {
+        if (directory.equals(root))
+          throw new RuntimeException("IO Error listing the content of " + directory, ex);
+        // vanished meanwhile
+      } catch (IOException ex) {
+        throw new RuntimeException("IO Error listing the content of " + directory, ex);
+      }
+      if (!batch.isEmpty())
+        batches.put(batch);
+    }
+  }
+
+  /**
+   * Selects the files to list.
+   */
+  public interface EntryFilter {
+    boolean accept(Path file, BasicFileAttributes attributes);
+  }
+
+  /**
+   * Processes a batch of files.
+   */
+  public interface Batches {
+    void accept(List<Path> files);
+  }
+
+}
@@ -0,0 +1,356 @@
+package net.cbsolution.crypthru.util;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes the files dropped in a watched directory in stages, so that the watch never stops draining events:
+ * <ol>
+ *   <li>the watch thread records created or modified files, many events of a file coalescing into one entry;
+ *   a watch overflow, when events were lost, triggers a rescan of the directory; in recursive mode new
+ *   subdirectories are watched as they appear and the files they already contain are recorded</li>
+ *   <li>a stabilizer dispatches a file when its size and modification time did not change for a while, so that
+ *   half-copied files are not processed</li>
+ *   <li>dispatched files wait in a bounded queue for a pool of workers: when the queue is full the stabilizer
+ *   waits, files keep coalescing and none is lost</li>
+ * </ol>
+ * Figures on queue depth and latency from drop (first event) to done are logged when the watch stops.
+ */
+@Log
+public class WatchPipeline {
+
+  private static final Candidate END_OF_QUEUE = new Candidate(null, 0);
+
+  private final Path directory;
+  private final int workers;
+  private final long stableMillis;
+  private final BlockingQueue<Candidate> queue;
+  // files seen and not yet dispatched, by path
+  private final Map<Path, Candidate> pending = new LinkedHashMap<>();
+  private final Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+  private final Metrics metrics = new Metrics();
+  private DirectoryWatcher.Filter filter;
+  private Rescan rescan;
+  private String stopper;
+  private boolean recursive;
+  private DirectoryWatcher.Backend backend = DirectoryWatcher.Backend.AUTO;
+  private long pollMillis = DirectoryWatcher.DEFAULT_POLL_MILLIS;
+
+  private static class Candidate {
+    private final Path file;
+    private final long firstSeen;
+    private long size = -1, modified = -1, unchangedSince;
+
+    private Candidate(Path file, long now) {
+      this.file = file;
+      this.firstSeen = now;
+      this.unchangedSince = now;
+    }
+  }
+
+  /**
+   * @param directory    The directory to watch.
+   * @param workers      The number of files processed concurrently.
+   * @param queueSize    The number of stable files that can wait for a worker.
+   * @param stableMillis How long size and modification time of a file shall not change before processing it.
+   */
+  public WatchPipeline(Path directory, int workers, int queueSize, long stableMillis) {
+    this.directory = directory;
+    this.workers = Math.max(1, workers);
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    this.stableMillis = stableMillis;
+  }
+
+  /**
+   * @param filter The files to process, checked when an event occurs and again when the file is stable.
+   * @return self for chaining.
+   */
+  public WatchPipeline filter(DirectoryWatcher.Filter filter) {
+    this.filter = filter;
+    return this;
+  }
+
+  /**
+   * @param rescan Lists the files to process after a watch overflow.
+   * @return self for chaining.
+   */
+  public WatchPipeline rescan(Rescan rescan) {
+    this.rescan = rescan;
+    return this;
+  }
+
+  /**
+   * @param recursive true to watch subdirectories too, including those created later.
+   * @return self for chaining.
+   */
+  public WatchPipeline recursive(boolean recursive) {
+    this.recursive = recursive;
+    return this;
+  }
+
+  /**
+   * @param backend    How events are detected.
+   * @param pollMillis Milliseconds between listings when polling.
+   * @return self for chaining.
+   */
+  public WatchPipeline backend(DirectoryWatcher.Backend backend, long pollMillis) {
+    this.backend = backend;
+    this.pollMillis = pollMillis;
+    return this;
+  }
+
+  /**
+   * @param stopper The name of a file that will stop watching, for example "STOP".
+   * @return self for chaining.
+   */
+  public WatchPipeline stopOn(String stopper) {
+    this.stopper = stopper;
+    return this;
+  }
+
+  /**
+   * @return The figures collected so far.
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Watch and process files until the stop file is dropped. A failing file is logged and does not stop the
+   * watch. Files already queued are completed before returning.
+   * @param job The processing of a stable file.
+   */
+  public void run(ParallelJobs.Job job) {
+    DirectoryWatcher watcher = new DirectoryWatcher(directory, recursive, backend, pollMillis,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+      Thread result = new Thread(runnable, "crypthru-watch-" + directory.getFileName());
+      result.setDaemon(true);
+      return result;
+    });
+    for (int i = 0; i < workers; i++)
+      pool.submit(() -> work(job));
+    Thread stabilizer = new Thread(this::stabilize, "crypthru-stabilizer-" + directory.getFileName());
+    stabilizer.setDaemon(true);
+    stabilizer.start();
+    try {
+      watcher.stopOn(stopper).react((event, file) -> {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          log.warning("Events lost watching " + directory + ", rescanning");
+          metrics.overflow();
+          if (rescan != null)
+            for (Path found : rescan.list())
+              seen(found);
+        } else if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+          // files may have been moved in with the directory, or created before it was watched
+          if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+            new TreeWalker(1).walk(file, filter == null ? null : filter::accept, files -> files.forEach(this::seen));
+        } else if (filter == null || filter.accept(file))
+          seen(file);
+      });
+    } finally {
+      stabilizer.interrupt();
+      try {
+        stabilizer.join();
+        // queued files are completed, then each worker stops at its end of queue mark
+        for (int i = 0; i < workers; i++)
+          queue.put(END_OF_QUEUE);
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        pool.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      synchronized (pending) {
+        metrics.left(pending.size());
+        if (!pending.isEmpty())
+          log.info(pending.size() + " files not yet stable left unprocessed in " + directory);
+      }
+      metrics.logFigures(directory);
+    }
+  }
+
+  private void seen(Path file) {
+    synchronized (pending) {
+      if (!pending.containsKey(file))
+        pending.put(file, new Candidate(file, System.nanoTime()));
+    }
+  }
+
+  private void stabilize() {
+    long pause = Math.max(10, Math.min(stableMillis / 2, 500));
+    List<Candidate> stable = Collections.emptyList();
+    int queued = 0;
+    try {
+      while (true) {
+        Thread.sleep(pause);
+        stable = stableCandidates();
+        for (queued = 0; queued < stable.size(); queued++) {
+          // blocks while the queue is full: backpressure, the watch keeps recording events meanwhile
+          queue.put(stable.get(queued));
+          metrics.queued(queue.size());
+        }
+      }
+    } catch (InterruptedException ex) {
+      // stopped: the stable files not queued are pending again, not lost
+      restore(stable.subList(queued, stable.size()));
+    }
+  }
+
+  /**
+   * @return The candidates not changed for long enough, removed from pending. Vanished files are dropped.
+   */
+  private List<Candidate> stableCandidates() {
+    List<Candidate> candidates;
+    synchronized (pending) {
+      candidates = new ArrayList<>(pending.values());
+    }
+    List<Candidate> result = new ArrayList<>();
+    long now = System.nanoTime();
+    for (Candidate candidate : candidates) {
+      if (inProgress.contains(candidate.file))
+        continue;
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(candidate.file, BasicFileAttributes.class);
+      } catch (IOException ex) {
+        remove(candidate);
+        continue;
+      }
+      long modified = attributes.lastModifiedTime().toMillis();
+      if (attributes.size() != candidate.size || modified != candidate.modified) {
+        candidate.size = attributes.size();
+        candidate.modified = modified;
+        candidate.unchangedSince = now;
+      } else if ((now - candidate.unchangedSince) / 1_000_000 >= stableMillis) {
+        remove(candidate);
+        if (filter == null || filter.accept(candidate.file)) {
+          inProgress.add(candidate.file);
+          result.add(candidate);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void restore(List<Candidate> candidates) {
+    synchronized (pending) {
+      for (Candidate candidate : candidates) {
+        pending.putIfAbsent(candidate.file, candidate);
+        inProgress.remove(candidate.file);
+      }
+    }
+  }
+
+  private void remove(Candidate candidate) {
+    synchronized (pending) {
+      pending.remove(candidate.file, candidate);
+    }
+  }
+
+  private void work(ParallelJobs.Job job) {
+    try {
+      for (Candidate candidate; (candidate = queue.take()) != END_OF_QUEUE; ) {
+        try {
+          job.run(candidate.file);
+          long latency = System.nanoTime() - candidate.firstSeen;
+          metrics.done(latency);
+          log.fine(String.format(Locale.ROOT, "Processed %s %.1f ms after drop, queue depth %d", candidate.file,
+              latency / 1e6, queue.size()));
+        } catch (RuntimeException ex) {
+          metrics.failed();
+          log.severe("Error processing " + candidate.file + ": " + ex.getMessage());
+        } finally {
+          inProgress.remove(candidate.file);
+        }
+      }
+    } catch (InterruptedException ex) {
+      // stopped
+    }
+  }
+
+  /**
+   * Figures of a watch: queue depth and latency from the first event of a file to the end of its processing.
+   */
+  public static class Metrics {
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private int done, failed, overflows, left;
+    private long totalLatency, maxLatency;
+
+    private void queued(int depth) {
+      maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    private synchronized void done(long latencyNanos) {
+      done++;
+      totalLatency += latencyNanos;
+      maxLatency = Math.max(maxLatency, latencyNanos);
+    }
+
+    private synchronized void failed() {
+      failed++;
+    }
+
+    private synchronized void overflow() {
+      overflows++;
+    }
+
+    private synchronized void left(int files) {
+      left = files;
+    }
+
+    public int getMaxQueueDepth() {
+      return maxQueueDepth.get();
+    }
+
+    public synchronized int getDone() {
+      return done;
+    }
+
+    public synchronized int getFailed() {
+      return failed;
+    }
+
+    public synchronized int getOverflows() {
+      return overflows;
+    }
+
+    /**
+     * @return The files seen and not processed when the watch stopped.
+     */
+    public synchronized int getLeft() {
+      return left;
+    }
+
+    /**
+     * @return Mean milliseconds from the first event of a file to the end of its processing.
+     */
+    public synchronized double getMeanLatencyMillis() {
+      return done == 0 ? 0 : totalLatency / 1e6 / done;
+    }
+
+    public synchronized double getMaxLatencyMillis() {
+      return maxLatency / 1e6;
+    }
+
+    private synchronized void logFigures(Path directory) {
+      log.info(String.format(Locale.ROOT, "Watch of %s: %d files done, %d failed, %d overflows, max queue depth " +
+              "%d, drop to done latency mean %.1f ms max %.1f ms", directory, done, failed, overflows,
+          getMaxQueueDepth(), getMeanLatencyMillis(), getMaxLatencyMillis()));
+    }
+  }
+
+  /**
+   * Lists the files of the directory to process.
+   */
+  public interface Rescan {
+    List<Path> list();
+  }
+
+}
@@ -1,13 +1,24 @@
 package net.cbsolution.crypthru;
 
+import net.cbsolution.crypthru.crypt.CryptoProviders;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@SpringBootTest(args = {"-ks", CrypthruApplicationTests.KEYSTORE, "-help"})
 class CrypthruApplicationTests {
 
+  // not the keystore of the user running the tests
+  static final String KEYSTORE = "target/test-keystore";
+
   @Test
   void contextLoads() {
+    // help needs no provider calibration
+    assertFalse(Files.exists(Paths.get(KEYSTORE, CryptoProviders.CALIBRATION_FILE)));
   }
 
 }
@@ -0,0 +1,146 @@
+package net.cbsolution.crypthru;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobServerTest {
+
+  private final List<Map<?, ?>> executed = new ArrayList<>();
+  private final List<String> modes = new ArrayList<>();
+  private final Arguments arguments = new Arguments();
+  private final JobServer jobServer = new JobServer();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private ServerSocket serverSocket;
+  private Path keyStore;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    ReflectionTestUtils.setField(jobServer, "arguments", arguments);
+    ReflectionTestUtils.setField(jobServer, "directiveLoader", new RecordingLoader());
+    keyStore = Files.createTempDirectory("tmpDirPrefix");
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    jobServer.writeToken(keyStore.resolve(JobServer.TOKEN_FILE), serverSocket.getLocalPort());
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    executor.shutdownNow();
+    serverSocket.close();
+  }
+
+  @Test
+  void jobTest() throws Exception {
+    arguments.setForce(true);
+    Future<?> served = serveOne();
+    assertEquals(0, JobClient.run(JobClient.REMOTE, "-ks", keyStore.toString(), "-preview", "encrypt",
+        "path=some/dir", "public-key=~/me.key"));
+    served.get(10, TimeUnit.SECONDS);
+
+    // relative paths are resolved in the working directory of the client, not of the daemon
+    assertEquals(1, executed.size());
+    assertEquals(Paths.get("some/dir").toAbsolutePath().toString(), executed.get(0).get("path"));
+    assertEquals("~/me.key", executed.get(0).get("public-key"));
+    // the switches of the job are added to those of the daemon, then restored
+    assertEquals("preview=true force=true", modes.get(0));
+    assertFalse(arguments.isPreviewMode());
+    assertTrue(arguments.isForce());
+  }
+
+  @Test
+  void failedJobTest() throws Exception {
+    Future<?> served = serveOne();
+    assertEquals(1, JobClient.run(JobClient.REMOTE, "-ks", keyStore.toString(), "-force", "fail"));
+    served.get(10, TimeUnit.SECONDS);
+    assertEquals(1, executed.size());
+    assertFalse(arguments.isForce());
+  }
+
+  @Test
+  void wrongTokenTest() throws Exception {
+    Path otherKeyStore = Files.createTempDirectory("tmpDirPrefix");
+    Files.write(otherKeyStore.resolve(JobServer.TOKEN_FILE),
+        (serverSocket.getLocalPort() + " 0123456789abcdef\n").getBytes(StandardCharsets.US_ASCII));
+    Future<?> served = serveOne();
+    assertEquals(1, JobClient.run(JobClient.REMOTE, "-ks", otherKeyStore.toString(), "encrypt", "path=."));
+    served.get(10, TimeUnit.SECONDS);
+    assertTrue(executed.isEmpty());
+  }
+
+  @Test
+  void silentClientTest() throws Exception {
+    jobServer.headerTimeoutMillis = 200;
+    Future<?> served = serveOne();
+    try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+      // the connection is dropped, so that the next client is served
+      Exception ex = assertThrows(Exception.class, () -> served.get(10, TimeUnit.SECONDS));
+      assertTrue(ex.getCause() instanceof SocketTimeoutException, ex.toString());
+    }
+    Future<?> next = serveOne();
+    assertEquals(0, JobClient.run(JobClient.REMOTE, "-ks", keyStore.toString(), "encrypt", "path=."));
+    next.get(10, TimeUnit.SECONDS);
+  }
+
+  private Future<?> serveOne() {
+    return executor.submit(() -> {
+      try (Socket socket = serverSocket.accept()) {
+        jobServer.serve(socket);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Records the directives of a job instead of executing them; "fail" fails.
+   */
+  private class RecordingLoader extends DirectiveLoader {
+    @Override
+    public List<Directive> load(InputStream in, String sourcePath) {
+      List<Directive> result = new ArrayList<>();
+      for (Object o : (List<?>) new Yaml().load(in)) {
+        Map<?, ?> entries = (Map<?, ?>) o;
+        result.add(new Directive() {
+          @Override
+          public void configure(ConfigurationDecoder config) {
+          }
+
+          @Override
+          public String print() {
+            return entries.toString();
+          }
+
+          @Override
+          public void execute(Arguments args) {
+            executed.add(entries);
+            modes.add("preview=" + args.isPreviewMode() + " force=" + args.isForce());
+            if ("fail".equals(entries.get("directive")))
+              throw new RuntimeException("Failing as asked");
+          }
+        });
+      }
+      return result;
+    }
+  }
+
+}
@@ -0,0 +1,50 @@
+package net.cbsolution.crypthru;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyHistoryIndexTest {
+
+  private static final long T0 = 1_600_000_000_000L, T1 = T0 + 3_600_000L, T2 = T1 + 3_600_000L;
+
+  @Test
+  void lookupTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    // created at T0, replaced at T1, replaced again at T2 by the current key
+    Path first = keyFile(dir, "tarzan@jungle.com~" + T1 / 1000 + ".key", T0);
+    Path second = keyFile(dir, "tarzan@jungle.com~" + T2 / 1000 + ".key", T1);
+    Path current = keyFile(dir, "tarzan@jungle.com.key", T2);
+    keyFile(dir, "jane@jungle.com.key", T0);
+
+    assertNull(FSKeystore.lookupKey(dir, "tarzan@jungle.com", new Date(T0 - 1)));
+    assertEquals(first, FSKeystore.lookupKey(dir, "tarzan@jungle.com", new Date(T0 + 1)));
+    assertEquals(second, FSKeystore.lookupKey(dir, "tarzan@jungle.com", new Date(T1)));
+    assertEquals(second, FSKeystore.lookupKey(dir, "tarzan@jungle.com", new Date(T2)));
+    assertEquals(current, FSKeystore.lookupKey(dir, "tarzan@jungle.com", new Date(T2 + 1)));
+    assertEquals(3, FSKeystore.getHistory(dir, "tarzan@jungle.com").size());
+    assertNull(FSKeystore.lookupKey(dir, "cheeta@jungle.com", new Date()));
+
+    // changes by others are seen through the watch
+    Files.delete(current);
+    Path cheeta = keyFile(dir, "cheeta@jungle.com.key", T0);
+    long deadline = System.currentTimeMillis() + 30_000;
+    while ((FSKeystore.getHistory(dir, "tarzan@jungle.com").size() != 2 ||
+        FSKeystore.lookupKey(dir, "cheeta@jungle.com", new Date()) == null) && System.currentTimeMillis() < deadline)
+      Thread.sleep(50);
+    assertEquals(2, FSKeystore.getHistory(dir, "tarzan@jungle.com").size());
+    assertEquals(cheeta, FSKeystore.lookupKey(dir, "cheeta@jungle.com", new Date()));
+  }
+
+  private static Path keyFile(Path dir, String name, long modificationTime) throws Exception {
+    Path result = Files.write(dir.resolve(name), new byte[]{0});
+    Files.setLastModifiedTime(result, FileTime.fromMillis(modificationTime));
+    return result.toAbsolutePath().normalize();
+  }
+
+}
@@ -0,0 +1,65 @@
+package net.cbsolution.crypthru;
+
+import net.cbsolution.crypthru.crypt.BcPgpService;
+import net.cbsolution.crypthru.crypt.CrypterService;
+import net.cbsolution.crypthru.crypt.KeyType;
+import net.cbsolution.crypthru.crypt.PublicKeyProxy;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = BcPgpService.class)
+class PublicKeyCacheTest {
+
+  @Autowired
+  private CrypterService service;
+
+  @Test
+  void cacheTest() throws Exception {
+    Path tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    Path keyFile = tmpDir.resolve("me@myCo.com.key");
+    Path cacheFile = tmpDir.resolve(FSKeystore.PUBLIC_KEY_CACHE);
+    service.createKeyPair("me@myCo.com", "lalala", KeyType.ECC).getPublicKeyProxy().writeTo(keyFile);
+
+    PublicKeyCache cache = new PublicKeyCache(cacheFile);
+    PublicKeyProxy key = cache.get(keyFile, service);
+    assertSame(key, cache.get(keyFile, service));
+    cache.save();
+    assertTrue(Files.exists(cacheFile));
+
+    // a new cache reads the key from the cache file
+    assertArrayEquals(key.getEncoded(), new PublicKeyCache(cacheFile).get(keyFile, service).getEncoded());
+
+    // a changed key file is read again
+    FileTime time = Files.getLastModifiedTime(keyFile);
+    service.createKeyPair("me@myCo.com", "lalala", KeyType.ECC).getPublicKeyProxy().writeTo(keyFile);
+    Files.setLastModifiedTime(keyFile, FileTime.fromMillis(time.toMillis() + 1000));
+    PublicKeyProxy changed = cache.get(keyFile, service);
+    assertFalse(Arrays.equals(key.getEncoded(), changed.getEncoded()));
+    assertEquals("me@myCo.com", changed.getPartyId());
+    cache.save();
+    assertArrayEquals(changed.getEncoded(), new PublicKeyCache(cacheFile).get(keyFile, service).getEncoded());
+
+    // a cache loaded from its file is saved over it, keys never decoded included
+    Path otherKeyFile = tmpDir.resolve("other@myCo.com.key");
+    service.createKeyPair("other@myCo.com", "lalala", KeyType.ECC).getPublicKeyProxy().writeTo(otherKeyFile);
+    PublicKeyCache loaded = new PublicKeyCache(cacheFile);
+    PublicKeyProxy other = loaded.get(otherKeyFile, service);
+    loaded.save();
+    PublicKeyCache reloaded = new PublicKeyCache(cacheFile);
+    assertArrayEquals(changed.getEncoded(), reloaded.get(keyFile, service).getEncoded());
+    assertArrayEquals(other.getEncoded(), reloaded.get(otherKeyFile, service).getEncoded());
+
+    // a damaged cache file is ignored
+    Files.write(cacheFile, new byte[]{1, 2, 3});
+    assertArrayEquals(changed.getEncoded(), new PublicKeyCache(cacheFile).get(keyFile, service).getEncoded());
+  }
+
+}
@@ -1,14 +1,36 @@
 package net.cbsolution.crypthru.crypt;
 
 import net.cbsolution.crypthru.util.PathKit;
+import org.bouncycastle.util.io.Streams;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -66,8 +88,410 @@ class BcPgpServiceTest {
 
   }
 
+  @Test
+  public void compressionTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    KeyPairProxy kp = service.createKeyPair("myId@myCo.com", PASSPHRASE);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i++)
+      text.append(PLAIN_TEXT).append(' ').append(i).append('\n');
+    Path small = path("small.txt");
+    Path large = path("large.txt");
+    Files.write(small, PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+    Files.write(large, text.toString().getBytes(StandardCharsets.UTF_8));
+    for (Compression.Algorithm algorithm : Compression.Algorithm.values()) {
+      Compression compression = new Compression(algorithm, 9);
+      for (Path plainTextFile : new Path[]{small, large}) {
+        Path encryptedFile = path(plainTextFile.getFileName() + "." + algorithm + ".pgp");
+        Path decryptedFile = path(plainTextFile.getFileName() + ".restored");
+        service.encrypt(plainTextFile, encryptedFile, compression, kp.publicKeyProxy);
+        service.decrypt(encryptedFile, decryptedFile, kp.privateKeyProxy);
+        assertEquals(-1L, PathKit.findMismatch(plainTextFile, decryptedFile), compression + " " + plainTextFile);
+      }
+    }
+
+    // text is redundant, random data is not
+    assertEquals(Compression.Algorithm.ZIP, CompressionPolicy.of(CompressionPolicy.AUTO, 0).choose(large).getAlgorithm());
+    Path random = path("random.bin");
+    byte[] bytes = new byte[100000];
+    new Random(42).nextBytes(bytes);
+    Files.write(random, bytes);
+    assertEquals(Compression.NONE, CompressionPolicy.of(CompressionPolicy.AUTO, 0).choose(random));
+  }
+
+  @Test
+  public void streamTest() throws Exception {
+    KeyPairProxy kp = service.createKeyPair("myId@myCo.com", PASSPHRASE);
+    Date modified = new Date(1000L * 1616512491);
+    for (int size : new int[]{PLAIN_TEXT.length(), 200000}) {
+      byte[] plainText = new byte[size];
+      new Random(size).nextBytes(plainText);
+      ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+      service.encrypt(new ByteArrayInputStream(plainText), encrypted, new LiteralMetadata("body.bin", modified),
+          Compression.FAST, kp.publicKeyProxy);
+
+      ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+      LiteralMetadata metadata = service.decrypt(Channels.newChannel(new ByteArrayInputStream(encrypted.toByteArray())),
+          Channels.newChannel(decrypted), kp.privateKeyProxy);
+      assertArrayEquals(plainText, decrypted.toByteArray());
+      assertEquals("body.bin", metadata.getFileName());
+      assertEquals(modified, metadata.getModificationTime());
+    }
+  }
+
+  @Test
+  public void decryptionSessionTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    KeyPairProxy kp = service.createKeyPair("myId@myCo.com", PASSPHRASE);
+    Path plainTextFile = path("plainTextFile.txt");
+    Files.write(plainTextFile, PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+    service.encrypt(plainTextFile, path("1.pgp"), kp.publicKeyProxy);
+    service.encrypt(plainTextFile, path("2.pgp"), kp.publicKeyProxy);
+
+    DecryptionSession session = service.openDecryptionSession(kp.privateKeyProxy, 0);
+    session.decrypt(path("1.pgp"), path("1.txt"));
+    session.decrypt(path("2.pgp"), path("2.txt"));
+    assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("1.txt")));
+    assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("2.txt")));
+
+    // a closed session forgets the keys
+    session.close();
+    assertThrows(IllegalStateException.class, () -> session.decrypt(path("1.pgp"), path("3.txt")));
+  }
+
+  @Test
+  public void providersTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    BcPgpService calibrated = new BcPgpService();
+    calibrated.setProviders(CryptoProviders.configure(null, path(CryptoProviders.CALIBRATION_FILE)));
+    assertTrue(Files.exists(path(CryptoProviders.CALIBRATION_FILE)));
+    KeyPairProxy kp = calibrated.createKeyPair("myId@myCo.com", PASSPHRASE);
+    Path plainTextFile = path("plainTextFile.txt");
+    Files.write(plainTextFile, PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+
+    // whatever the calibration chose reads and writes what Bouncy Castle does
+    calibrated.encrypt(plainTextFile, path("1.pgp"), kp.publicKeyProxy);
+    service.decrypt(path("1.pgp"), path("1.txt"), kp.privateKeyProxy);
+    assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("1.txt")));
+    service.encrypt(plainTextFile, path("2.pgp"), kp.publicKeyProxy);
+    calibrated.decrypt(path("2.pgp"), path("2.txt"), kp.privateKeyProxy);
+    assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("2.txt")));
+
+    Map<String, String> configured = new HashMap<>();
+    configured.put("symmetric", "BC");
+    configured.put("rsa", "default");
+    CryptoProviders providers = CryptoProviders.configure(configured, path(CryptoProviders.CALIBRATION_FILE));
+    assertEquals("BC", providers.get(CryptoProviders.Primitive.SYMMETRIC));
+    assertEquals("default", providers.get(CryptoProviders.Primitive.RSA));
+    configured.put("digest", "NoSuchProvider");
+    assertThrows(RuntimeException.class, () -> CryptoProviders.configure(configured, path("unused")));
+  }
+
+  @Test
+  public void tamperedFileTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    KeyPairProxy kp = service.createKeyPair("myId@myCo.com", PASSPHRASE);
+    Path plainTextFile = path("plainTextFile.txt");
+    Path encryptedFile = path("plainTextFile.txt.pgp");
+    Path decryptedFile = path("plainTextFile.txt.restored");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++)
+      text.append(PLAIN_TEXT).append(' ').append(i).append('\n');
+    Files.write(plainTextFile, text.toString().getBytes(StandardCharsets.UTF_8));
+    service.encrypt(plainTextFile, encryptedFile, kp.publicKeyProxy);
+
+    // flip a byte close to the end of the encrypted data
+    flipByte(encryptedFile, Files.size(encryptedFile) - 30);
+
+    assertThrows(RuntimeException.class, () -> service.decrypt(encryptedFile, decryptedFile, kp.privateKeyProxy));
+    assertFalse(Files.exists(decryptedFile));
+    try (Stream<Path> files = Files.list(tmpDir)) {
+      assertEquals(0, files.filter(p -> p.toString().endsWith(".part")).count());
+    }
+  }
+
+  @Test
+  public void interruptedEncryptTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    KeyPairProxy kp = service.createKeyPair("myId@myCo.com", PASSPHRASE, KeyType.ECC);
+    Path plainTextFile = path("plainTextFile.bin");
+    Path encryptedFile = path("plainTextFile.bin.pgp");
+    Files.write(plainTextFile, new byte[1024 * 1024]);
+    service.encrypt(plainTextFile, encryptedFile, kp.publicKeyProxy);
+    byte[] encrypted = Files.readAllBytes(encryptedFile);
+
+    // an encryption interrupted, as by a pool shut down, leaves the previous encrypted file as it was
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(RuntimeException.class, () -> service.encrypt(plainTextFile, encryptedFile, kp.publicKeyProxy));
+    } finally {
+      Thread.interrupted();
+    }
+    assertArrayEquals(encrypted, Files.readAllBytes(encryptedFile));
+    try (Stream<Path> files = Files.list(tmpDir)) {
+      assertEquals(0, files.filter(p -> p.toString().endsWith(".part")).count());
+    }
+  }
+
+  @Test
+  public void seekableTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    BcPgpService seekableService = new BcPgpService();
+    seekableService.setBlockSize(BcPgpService.BUFFER_SIZE);
+    KeyPairProxy kp = seekableService.createKeyPair("myId@myCo.com", PASSPHRASE);
+    byte[] data = new byte[3 * BcPgpService.BUFFER_SIZE + 1000];
+    new Random(7).nextBytes(data);
+    Path plainTextFile = path("plainTextFile.bin");
+    Path encryptedFile = path("plainTextFile.bin.spgp");
+    Files.write(plainTextFile, data);
+    seekableService.encryptSeekable(plainTextFile, encryptedFile, kp.publicKeyProxy);
+
+    seekableService.decrypt(encryptedFile, path("restored.bin"), kp.privateKeyProxy);
+    assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("restored.bin")));
+
+    // a range across segments, the last bytes and a range exceeding the end
+    assertRange(seekableService, kp, data, BcPgpService.BUFFER_SIZE - 10, 100000);
+    assertRange(seekableService, kp, data, -1500, Long.MAX_VALUE);
+    assertRange(seekableService, kp, data, data.length - 10, 100);
+    assertEquals(0, seekableService.decryptRange(encryptedFile, data.length, 10, new ByteArrayOutputStream(),
+        kp.privateKeyProxy));
+
+    // an OpenPGP file has no ranges
+    service.encrypt(plainTextFile, path("plainTextFile.bin.pgp"), kp.publicKeyProxy);
+    assertThrows(RuntimeException.class, () -> seekableService.decryptRange(path("plainTextFile.bin.pgp"), 0, 10,
+        new ByteArrayOutputStream(), kp.privateKeyProxy));
+
+    // a header claiming another segment size or key message is refused, instead of reading the wrong segments
+    Path resized = Files.copy(encryptedFile, path("resized.spgp"));
+    try (FileChannel channel = FileChannel.open(resized, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(4).putInt(0, 2 * BcPgpService.BUFFER_SIZE), 8);
+    }
+    assertThrows(RuntimeException.class, () -> seekableService.decryptRange(resized,
+        2L * BcPgpService.BUFFER_SIZE + 10, 10, new ByteArrayOutputStream(), kp.privateKeyProxy));
+    assertThrows(RuntimeException.class, () -> seekableService.decrypt(resized, path("resized.bin"),
+        kp.privateKeyProxy));
+    assertFalse(Files.exists(path("resized.bin")));
+
+    // a damaged segment only spoils the ranges it covers
+    flipByte(encryptedFile, Files.size(encryptedFile) / 2);
+    assertRange(seekableService, kp, data, 0, 100);
+    assertThrows(RuntimeException.class, () -> seekableService.decrypt(encryptedFile, path("damaged.bin"),
+        kp.privateKeyProxy));
+    assertFalse(Files.exists(path("damaged.bin")));
+  }
+
+  @Test
+  public void eccTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    KeyPairProxy ecc = service.createKeyPair("ecc@myCo.com", PASSPHRASE, KeyType.ECC);
+    ecc.getPrivateKeyProxy().writeTo(path("ecc.private"));
+    ecc.getPublicKeyProxy().writeTo(path("ecc.public"));
+    KeyPairProxy rsa = service.createKeyPair("rsa@myCo.com", PASSPHRASE, KeyType.RSA);
+
+    // JDK providers for RSA and data, ECC keys still need Bouncy Castle
+    BcPgpService jdkService = new BcPgpService();
+    Map<String, String> configured = new HashMap<>();
+    configured.put("symmetric", "default");
+    configured.put("rsa", "default");
+    configured.put("digest", "default");
+    jdkService.setProviders(CryptoProviders.configure(configured, path("unused")));
+
+    Path plainTextFile = path("plainTextFile.txt");
+    Files.write(plainTextFile, PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+    for (CrypterService encrypting : new CrypterService[]{service, jdkService}) {
+      encrypting.encrypt(plainTextFile, path("mixed.pgp"), rsa.publicKeyProxy,
+          encrypting.readPublicKey(path("ecc.public")));
+      for (CrypterService decrypting : new CrypterService[]{service, jdkService}) {
+        decrypting.decrypt(path("mixed.pgp"), path("ecc.txt"),
+            decrypting.readPrivateKey(path("ecc.private"), PASSPHRASE));
+        assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("ecc.txt")));
+        decrypting.decrypt(path("mixed.pgp"), path("rsa.txt"), rsa.privateKeyProxy);
+        assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("rsa.txt")));
+      }
+    }
+  }
+
+  @Test
+  public void keyPairFactoryTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    Path plainTextFile = path("plainTextFile.txt");
+    Files.write(plainTextFile, PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+    List<KeyPairProxy> keyPairs = new ArrayList<>();
+    try (KeyPairFactory factory = service.openKeyPairFactory(2)) {
+      Stream.of(KeyType.RSA, KeyType.ECC, KeyType.RSA).parallel()
+          .map(keyType -> factory.createKeyPair(keyType + "@myCo.com", PASSPHRASE, keyType))
+          .forEachOrdered(keyPairs::add);
+    }
+    for (KeyPairProxy kp : keyPairs) {
+      service.encrypt(plainTextFile, path("factory.pgp"), kp.publicKeyProxy);
+      service.decrypt(path("factory.pgp"), path("factory.txt"), kp.privateKeyProxy);
+      assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("factory.txt")));
+    }
+  }
+
+  @Test
+  public void manyRecipientsTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    Path plainTextFile = path("plainTextFile.txt");
+    Files.write(plainTextFile, PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+    List<KeyPairProxy> keyPairs = new ArrayList<>();
+    try (KeyPairFactory factory = service.openKeyPairFactory(2)) {
+      keyPairs.add(factory.createKeyPair("rsa@myCo.com", PASSPHRASE, KeyType.RSA));
+      for (int i = 1; i < BcPgpService.PARALLEL_WRAPPING_RECIPIENTS + 4; i++)
+        keyPairs.add(factory.createKeyPair("ecc" + i + "@myCo.com", PASSPHRASE, KeyType.ECC));
+    }
+    service.encrypt(plainTextFile, path("many.pgp"),
+        keyPairs.stream().map(KeyPairProxy::getPublicKeyProxy).toArray(PublicKeyProxy[]::new));
+    for (int i : new int[]{0, keyPairs.size() / 2, keyPairs.size() - 1}) {
+      service.decrypt(path("many.pgp"), path("many.txt"), keyPairs.get(i).privateKeyProxy);
+      assertEquals(-1L, PathKit.findMismatch(plainTextFile, path("many.txt")));
+    }
+  }
+
+  @Test
+  public void archiveTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    BcPgpService archiveService = new BcPgpService();
+    archiveService.setBlockSize(BcPgpService.BUFFER_SIZE);
+    KeyPairProxy kp = archiveService.createKeyPair("myId@myCo.com", PASSPHRASE);
+    Path source = Files.createDirectories(path("source"));
+    Files.createDirectories(source.resolve("sub"));
+    List<Path> files = new ArrayList<>();
+    Random random = new Random(11);
+    for (int i = 0; i < 50; i++) {
+      byte[] data = new byte[random.nextInt(10000)];
+      random.nextBytes(data);
+      files.add(Files.write(source.resolve(i % 2 == 0 ? "file" + i + ".bin" : "sub/file" + i + ".bin"), data));
+    }
+    Path archiveFile = path("bundle.spar");
+    archiveService.encryptArchive(files, source, archiveFile, kp.publicKeyProxy);
+
+    // a single member
+    Path target = path("target");
+    List<Path> extracted = archiveService.extractArchive(archiveFile, "sub/file7.bin"::equals, target, false,
+        kp.privateKeyProxy);
+    assertEquals(1, extracted.size());
+    assertEquals(-1L, PathKit.findMismatch(source.resolve("sub/file7.bin"), target.resolve("sub/file7.bin")));
+    assertEquals(Files.getLastModifiedTime(source.resolve("sub/file7.bin")).toMillis(),
+        Files.getLastModifiedTime(target.resolve("sub/file7.bin")).toMillis());
+
+    // all the others, the one already extracted is up to date
+    extracted = archiveService.extractArchive(archiveFile, name -> true, target, false, kp.privateKeyProxy);
+    assertEquals(files.size() - 1, extracted.size());
+    for (Path file : files)
+      assertEquals(-1L, PathKit.findMismatch(file, target.resolve(source.relativize(file))));
+  }
+
+  @Test
+  public void zipTest() throws Exception {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    KeyPairProxy kp = service.createKeyPair("myId@myCo.com", PASSPHRASE);
+    Path source = Files.createDirectories(path("source"));
+    Files.createDirectories(source.resolve("sub"));
+    List<Path> files = new ArrayList<>();
+    Random random = new Random(13);
+    for (int i = 0; i < 30; i++) {
+      // mostly compressible, one entry too large to be deflated ahead
+      byte[] data = new byte[i == 5 ? ZipBundle.PARALLEL_ENTRY_SIZE + 1000 : random.nextInt(100000)];
+      for (int j = 0; j < data.length; j += 7)
+        data[j] = (byte) random.nextInt(4);
+      files.add(Files.write(source.resolve(i % 2 == 0 ? "file" + i + ".bin" : "sub/file" + i + ".bin"), data));
+    }
+    for (int parallelism : new int[]{1, 3}) {
+      Path encryptedFile = path("bundle" + parallelism + ".zip.pgp");
+      Path zipFile = path("bundle" + parallelism + ".zip");
+      service.encryptZip(files, source, zipFile.getFileName().toString(), encryptedFile, Compression.NONE,
+          parallelism, kp.publicKeyProxy);
+      service.decrypt(encryptedFile, zipFile, kp.privateKeyProxy);
+
+      // read sequentially, with data descriptors
+      Map<String, byte[]> entries = new HashMap<>();
+      try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zipFile))) {
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+          ByteArrayOutputStream data = new ByteArrayOutputStream();
+          Streams.pipeAll(in, data);
+          entries.put(entry.getName(), data.toByteArray());
+        }
+      }
+      assertEquals(files.size(), entries.size());
+      // and through the central directory
+      try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+        for (Path file : files) {
+          String name = source.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+          assertArrayEquals(Files.readAllBytes(file), entries.get(name), name);
+          ZipEntry entry = zip.getEntry(name);
+          assertEquals(Files.size(file), entry.getSize(), name);
+          try (InputStream in = zip.getInputStream(entry)) {
+            assertArrayEquals(Files.readAllBytes(file), Streams.readAll(in), name);
+          }
+        }
+      }
+
+      // extracted while decrypted
+      Path target = path("target" + parallelism);
+      assertEquals(files.size(), service.extractZip(encryptedFile, target, parallelism, kp.privateKeyProxy).size());
+      for (Path file : files) {
+        assertEquals(-1L, PathKit.findMismatch(file, target.resolve(source.relativize(file))));
+        assertEquals(Files.getLastModifiedTime(file).toMillis() / 2000,
+            Files.getLastModifiedTime(target.resolve(source.relativize(file))).toMillis() / 2000);
+      }
+    }
+
+    // nothing is extracted from a tampered file
+    Path encryptedFile = path("bundle3.zip.pgp");
+    flipByte(encryptedFile, Files.size(encryptedFile) - 30);
+    Path target = path("tampered");
+    assertThrows(RuntimeException.class, () -> service.extractZip(encryptedFile, target, 3, kp.privateKeyProxy));
+    try (Stream<Path> extracted = Files.walk(target)) {
+      assertEquals(0, extracted.filter(Files::isRegularFile).count());
+    }
+
+    // nor from a zip escaping the directory
+    ByteArrayOutputStream slip = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(slip)) {
+      out.putNextEntry(new ZipEntry("inside.txt"));
+      out.write(PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+      out.putNextEntry(new ZipEntry("../outside.txt"));
+      out.write(PLAIN_TEXT.getBytes(StandardCharsets.UTF_8));
+    }
+    Path slipFile = path("slip.zip.pgp");
+    try (OutputStream out = Files.newOutputStream(slipFile)) {
+      service.encrypt(new ByteArrayInputStream(slip.toByteArray()), out, new LiteralMetadata("slip.zip", new Date()),
+          Compression.NONE, kp.publicKeyProxy);
+    }
+    Path slipTarget = Files.createDirectories(path("slip"));
+    assertThrows(RuntimeException.class, () -> service.extractZip(slipFile, slipTarget, 1, kp.privateKeyProxy));
+    assertFalse(Files.exists(tmpDir.resolve("outside.txt")));
+    try (Stream<Path> extracted = Files.list(slipTarget)) {
+      assertEquals(0, extracted.count());
+    }
+  }
+
+  private void assertRange(CrypterService service, KeyPairProxy kp, byte[] data, long offset, long length) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long written = service.decryptRange(path("plainTextFile.bin.spgp"), offset, length, out, kp.privateKeyProxy);
+    int from = (int) (offset < 0 ? data.length + offset : offset);
+    int to = (int) Math.min(data.length, from + Math.min(length, data.length));
+    assertEquals(to - from, written);
+    assertArrayEquals(Arrays.copyOfRange(data, from, to), out.toByteArray());
+  }
+
+  /**
+   * Flip the lowest bit of a byte of a file.
+   */
+  private static void flipByte(Path file, long position) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer b = ByteBuffer.allocate(1);
+      channel.read(b, position);
+      b.put(0, (byte) (b.get(0) ^ 0x01));
+      b.rewind();
+      channel.write(b, position);
+    }
+  }
+
   private Path path(String fileName) {
     return Paths.get(tmpDir.toString(), fileName);
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+package net.cbsolution.crypthru.crypt;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerformanceTest {
+
+  @Test
+  void overlappingTest() throws Exception {
+    Path file = Files.write(Files.createTempDirectory("tmpDirPrefix").resolve("file.bin"), new byte[1000]);
+    Performance performance = new Performance("Test");
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    Runnable job = () -> performance.measure(file, () -> {
+      try {
+        barrier.await();
+        Thread.sleep(200);
+      } catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    });
+    Thread other = new Thread(job);
+    other.start();
+    job.run();
+    other.join();
+
+    // two jobs running together count their common time once
+    assertEquals(2000L, ReflectionTestUtils.getField(performance, "bytes"));
+    long millis = (Long) ReflectionTestUtils.getField(performance, "nanos") / 1_000_000;
+    assertTrue(millis >= 200 && millis < 350, millis + " ms");
+
+    // one after the other they add up
+    performance.measure(file, () -> pause(100));
+    performance.measure(file, () -> pause(100));
+    millis = (Long) ReflectionTestUtils.getField(performance, "nanos") / 1_000_000;
+    assertTrue(millis >= 400, millis + " ms");
+  }
+
+  @Test
+  void failureTest() throws Exception {
+    Path file = Files.write(Files.createTempDirectory("tmpDirPrefix").resolve("file.bin"), new byte[1000]);
+    Performance performance = new Performance("Test");
+    assertThrows(IllegalStateException.class, () -> performance.measure(file, () -> {
+      throw new IllegalStateException("Failing as asked");
+    }));
+    // the size of a failed file is not accounted, its time is
+    assertNull(performance.getFigures());
+    assertEquals(0, ReflectionTestUtils.getField(performance, "running"));
+
+    performance.measure(file, () -> pause(10));
+    performance.tally("ZIP");
+    performance.tally("ZIP");
+    String figures = performance.getFigures();
+    assertTrue(figures.startsWith("Test - ") && figures.contains(" bytes in "), figures);
+    assertTrue(figures.endsWith("Files by {ZIP=2}"), figures);
+  }
+
+  @Test
+  void manyFilesTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    Path first = Files.write(dir.resolve("first.bin"), new byte[1000]);
+    Path second = Files.write(dir.resolve("second.bin"), new byte[500]);
+    Performance performance = new Performance("Test");
+    // the files produced are accounted, as those extracted from a zip
+    performance.measure(() -> Arrays.asList(first, second));
+    assertEquals(1500L, ReflectionTestUtils.getField(performance, "bytes"));
+  }
+
+  private static void pause(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+package net.cbsolution.crypthru.crypt;
+
+import net.cbsolution.crypthru.util.PathKit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Encrypt and decrypt payloads larger than the heap, which only works streaming. It runs in its own surefire
+ * execution with a small heap (see the pom); -Dcrypthru.test.large-size=(bytes) tries a multi-GB payload.
+ */
+class StreamingMemoryTest {
+
+  private static final long SMALL_SIZE = 10L * 1024 * 1024;
+  private static final long LARGE_SIZE = Long.getLong("crypthru.test.large-size", 160L * 1024 * 1024);
+  private static final String PASSPHRASE = "lalala";
+
+  private final BcPgpService service = new BcPgpService();
+  private KeyPairProxy kp;
+  private Path tmpDir;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("tmpDirPrefix");
+    kp = service.createKeyPair("myId@myCo.com", PASSPHRASE, KeyType.ECC);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(tmpDir)) {
+      for (Path file : (Iterable<Path>) files::iterator)
+        Files.delete(file);
+    }
+    Files.delete(tmpDir);
+  }
+
+  @Test
+  void smallPayloadTest() throws Exception {
+    cycle(SMALL_SIZE);
+  }
+
+  @Test
+  void largePayloadTest() throws Exception {
+    assumeTrue(Runtime.getRuntime().maxMemory() < LARGE_SIZE, "Heap too large to prove streaming");
+    cycle(LARGE_SIZE);
+  }
+
+  private void cycle(long size) throws IOException {
+    Path plainTextFile = tmpDir.resolve("payload.bin");
+    // a random block numbered each time: cheap to write and never the same twice
+    byte[] block = new byte[1024 * 1024];
+    new Random(size).nextBytes(block);
+    try (OutputStream out = Files.newOutputStream(plainTextFile)) {
+      for (long written = 0; written < size; written += block.length) {
+        ByteBuffer.wrap(block).putLong(written);
+        out.write(block, 0, (int) Math.min(block.length, size - written));
+      }
+    }
+    Path encryptedFile = tmpDir.resolve("payload.bin.pgp");
+    Path decryptedFile = tmpDir.resolve("payload.bin.restored");
+    service.encrypt(plainTextFile, encryptedFile, Compression.NONE, kp.getPublicKeyProxy());
+    service.decrypt(encryptedFile, decryptedFile, kp.getPrivateKeyProxy());
+    assertEquals(size, Files.size(decryptedFile));
+    assertEquals(-1L, PathKit.findMismatch(plainTextFile, decryptedFile));
+  }
+
+}
@@ -0,0 +1,112 @@
+package net.cbsolution.crypthru.directives;
+
+import net.cbsolution.crypthru.Arguments;
+import net.cbsolution.crypthru.FSKeystore;
+import net.cbsolution.crypthru.crypt.KeyType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProvisionKeyPairsTest {
+
+  private final Arguments arguments = new Arguments();
+  private Path dir;
+  private Path privateKeys;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    dir = Files.createTempDirectory("tmpDirPrefix");
+    arguments.setKeyStore(dir.resolve("keystore").toString());
+    FSKeystore keystore = new FSKeystore();
+    ReflectionTestUtils.setField(keystore, "arguments", arguments);
+    arguments.setFsKeystore(keystore);
+    privateKeys = dir.resolve("keystore/keys/private");
+  }
+
+  @Test
+  void csvTest() throws Exception {
+    Path csv = write("ids.csv",
+        "private-id,pass,key-type",
+        "# comment",
+        "",
+        "alice@myCo.com, \"pass, with \"\"comma\"\"\"",
+        "bob@myCo.com,bobs-passphrase,ecc");
+    provision(csv, false);
+    assertTrue(Files.exists(privateKeys.resolve("alice@myCo.com" + FSKeystore.KEY)));
+    assertTrue(Files.exists(privateKeys.resolve("bob@myCo.com" + FSKeystore.KEY)));
+
+    // present key pairs are skipped, unless replaced
+    byte[] key = Files.readAllBytes(privateKeys.resolve("bob@myCo.com" + FSKeystore.KEY));
+    provision(csv, false);
+    assertArrayEquals(key, Files.readAllBytes(privateKeys.resolve("bob@myCo.com" + FSKeystore.KEY)));
+    assertEquals(2, keyFiles());
+    provision(csv, true);
+    assertFalse(Arrays.equals(key, Files.readAllBytes(privateKeys.resolve("bob@myCo.com" + FSKeystore.KEY))));
+    // the replaced ones are kept as expired
+    assertEquals(4, keyFiles());
+  }
+
+  @Test
+  void unterminatedQuoteTest() throws Exception {
+    Path csv = write("ids.csv",
+        "alice@myCo.com,\"alices-passphrase",
+        "bob@myCo.com,bobs-passphrase\"");
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> provision(csv, false));
+    assertTrue(ex.getMessage().startsWith("Unterminated quoted field at line 1"), ex.getMessage());
+    assertFalse(Files.exists(privateKeys));
+  }
+
+  @Test
+  void yamlTest() throws Exception {
+    Path yaml = write("ids.yml",
+        "- private-id: alice@myCo.com",
+        "  pass: alices-passphrase",
+        "- private-id: bob@myCo.com",
+        "  pass: bobs-passphrase",
+        "  key-type: ecc");
+    provision(yaml, false);
+    assertEquals(2, keyFiles());
+
+    // nothing is created if any identity is wrong
+    Path duplicate = write("duplicate.yml",
+        "- {private-id: carol@myCo.com, pass: carols-passphrase}",
+        "- {private-id: dave@myCo.com, pass: daves-passphrase}",
+        "- {private-id: carol@myCo.com, pass: other-passphrase}");
+    RuntimeException ex = assertThrows(RuntimeException.class, () -> provision(duplicate, false));
+    assertTrue(ex.getMessage().startsWith("Duplicate identity carol@myCo.com"), ex.getMessage());
+    Path invalid = write("invalid.yml",
+        "- {private-id: carol@myCo.com, pass: carols-passphrase}",
+        "- {private-id: 'dave at myCo', pass: daves-passphrase}");
+    ex = assertThrows(RuntimeException.class, () -> provision(invalid, false));
+    assertTrue(ex.getMessage().startsWith("Invalid identity [dave at myCo]"), ex.getMessage());
+    assertEquals(2, keyFiles());
+  }
+
+  private void provision(Path source, boolean replace) {
+    ProvisionKeyPairs directive = new ProvisionKeyPairs();
+    ReflectionTestUtils.setField(directive, "source", source);
+    ReflectionTestUtils.setField(directive, "keyType", KeyType.ECC);
+    ReflectionTestUtils.setField(directive, "parallelism", 2);
+    ReflectionTestUtils.setField(directive, "replace", replace);
+    directive.execute(arguments);
+  }
+
+  private Path write(String name, String... lines) throws Exception {
+    return Files.write(dir.resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+  }
+
+  private long keyFiles() throws Exception {
+    try (Stream<Path> files = Files.list(privateKeys)) {
+      return files.filter(p -> p.toString().endsWith(FSKeystore.KEY)).count();
+    }
+  }
+
+}
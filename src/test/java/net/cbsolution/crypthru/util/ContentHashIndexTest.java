@@ -0,0 +1,88 @@
+package net.cbsolution.crypthru.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentHashIndexTest {
+
+  @Test
+  void indexTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    byte[] content = new byte[100_000];
+    new Random(1).nextBytes(content);
+    // more records than the index reads at a time
+    Path[] files = new Path[150];
+    for (int i = 0; i < files.length; i++)
+      files[i] = Files.write(dir.resolve("file" + i + ".csv"), content);
+    try (ContentHashIndex index = new ContentHashIndex(dir)) {
+      for (Path file : files)
+        index.record(file, 1);
+      // recorded in this execution
+      assertTrue(index.isUnchanged(files[0], 1));
+    }
+
+    // rewritten with the same content, with a change in the middle, for other recipients
+    Files.write(files[0], content);
+    content[50_000]++;
+    Files.write(files[1], content);
+    try (ContentHashIndex index = new ContentHashIndex(dir)) {
+      assertTrue(index.isUnchanged(files[0], 1));
+      assertFalse(index.isUnchanged(files[1], 1));
+      assertFalse(index.isUnchanged(files[2], 2));
+      assertFalse(index.isUnchanged(dir.resolve("unknown.csv"), 1));
+      index.record(files[1], 1);
+      index.record(files[2], 2);
+    }
+
+    // merged with the records of previous executions
+    try (ContentHashIndex index = new ContentHashIndex(dir)) {
+      for (int i = 0; i < files.length; i++)
+        assertTrue(index.isUnchanged(files[i], i == 2 ? 2 : 1), files[i].toString());
+    }
+    assertEquals(12 + 150 * 64, Files.size(dir.resolve(ContentHashIndex.FILE_NAME)));
+  }
+
+  @Test
+  void expiryTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    byte[] content = new byte[1000];
+    new Random(2).nextBytes(content);
+    Path[] files = new Path[3];
+    for (int i = 0; i < files.length; i++)
+      files[i] = Files.write(dir.resolve("file" + i + ".csv"), content);
+    try (ContentHashIndex index = new ContentHashIndex(dir)) {
+      for (Path file : files)
+        index.record(file, 1);
+    }
+    // every record last seen long ago
+    int longAgo = (int) (System.currentTimeMillis() / (24 * 60 * 60 * 1000L)) - ContentHashIndex.EXPIRY_DAYS - 1;
+    try (FileChannel channel = FileChannel.open(dir.resolve(ContentHashIndex.FILE_NAME), StandardOpenOption.WRITE)) {
+      for (int i = 0; i < files.length; i++)
+        channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(longAgo).flip(), 12 + i * 64 + 20);
+    }
+
+    // a file found up to date, with nothing to save
+    try (ContentHashIndex index = new ContentHashIndex(dir)) {
+      index.seen(files[0]);
+    }
+    // a file encrypted with the hash computed while encrypting, the index rewritten
+    try (ContentHashIndex index = new ContentHashIndex(dir)) {
+      index.record(files[1], 1, PathKit.sha256(files[1]));
+    }
+    try (ContentHashIndex index = new ContentHashIndex(dir)) {
+      assertTrue(index.isUnchanged(files[0], 1));
+      assertTrue(index.isUnchanged(files[1], 1));
+      assertFalse(index.isUnchanged(files[2], 1));
+    }
+    assertEquals(12 + 2 * 64, Files.size(dir.resolve(ContentHashIndex.FILE_NAME)));
+  }
+
+}
@@ -0,0 +1,50 @@
+package net.cbsolution.crypthru.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectorySnapshotTest {
+
+  private static final List<WatchEvent.Kind<?>> ALL = Arrays.asList(StandardWatchEventKinds.ENTRY_CREATE,
+      StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+  @Test
+  void compareTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    Files.write(dir.resolve("kept.txt"), new byte[10]);
+    Files.write(dir.resolve("grown.txt"), new byte[10]);
+    Files.write(dir.resolve("deleted.txt"), new byte[10]);
+    DirectorySnapshot snapshot = new DirectorySnapshot();
+    snapshot.record(dir);
+    assertTrue(snapshot.compare(ALL).isEmpty());
+
+    Files.write(dir.resolve("grown.txt"), new byte[10], StandardOpenOption.APPEND);
+    Files.delete(dir.resolve("deleted.txt"));
+    Files.write(dir.resolve("new.txt"), new byte[10]);
+    Files.createDirectory(dir.resolve("sub"));
+    Map<Path, List<WatchEvent<?>>> changes = snapshot.compare(ALL);
+    assertEquals(Collections.singleton(dir), changes.keySet());
+    Map<String, WatchEvent.Kind<?>> events = new HashMap<>();
+    for (WatchEvent<?> event : changes.get(dir))
+      events.put(event.context().toString(), event.kind());
+    assertEquals(StandardWatchEventKinds.ENTRY_MODIFY, events.get("grown.txt"));
+    assertEquals(StandardWatchEventKinds.ENTRY_DELETE, events.get("deleted.txt"));
+    assertEquals(StandardWatchEventKinds.ENTRY_CREATE, events.get("new.txt"));
+    assertEquals(StandardWatchEventKinds.ENTRY_CREATE, events.get("sub"));
+    assertEquals(4, events.size());
+    assertTrue(snapshot.compare(ALL).isEmpty());
+
+    // only the requested kinds are returned
+    Files.write(dir.resolve("kept.txt"), new byte[10], StandardOpenOption.APPEND);
+    assertTrue(snapshot.compare(Collections.singletonList(StandardWatchEventKinds.ENTRY_CREATE)).isEmpty());
+  }
+
+}
@@ -0,0 +1,73 @@
+package net.cbsolution.crypthru.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileGrabberTest {
+
+  @Test
+  void globTest() {
+    String[] globs = {"*", "*.txt", "*.{txt,csv}", "report-??.pdf", "[a-c]*", "[!a-c]*", "**.gz", "a\\*b",
+        "data.(1)+", "x{,y}z"};
+    String[] names = {"a.txt", "b.csv", "report-01.pdf", "report-1.pdf", "delta", "file.tar.gz", "a*b", "axb",
+        "data.(1)+", "data.1", "xz", "xyz", "", ".hidden.txt"};
+    for (String glob : globs) {
+      PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      Pattern actual = Pattern.compile(FileGrabber.GlobFilter.toRegex(glob));
+      for (String name : names) {
+        if (!name.isEmpty())
+          assertEquals(expected.matches(Paths.get(name)), actual.matcher(name).matches(), glob + " on " + name);
+      }
+    }
+  }
+
+  @Test
+  void grabTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    Files.write(dir.resolve("small.txt"), new byte[10]);
+    Files.write(dir.resolve("large.txt"), new byte[10_000]);
+    Files.write(dir.resolve("old.txt"), new byte[1000]);
+    Files.setLastModifiedTime(dir.resolve("old.txt"), FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+    Files.write(dir.resolve("skipped.txt"), new byte[1000]);
+    Files.write(dir.resolve("other.bin"), new byte[1000]);
+
+    // the first matching pattern wins
+    FileGrabber grabber = new FileGrabber(dir.toString());
+    grabber.filter(FileGrabber.GlobFilter.Action.EXCLUDE, "skip*");
+    grabber.filter(FileGrabber.GlobFilter.Action.INCLUDE, "*.txt");
+    grabber.filter(FileGrabber.GlobFilter.Action.EXCLUDE, "*");
+    assertEquals(names("large.txt", "old.txt", "small.txt"), names(grabber));
+
+    grabber.limitSize(100, 5000);
+    assertEquals(names("old.txt"), names(grabber));
+    grabber.limitSize(0, Long.MAX_VALUE);
+    grabber.limitAge(0, 60_000);
+    assertEquals(names("large.txt", "small.txt"), names(grabber));
+  }
+
+  private static Set<String> names(String... names) {
+    Set<String> result = new HashSet<>();
+    for (String name : names)
+      result.add(name);
+    return result;
+  }
+
+  private static Set<String> names(FileGrabber grabber) {
+    Set<String> result = new HashSet<>();
+    for (Path file : grabber.grab(null))
+      result.add(file.getFileName().toString());
+    return result;
+  }
+
+}
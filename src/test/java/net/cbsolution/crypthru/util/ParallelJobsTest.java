@@ -0,0 +1,134 @@
+package net.cbsolution.crypthru.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelJobsTest {
+
+  @Test
+  void sequentialTest() throws Exception {
+    List<Path> files = files(3);
+    List<Path> processed = new ArrayList<>();
+    Thread caller = Thread.currentThread();
+    new ParallelJobs(1).run(files, file -> {
+      assertSame(caller, Thread.currentThread());
+      processed.add(file);
+    });
+    // in the given order, not largest first
+    assertEquals(files, processed);
+  }
+
+  @Test
+  void poolSizeTest() throws Exception {
+    AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    ParallelJobs.Job job = file -> {
+      threads.add(Thread.currentThread().getName());
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      pause(20);
+      running.decrementAndGet();
+    };
+    new ParallelJobs(3).run(files(12), job);
+    assertEquals(3, maxRunning.get());
+    assertEquals(3, threads.size());
+
+    // no more workers than files
+    threads.clear();
+    new ParallelJobs(8).run(files(2), job);
+    assertEquals(2, threads.size());
+  }
+
+  @Test
+  void largestFirstTest() throws Exception {
+    List<Path> files = files(6);
+    List<Path> started = Collections.synchronizedList(new ArrayList<>());
+    new ParallelJobs(2).run(files, file -> {
+      started.add(file);
+      pause(20);
+    });
+    // files(n) are written smallest first
+    assertEquals(new HashSet<>(files.subList(4, 6)), new HashSet<>(started.subList(0, 2)));
+    assertEquals(new HashSet<>(files.subList(0, 2)), new HashSet<>(started.subList(4, 6)));
+  }
+
+  @Test
+  void failureTest() throws Exception {
+    List<Path> files = files(20);
+    Path largest = files.get(files.size() - 1);
+    AtomicInteger executed = new AtomicInteger();
+    RuntimeException failure = new RuntimeException("Failing as asked");
+    RuntimeException thrown = assertThrows(RuntimeException.class, () -> new ParallelJobs(2).run(files, file -> {
+      executed.incrementAndGet();
+      if (file.equals(largest))
+        throw failure;
+      pause(50);
+    }));
+    assertSame(failure, thrown);
+    // the files still waiting are skipped
+    assertTrue(executed.get() < files.size(), executed.toString());
+
+    assertThrows(AssertionError.class, () -> new ParallelJobs(2).run(files(2), file -> {
+      throw new AssertionError("Failing as asked");
+    }));
+  }
+
+  @Test
+  void failureNextToSlowJobsTest() throws Exception {
+    List<Path> files = files(6);
+    Path largest = files.get(files.size() - 1);
+    RuntimeException thrown = assertThrows(RuntimeException.class, () -> new ParallelJobs(3).run(files, file -> {
+      if (file.equals(largest)) {
+        pause(30);
+        throw new RuntimeException("Failing as asked");
+      }
+      // written slowly through an interruptible channel
+      try (OutputStream out = ChannelIO.newOutputStream(output(file), 1024)) {
+        for (int i = 0; i < 10; i++) {
+          out.write(new byte[100]);
+          pause(20);
+        }
+      } catch (Exception ex) {
+        throw new RuntimeException("Error writing " + output(file), ex);
+      }
+    }));
+    assertEquals("Failing as asked", thrown.getMessage());
+    // the jobs running when the other failed have been completed, those waiting were not started
+    for (Path file : files)
+      if (Files.exists(output(file)))
+        assertEquals(1000, Files.size(output(file)), file.toString());
+    assertTrue(Files.exists(output(files.get(files.size() - 2))));
+    assertFalse(Files.exists(output(files.get(0))));
+  }
+
+  private static Path output(Path file) {
+    return file.resolveSibling(file.getFileName() + ".out");
+  }
+
+  /**
+   * @return Files of increasing size.
+   */
+  private static List<Path> files(int count) throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    List<Path> result = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+      result.add(Files.write(dir.resolve("file" + i + ".bin"), new byte[(i + 1) * 100]));
+    return result;
+  }
+
+  private static void pause(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+package net.cbsolution.crypthru.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessingManifestTest {
+
+  @Test
+  void manifestTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    Path done = Files.write(dir.resolve("done\tfile.txt"), "abc".getBytes());
+    Path crashed = Files.write(dir.resolve("crashed.txt"), "abc".getBytes());
+    Path unknown = Files.write(dir.resolve("unknown.txt"), "abc".getBytes());
+    Path output = Files.write(dir.resolve("done\tfile.txt.pgp"), "encrypted".getBytes());
+    Files.write(dir.resolve("crashed.txt.pgp"), "encrypted".getBytes());
+    try (ProcessingManifest manifest = new ProcessingManifest(dir)) {
+      manifest.started(done, dir.resolve("done\tfile.txt.pgp"));
+      manifest.completed(done, dir.resolve("done\tfile.txt.pgp"));
+      manifest.started(crashed, dir.resolve("crashed.txt.pgp"));
+    }
+
+    try (ProcessingManifest manifest = new ProcessingManifest(dir)) {
+      assertTrue(manifest.isUpToDate(done, dir.resolve("done\tfile.txt.pgp")));
+      assertNull(manifest.isUpToDate(done, dir.resolve("done\tfile.txt.other")));
+      assertFalse(manifest.isUpToDate(crashed, dir.resolve("crashed.txt.pgp")));
+      assertNull(manifest.isUpToDate(unknown, dir.resolve("unknown.txt.pgp")));
+
+      // touched, same content
+      Files.setLastModifiedTime(done, FileTime.fromMillis(Files.getLastModifiedTime(done).toMillis() + 5000));
+      assertTrue(manifest.isUpToDate(done, dir.resolve("done\tfile.txt.pgp")));
+      // same size, different content
+      Files.write(done, "xyz".getBytes());
+      Files.setLastModifiedTime(done, FileTime.fromMillis(Files.getLastModifiedTime(done).toMillis() + 10000));
+      assertFalse(manifest.isUpToDate(done, dir.resolve("done\tfile.txt.pgp")));
+    }
+
+    // a deleted output is processed again
+    try (ProcessingManifest manifest = new ProcessingManifest(dir)) {
+      manifest.started(done, output);
+      manifest.completed(done, output);
+      assertTrue(manifest.isUpToDate(done, output));
+      Files.delete(output);
+      assertFalse(manifest.isUpToDate(done, output));
+      Files.write(output, "encrypted".getBytes());
+    }
+
+    // superseded records are compacted away, as well as those of deleted files
+    try (ProcessingManifest manifest = new ProcessingManifest(dir)) {
+      manifest.started(unknown, dir.resolve("unknown.txt.pgp"));
+      Files.delete(unknown);
+      for (int i = 0; i < 1000; i++) {
+        manifest.started(done, dir.resolve("done\tfile.txt.pgp"));
+        manifest.completed(done, dir.resolve("done\tfile.txt.pgp"));
+      }
+    }
+    assertEquals(3, Files.readAllLines(dir.resolve(ProcessingManifest.FILE_NAME)).size());
+    try (ProcessingManifest manifest = new ProcessingManifest(dir)) {
+      assertTrue(manifest.isUpToDate(done, dir.resolve("done\tfile.txt.pgp")));
+      assertFalse(manifest.isUpToDate(crashed, dir.resolve("crashed.txt.pgp")));
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+package net.cbsolution.crypthru.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeWalkerTest {
+
+  @Test
+  void walkTest() throws Exception {
+    Path root = Files.createTempDirectory("tmpDirPrefix");
+    int expected = 0;
+    for (String dir : new String[]{"", "a", "a/b", "a/b/c", "d"}) {
+      Path directory = Files.createDirectories(root.resolve(dir));
+      int count = dir.equals("a/b") ? TreeWalker.BATCH_SIZE + 10 : 5;
+      for (int i = 0; i < count; i++)
+        Files.write(directory.resolve("file" + i + ".txt"), new byte[1]);
+      Files.write(directory.resolve("skipped.bin"), new byte[1]);
+      expected += count;
+    }
+
+    Set<Path> seen = new HashSet<>();
+    AtomicInteger largest = new AtomicInteger();
+    new TreeWalker(3).walk(root, p -> p.toString().endsWith(".txt"), files -> {
+      largest.accumulateAndGet(files.size(), Math::max);
+      for (Path file : files)
+        assertTrue(seen.add(file), "Listed twice: " + file);
+    });
+
+    assertEquals(expected, seen.size());
+    assertEquals(TreeWalker.BATCH_SIZE, largest.get());
+    assertTrue(seen.contains(root.resolve("a/b/c/file4.txt")));
+  }
+
+  @Test
+  void vanishingTest() throws Exception {
+    Path root = Files.createTempDirectory("tmpDirPrefix");
+    Path sub = Files.createDirectories(root.resolve("sub"));
+    Files.write(sub.resolve("file.txt"), new byte[1]);
+    for (int i = 0; i < 100; i++)
+      Files.write(root.resolve("file" + i + ".txt"), new byte[1]);
+
+    // the first file listed deletes the others, already read from the directory, and the subdirectory
+    Set<Path> seen = new HashSet<>();
+    new TreeWalker(1).walk(root, (TreeWalker.EntryFilter) (file, attributes) -> {
+      if (seen.isEmpty())
+        try (Stream<Path> files = Files.walk(root)) {
+          files.sorted(Comparator.reverseOrder()).filter(p -> !p.equals(root) && !p.equals(file))
+              .forEach(p -> p.toFile().delete());
+        } catch (IOException ex) {
+          throw new RuntimeException(ex);
+        }
+      return seen.add(file);
+    }, files -> {
+    });
+    assertEquals(1, seen.size());
+  }
+
+  @Test
+  void slowConsumerTest() throws Exception {
+    // a date-partitioned tree: many small directories
+    Path root = Files.createTempDirectory("tmpDirPrefix");
+    for (int month = 1; month <= 10; month++)
+      for (int day = 1; day <= 30; day++) {
+        Path directory = Files.createDirectories(root.resolve(month + "/" + day));
+        Files.write(directory.resolve("file.txt"), new byte[1]);
+      }
+
+    int parallelism = 2;
+    Set<Thread> listingThreads = ConcurrentHashMap.newKeySet();
+    AtomicInteger pending = new AtomicInteger();
+    AtomicInteger mostPending = new AtomicInteger();
+    AtomicInteger consumed = new AtomicInteger();
+    new TreeWalker(parallelism).walk(root, (TreeWalker.EntryFilter) (file, attributes) -> {
+      listingThreads.add(Thread.currentThread());
+      mostPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+      return true;
+    }, files -> {
+      try {
+        Thread.sleep(2);
+      } catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+      pending.addAndGet(-files.size());
+      consumed.addAndGet(files.size());
+    });
+
+    assertEquals(300, consumed.get());
+    assertTrue(listingThreads.size() <= parallelism, "Listing threads: " + listingThreads.size());
+    // one file a directory: at most the queued batches, one batch a worker and the one being consumed
+    assertTrue(mostPending.get() <= 4 * parallelism, "Files listed ahead: " + mostPending.get());
+  }
+
+}
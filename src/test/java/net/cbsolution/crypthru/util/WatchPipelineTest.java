@@ -0,0 +1,88 @@
+package net.cbsolution.crypthru.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchPipelineTest {
+
+  @Test
+  void pipelineTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    Map<String, Long> processed = new ConcurrentHashMap<>();
+    WatchPipeline pipeline = new WatchPipeline(dir, 2, 2, 300)
+        .stopOn("STOP").filter(p -> p.getFileName().toString().endsWith(".txt"));
+    Thread watch = new Thread(() -> pipeline.run(p -> {
+      try {
+        Thread.sleep(20);
+        processed.merge(p.getFileName().toString(), Files.size(p), (a, b) -> b);
+      } catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
+    }));
+    watch.start();
+    Thread.sleep(500);
+
+    // a file copied slowly is processed once, when complete
+    Path slow = dir.resolve("slow.txt");
+    Files.write(slow, new byte[1000]);
+    Thread.sleep(100);
+    Files.write(slow, new byte[1000], StandardOpenOption.APPEND);
+    // more files than the queue holds: none is lost
+    for (int i = 0; i < 20; i++)
+      Files.write(dir.resolve("burst" + i + ".txt"), new byte[10]);
+    Files.write(dir.resolve("ignored.bin"), new byte[10]);
+
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (processed.size() < 21 && System.currentTimeMillis() < deadline)
+      Thread.sleep(50);
+    Files.write(dir.resolve("STOP"), new byte[0]);
+    watch.join(30_000);
+
+    assertFalse(watch.isAlive());
+    assertEquals(21, processed.size());
+    assertEquals(2000L, processed.get("slow.txt"));
+    assertEquals(21, pipeline.getMetrics().getDone());
+    assertTrue(pipeline.getMetrics().getMaxQueueDepth() <= 2);
+    assertTrue(pipeline.getMetrics().getMeanLatencyMillis() >= 300);
+  }
+
+  @Test
+  void stopWhileQueueFullTest() throws Exception {
+    Path dir = Files.createTempDirectory("tmpDirPrefix");
+    CountDownLatch release = new CountDownLatch(1);
+    WatchPipeline pipeline = new WatchPipeline(dir, 1, 1, 100)
+        .stopOn("STOP").filter(p -> p.getFileName().toString().endsWith(".txt"));
+    Thread watch = new Thread(() -> pipeline.run(p -> {
+      try {
+        release.await(30, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+    }));
+    watch.start();
+    Thread.sleep(500);
+
+    // one file processed, one queued, the stabilizer waiting to queue the others when the watch stops
+    for (int i = 0; i < 4; i++)
+      Files.write(dir.resolve("file" + i + ".txt"), new byte[10]);
+    Thread.sleep(1000);
+    Files.write(dir.resolve("STOP"), new byte[0]);
+    Thread.sleep(500);
+    release.countDown();
+    watch.join(30_000);
+
+    assertFalse(watch.isAlive());
+    assertEquals(2, pipeline.getMetrics().getDone());
+    assertEquals(2, pipeline.getMetrics().getLeft());
+  }
+
+}